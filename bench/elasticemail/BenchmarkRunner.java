@@ -0,0 +1,38 @@
+package elasticemail;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * Runs the JMH micro benchmarks in this directory, each in a freshly forked JVM, with the <code>-prof gc</code>
+ * profiler so every result comes with <code>gc.alloc.rate.norm</code>, the bytes allocated per op.
+ * </p>
+ *
+ * <p>
+ * Run it from ant with <code>ant bench</code> for every benchmark, or pass a regular expression and any other JMH
+ * options, e.g. <code>ant bench -Dbench="XmlBenchmark -f 3"</code>. Each benchmark class sets its own warmup,
+ * measurement and fork defaults.
+ * </p>
+ */
+public final class BenchmarkRunner {
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cl = new CommandLineOptions(args);
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(cl);
+		if ( cl.getIncludes().isEmpty() ) {
+			options.include("elasticemail\\..*Benchmark\\.");
+		}
+		if ( cl.getProfilers().isEmpty() ) {
+			options.addProfiler(GCProfiler.class);
+		}
+		new Runner(options.build()).run();
+	}
+
+}
@@ -0,0 +1,62 @@
+package elasticemail;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import elasticemail.TemplateBenchmark.DiscardOutputStream;
+
+/**
+ * <p>
+ * Url encoding the values that go into every request: {@link ElasticEmailClient#urlEncodeUTF8(String)}, which the
+ * query strings use, against {@link FormEncoder}, which writes the send body.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+
+	static final String ADDRESS = "first.last+tag@example-mail.com";
+	static final String SUBJECT = "Your order #10442 has shipped \u2014 arriving Thursday, na\u00efve caf\u00e9 & co.";
+
+	private final DiscardOutputStream out = new DiscardOutputStream();
+	private final FormEncoder form = new FormEncoder(out);
+
+	@Benchmark
+	public String urlEncodeUTF8Address() {
+		return ElasticEmailClient.urlEncodeUTF8(ADDRESS);
+	}
+
+	@Benchmark
+	public String urlEncodeUTF8Subject() {
+		return ElasticEmailClient.urlEncodeUTF8(SUBJECT);
+	}
+
+	@Benchmark
+	public long formEncoderAddress() throws IOException {
+		form.field("to", ADDRESS);
+		form.flush();
+		return out.count;
+	}
+
+	@Benchmark
+	public long formEncoderSubject() throws IOException {
+		form.field("subject", SUBJECT);
+		form.flush();
+		return out.count;
+	}
+
+}
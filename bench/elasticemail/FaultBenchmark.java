@@ -0,0 +1,111 @@
+package elasticemail;
+
+import java.util.Locale;
+
+/**
+ * <p>
+ * How much throughput, and what tail latency, survives each kind of API failure. For each fault profile a
+ * {@link FaultInjectingTransport} is put in front of a {@link StubServer}, and a {@link LoadGenerator} drives the
+ * client at a fixed rate of sends and status polls; the calls that succeeded per second and the latency of all calls,
+ * failed ones included, are reported.
+ * </p>
+ *
+ * <p>
+ * Run it with <code>ant faults</code>, or <code>-Dfaults.args="-rate 500 -duration 10 -threads 32"</code>.
+ * </p>
+ */
+public class FaultBenchmark {
+
+	interface Profile {
+		void apply(FaultInjectingTransport.Faults f);
+	}
+
+	static final String[] NAMES = { "none", "latency 20ms, p99 200ms", "5% errors (503)", "2% resets", "2% truncated", "1% timeouts (1s)", "mixed" };
+
+	static final Profile[] PROFILES = { new Profile() {
+		@Override
+		public void apply(FaultInjectingTransport.Faults f) {
+		}
+	}, new Profile() {
+		@Override
+		public void apply(FaultInjectingTransport.Faults f) {
+			f.latency(20, 200);
+		}
+	}, new Profile() {
+		@Override
+		public void apply(FaultInjectingTransport.Faults f) {
+			f.errors(0.05, 503);
+		}
+	}, new Profile() {
+		@Override
+		public void apply(FaultInjectingTransport.Faults f) {
+			f.resets(0.02);
+		}
+	}, new Profile() {
+		@Override
+		public void apply(FaultInjectingTransport.Faults f) {
+			f.truncations(0.02);
+		}
+	}, new Profile() {
+		@Override
+		public void apply(FaultInjectingTransport.Faults f) {
+			f.timeouts(0.01, 1000);
+		}
+	}, new Profile() {
+		@Override
+		public void apply(FaultInjectingTransport.Faults f) {
+			f.latency(20, 200).errors(0.02, 503).resets(0.01).truncations(0.01).timeouts(0.005, 1000);
+		}
+	} };
+
+	public static void main(String[] args) throws Exception {
+		double rate = 200;
+		long duration = 5;
+		int threads = 16;
+		long seed = 1;
+		for ( int i = 0; i + 1 < args.length; i += 2 ) {
+			if ( args[i].equals("-rate") ) {
+				rate = Double.parseDouble(args[i + 1]);
+			}
+			else if ( args[i].equals("-duration") ) {
+				duration = Long.parseLong(args[i + 1]);
+			}
+			else if ( args[i].equals("-threads") ) {
+				threads = Integer.parseInt(args[i + 1]);
+			}
+			else if ( args[i].equals("-seed") ) {
+				seed = Long.parseLong(args[i + 1]);
+			}
+			else {
+				System.err.println("usage: FaultBenchmark [-rate 200] [-duration 5] [-threads 16] [-seed 1]");
+				System.exit(1);
+			}
+		}
+		if ( System.getProperty("http.maxConnections") == null ) {
+			System.setProperty("http.maxConnections", Integer.toString(threads));
+		}
+		StubServer stub = new StubServer(0, seed).start();
+		try {
+			System.out.println(String.format(Locale.ROOT, "%.0f calls/s (90%% sends, 10%% status) for %ds on %d threads", rate, duration, threads));
+			System.out.println(String.format(Locale.ROOT, "%-26s %8s %8s %10s %10s %10s %10s", "faults", "ok/s", "err %", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+			for ( int p = 0; p < PROFILES.length; p++ ) {
+				FaultInjectingTransport transport = new FaultInjectingTransport(HttpTransport.DEFAULT, seed);
+				for ( ClientMetrics.Endpoint e : ClientMetrics.Endpoint.values() ) {
+					PROFILES[p].apply(transport.faults(e));
+				}
+				ElasticEmailClient client = new ElasticEmailClient.Builder(SendBodyBenchmark.PROPS).apiBaseUrl(stub.getBaseUrl()).transport(transport).build();
+				LoadGenerator load = new LoadGenerator(client, rate, duration, threads, new int[] { 90, 0, 10 }, 1024, 0, seed).quiet();
+				load.run();
+				LatencyHistogram h = load.getLatency();
+				long ok = load.getCompleted() - load.getErrors();
+				System.out.println(String.format(Locale.ROOT, "%-26s %8.1f %8.2f %10.2f %10.2f %10.2f %10.2f", NAMES[p], ok * 1e9 / load.getElapsedNanos(), 100.0
+						* load.getErrors() / Math.max(1, load.getCompleted()), h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6, h
+						.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6));
+			}
+		}
+		finally {
+			stub.close();
+		}
+	}
+
+}
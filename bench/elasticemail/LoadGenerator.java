@@ -0,0 +1,362 @@
+package elasticemail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Drives an {@link ElasticEmailClient} at a fixed rate of calls, a mix of sends, uploads and status polls, and reports
+ * throughput and latency each second and at the end.
+ * </p>
+ *
+ * <p>
+ * The load is open loop: call <i>n</i> is due at <code>start + n / rate</code> whether or not earlier calls have
+ * finished, and its latency is measured from when it was due, not from when a thread got round to it. A client that
+ * stalls therefore shows the stall in every call that queued behind it, as a real producer of mail would see it,
+ * instead of quietly sending less (coordinated omission). If the client can't keep up, the backlog column grows.
+ * </p>
+ *
+ * <p>
+ * With no <code>-url</code> it starts a {@link StubServer} in process, so transport and concurrency settings can be
+ * compared on one box: <code>ant load -Dload.args="-rate 2000 -threads 32 -mix send=80,upload=5,status=15"</code>.
+ * Run it with <code>-help</code> for the options.
+ * </p>
+ */
+public class LoadGenerator {
+
+	enum Op {
+		SEND, UPLOAD, STATUS
+	}
+
+	private static final String USAGE = "usage: LoadGenerator [options]\n" //
+			+ "  -url URL           API to call; default a StubServer started in process\n" //
+			+ "  -rate N            calls per second (1000)\n" //
+			+ "  -duration S        seconds to run (30)\n" //
+			+ "  -threads N         threads making calls (16)\n" //
+			+ "  -mix send=W,upload=W,status=W   relative weights of each call (send=90,upload=0,status=10)\n" //
+			+ "  -body BYTES        size of each send's text body (1024)\n" //
+			+ "  -attachment BYTES  size of each upload (16384)\n" //
+			+ "  -seed N            for the choice of calls (1)\n" //
+			+ "  -capture FILE      record the calls' shapes with a TrafficCapture, for TrafficReplayer\n" //
+			+ "  -stub.latency MEDIAN_MS,P99_MS  latency of the in-process stub (0,0)";
+
+	private final ElasticEmailClient client;
+	private final double rate;
+	private final long durationNanos;
+	private final int threads;
+	private final int[] weights;
+	private final String body;
+	private final byte[] attachment;
+	private final long seed;
+
+	private final LatencyHistogram[] total = new LatencyHistogram[Op.values().length];
+	private final LatencyHistogram all = new LatencyHistogram();
+	private final LatencyHistogram[] interval = { new LatencyHistogram(), new LatencyHistogram() };
+	private volatile int current;
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong issued = new AtomicLong();
+	private final AtomicInteger errorsShown = new AtomicInteger();
+	private volatile TransactionId lastSent;
+	private boolean quiet;
+	private long elapsedNanos;
+
+	LoadGenerator(ElasticEmailClient client, double rate, long durationSeconds, int threads, int[] weights, int bodyBytes, int attachmentBytes, long seed) {
+		this.client = client;
+		this.rate = rate;
+		this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+		this.threads = threads;
+		this.weights = weights;
+		StringBuilder sb = new StringBuilder(bodyBytes);
+		while ( sb.length() < bodyBytes ) {
+			sb.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt.\n");
+		}
+		sb.setLength(bodyBytes);
+		this.body = sb.toString();
+		this.attachment = new byte[attachmentBytes];
+		new Random(seed).nextBytes(attachment);
+		this.seed = seed;
+		for ( int i = 0; i < total.length; i++ ) {
+			total[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Print nothing; the caller reads the results.
+	 */
+	LoadGenerator quiet() {
+		this.quiet = true;
+		return this;
+	}
+
+	LatencyHistogram getLatency() {
+		return all;
+	}
+
+	long getCompleted() {
+		return completed.get();
+	}
+
+	long getErrors() {
+		return errors.get();
+	}
+
+	long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	void run() throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger n = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LoadGenerator-" + n.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		Random random = new Random(seed);
+		int weightSum = 0;
+		for ( int w : weights ) {
+			weightSum += w;
+		}
+		long periodNanos = (long) (1e9 / rate);
+		long start = System.nanoTime();
+		long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+		long lastCompleted = 0;
+		long lastErrors = 0;
+		print(String.format(Locale.ROOT, "%6s %8s %8s %8s %10s %10s %10s %8s", "sec", "calls/s", "ok/s", "err/s", "p50 ms", "p99 ms",
+				"max ms", "backlog"));
+		for ( long n = 0;; n++ ) {
+			final long due = start + n * periodNanos;
+			if ( due - start >= durationNanos ) {
+				break;
+			}
+			// report on time even when the rate is below one a second
+			while ( nextReport - due <= 0 ) {
+				park(nextReport);
+				lastCompleted = report(nextReport - start, lastCompleted, lastErrors);
+				lastErrors = errors.get();
+				nextReport += TimeUnit.SECONDS.toNanos(1);
+			}
+			park(due);
+			final Op op = pick(random, weightSum);
+			issued.incrementAndGet();
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					call(op, due);
+				}
+			});
+		}
+		pool.shutdown();
+		// keep reporting while the backlog drains, for up to a minute
+		long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+		while ( !pool.awaitTermination(nextReport - System.nanoTime(), TimeUnit.NANOSECONDS) && nextReport - drainDeadline < 0 ) {
+			lastCompleted = report(nextReport - start, lastCompleted, lastErrors);
+			lastErrors = errors.get();
+			nextReport += TimeUnit.SECONDS.toNanos(1);
+		}
+		report(System.nanoTime() - start, lastCompleted, lastErrors);
+		pool.shutdownNow();
+		elapsedNanos = System.nanoTime() - start;
+		if ( !quiet ) {
+			summary(elapsedNanos);
+		}
+	}
+
+	private Op pick(Random random, int weightSum) {
+		int r = random.nextInt(weightSum);
+		for ( Op op : Op.values() ) {
+			r -= weights[op.ordinal()];
+			if ( r < 0 ) {
+				return op;
+			}
+		}
+		return Op.SEND;
+	}
+
+	private void call(Op op, long due) {
+		boolean ok = false;
+		try {
+			TransactionId polled = lastSent;
+			if ( op == Op.STATUS && polled == null ) {
+				op = Op.SEND; // nothing sent to poll yet
+			}
+			switch ( op ) {
+			case SEND:
+				lastSent = client.sendEmail("load", "load@example.com", "Load Generator", "recipient@example.com", "load test", body);
+				break;
+			case UPLOAD:
+				client.uploadAttachment(new ByteArrayInputStream(attachment), "load.bin");
+				break;
+			case STATUS:
+				client.getStatus(polled);
+				break;
+			}
+			ok = true;
+		}
+		catch ( Exception e ) {
+			if ( !quiet && errorsShown.incrementAndGet() <= 5 ) {
+				System.err.println(op + " failed: " + e);
+			}
+		}
+		finally {
+			long latency = System.nanoTime() - due;
+			total[op.ordinal()].record(latency);
+			all.record(latency);
+			interval[current].record(latency);
+			if ( !ok ) {
+				errors.incrementAndGet();
+			}
+			completed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Prints the second just ended, and starts the next.
+	 *
+	 * @return calls completed so far
+	 */
+	private long report(long elapsedNanos, long lastCompleted, long lastErrors) {
+		int was = current;
+		interval[1 - was].reset();
+		current = 1 - was;
+		LatencyHistogram h = interval[was];
+		long done = completed.get();
+		long failed = errors.get() - lastErrors;
+		print(String.format(Locale.ROOT, "%6d %8d %8d %8d %10.2f %10.2f %10.2f %8d", Math.round(elapsedNanos / 1e9), done - lastCompleted, done
+				- lastCompleted - failed, failed, h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6, issued.get() - done));
+		return done;
+	}
+
+	private void summary(long elapsedNanos) {
+		System.out.println();
+		System.out.println(String.format(Locale.ROOT, "%d calls in %.1fs: %.1f calls/s, %d errors; target %.1f calls/s", completed.get(), elapsedNanos / 1e9,
+				completed.get() * 1e9 / elapsedNanos, errors.get(), rate));
+		System.out.println(String.format(Locale.ROOT, "%-16s %10s %10s %10s %10s %10s", "", "count", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for ( Op op : Op.values() ) {
+			if ( total[op.ordinal()].getCount() > 0 ) {
+				printPercentiles(op.name().toLowerCase(), total[op.ordinal()]);
+			}
+		}
+		printPercentiles("all", all);
+	}
+
+	static void printPercentiles(String name, LatencyHistogram h) {
+		System.out.println(String.format(Locale.ROOT, "%-16s %10d %10.2f %10.2f %10.2f %10.2f", name, h.getCount(), h.getValueAtPercentile(50) / 1e6,
+				h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6));
+	}
+
+	private void print(String line) {
+		if ( !quiet ) {
+			System.out.println(line);
+		}
+	}
+
+	private static void park(long until) {
+		long wait;
+		while ( (wait = until - System.nanoTime()) > 0 ) {
+			LockSupport.parkNanos(wait);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String url = null;
+		double rate = 1000;
+		long duration = 30;
+		int threads = 16;
+		int[] weights = { 90, 0, 10 };
+		int body = 1024;
+		int attachment = 16 * 1024;
+		long seed = 1;
+		double[] stubLatency = { 0, 0 };
+		String capture = null;
+		for ( int i = 0; i < args.length; i += 2 ) {
+			String opt = args[i];
+			if ( opt.equals("-help") || i + 1 >= args.length ) {
+				System.err.println(USAGE);
+				System.exit(opt.equals("-help") ? 0 : 1);
+			}
+			String v = args[i + 1];
+			if ( opt.equals("-url") ) {
+				url = v;
+			}
+			else if ( opt.equals("-rate") ) {
+				rate = Double.parseDouble(v);
+			}
+			else if ( opt.equals("-duration") ) {
+				duration = Long.parseLong(v);
+			}
+			else if ( opt.equals("-threads") ) {
+				threads = Integer.parseInt(v);
+			}
+			else if ( opt.equals("-mix") ) {
+				weights = new int[Op.values().length];
+				for ( String part : v.split(",") ) {
+					String[] kv = part.split("=");
+					weights[Op.valueOf(kv[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(kv[1].trim());
+				}
+			}
+			else if ( opt.equals("-body") ) {
+				body = Integer.parseInt(v);
+			}
+			else if ( opt.equals("-attachment") ) {
+				attachment = Integer.parseInt(v);
+			}
+			else if ( opt.equals("-seed") ) {
+				seed = Long.parseLong(v);
+			}
+			else if ( opt.equals("-capture") ) {
+				capture = v;
+			}
+			else if ( opt.equals("-stub.latency") ) {
+				String[] ms = v.split(",");
+				stubLatency[0] = Double.parseDouble(ms[0]);
+				stubLatency[1] = Double.parseDouble(ms[ms.length > 1 ? 1 : 0]);
+			}
+			else {
+				System.err.println("unknown option " + opt + "\n" + USAGE);
+				System.exit(1);
+			}
+		}
+		StubServer stub = null;
+		if ( url == null ) {
+			stub = new StubServer(0, seed).start();
+			for ( StubServer.Endpoint e : StubServer.Endpoint.values() ) {
+				stub.behavior(e).latency(stubLatency[0], stubLatency[1]);
+			}
+			url = stub.getBaseUrl();
+		}
+		// keep-alive connections are pooled per destination; let every thread keep one
+		if ( System.getProperty("http.maxConnections") == null ) {
+			System.setProperty("http.maxConnections", Integer.toString(threads));
+		}
+		ElasticEmailClient.Builder builder = new ElasticEmailClient.Builder(SendBodyBenchmark.PROPS).apiBaseUrl(url);
+		TrafficCapture capturing = null;
+		if ( capture != null ) {
+			capturing = new TrafficCapture(new File(capture));
+			builder.interceptor(capturing);
+		}
+		ElasticEmailClient client = builder.build();
+		System.out.println(String.format(Locale.ROOT, "%.0f calls/s for %ds on %d threads against %s", rate, duration, threads, url));
+		new LoadGenerator(client, rate, duration, threads, weights, body, attachment, seed).run();
+		if ( capturing != null ) {
+			capturing.close();
+		}
+		if ( stub != null ) {
+			stub.close();
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package elasticemail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Checks what {@link MailerStatusParser} makes of a set of status responses, well formed and not: attributes,
+ * comments, declarations, whitespace around values, numbers at and past the <code>int</code> range, unknown elements
+ * and roots, and responses cut short. Each is parsed from memory, from a stream, and from a stream that gives one byte
+ * per read, so the buffer refills and grows mid token. <code>ant xml-check</code> runs it.
+ * </p>
+ */
+public class MailerStatusParserCheck {
+
+	/**
+	 * Pairs of a response and what it parses to: the status and the eight counts in the order of
+	 * {@link MailerStatus}'s fields, or the simple name of the exception it raises.
+	 */
+	static final String[][] CASES = {
+			{ XmlBenchmark.STATUS_XML, "in_progress 12500 11873 212 415 4471 903 37 2" },
+			{ "<emailstatus version=\"2\" note='a>b \"c\"'><status kind=\"x\">complete</status><recipients unit='n'>3</recipients></emailstatus>",
+					"complete 3 0 0 0 0 0 0 0" },
+			{ "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<!DOCTYPE emailstatus>\n<!-- a comment -- with dashes --->\n"
+					+ "<emailstatus><!-- <failed>9</failed> --><status>submitted</status><![CDATA[<failed>5</failed> ]] >]]></emailstatus>",
+					"submitted 0 0 0 0 0 0 0 0" },
+			{ "\r\n\t <emailstatus >\n <status>\t complete \r\n</status>\n<failed>  7\t</failed >\n</emailstatus>\n",
+					"complete 0 0 7 0 0 0 0 0" },
+			{ "<emailstatus><status>complete</status><delivered>+5</delivered><pending>-3</pending></emailstatus>",
+					"complete 0 5 0 -3 0 0 0 0" },
+			{ "<emailstatus><status>complete</status><opened>2147483647</opened><clicked>-2147483648</clicked></emailstatus>",
+					"complete 0 0 0 0 2147483647 -2147483648 0 0" },
+			{ "<emailstatus><status>complete</status><opened>2147483648</opened></emailstatus>", "NumberFormatException" },
+			{ "<emailstatus><status>complete</status><clicked>-2147483649</clicked></emailstatus>", "NumberFormatException" },
+			{ "<emailstatus><status>complete</status><opened>99999999999999999999</opened></emailstatus>", "NumberFormatException" },
+			{ "<emailstatus><status>complete</status><failed>x</failed></emailstatus>", "NumberFormatException" },
+			{ "<emailstatus><status>complete</status><failed>1 2</failed></emailstatus>", "NumberFormatException" },
+			{ "<emailstatus><status>complete</status><failed></failed></emailstatus>", "NumberFormatException" },
+			{ "<emailstatus><status>bogus</status></emailstatus>", "IllegalArgumentException" },
+			{ "<emailstatus><status>Complete</status></emailstatus>", "IllegalArgumentException" },
+			{ "<emailstatus><extra a='1'><failed>9</failed><deep><status>bogus</status></deep></extra><status>complete</status>"
+					+ "<failed/><unknownfield>3</unknownfield><statuses>x</statuses></emailstatus>", "complete 0 0 0 0 0 0 0 0" },
+			{ "<emailstatus><status>complete</status></emailstatus>\r\ntrailing text", "complete 0 0 0 0 0 0 0 0" },
+			{ "<error>bad key</error>", "XMLParseException" },
+			{ "<html><head><title>503 Service Unavailable</title></head><body><h1>Service Unavailable</h1></body></html>",
+					"XMLParseException" },
+			{ "<emailstatus/>", "XMLParseException" },
+			{ "<emailstatus><recipients>1</recipients></emailstatus>", "XMLParseException" },
+			{ "<emailstatus><status>complete</status></emailstatuz>", "XMLParseException" },
+			{ "<emailstatus><status>complete</failed></emailstatus>", "XMLParseException" },
+			{ "<emailstatus><status>comp", "XMLParseException" },
+			{ "<emailstatus><status>complete</status><!-- unterminated", "XMLParseException" },
+			{ "<emailstatus a='unterminated><status>complete</status></emailstatus>", "XMLParseException" },
+			{ "not xml", "XMLParseException" },
+			{ "", "XMLParseException" }, };
+
+	static final String[] SOURCES = { "memory", "stream", "byte at a time" };
+
+	public static void main(String[] args) throws Exception {
+		List<String> failures = new ArrayList<String>();
+		for ( int c = 0; c < CASES.length; c++ ) {
+			byte[] bytes = CASES[c][0].getBytes("UTF-8");
+			for ( int source = 0; source < SOURCES.length; source++ ) {
+				String result = parse(bytes, source);
+				if ( !result.equals(CASES[c][1]) ) {
+					failures.add("case " + c + " from " + SOURCES[source] + ": expected " + CASES[c][1] + ", got " + result + "\n  " + CASES[c][0]);
+				}
+			}
+		}
+		System.out.println("MailerStatusParser: " + CASES.length + " responses x " + SOURCES.length + " sources, " + failures.size() + " wrong");
+		for ( String f : failures ) {
+			System.out.println(f);
+		}
+		if ( !failures.isEmpty() ) {
+			System.exit(1);
+		}
+	}
+
+	static String parse(byte[] bytes, int source) {
+		MailerStatusParser parser;
+		if ( source == 0 ) {
+			parser = new MailerStatusParser(bytes, 0, bytes.length);
+		}
+		else if ( source == 1 ) {
+			parser = new MailerStatusParser(new ByteArrayInputStream(bytes));
+		}
+		else {
+			parser = new MailerStatusParser(new Trickle(bytes));
+		}
+		try {
+			MailerStatus s = parser.parse();
+			return s.getStatus() + " " + s.getRecipients() + " " + s.getDelivered() + " " + s.getFailed() + " " + s.getPending() + " "
+					+ s.getOpened() + " " + s.getClicked() + " " + s.getUnsubscribed() + " " + s.getAbusereports();
+		}
+		catch ( Exception e ) {
+			return e.getClass().getSimpleName();
+		}
+	}
+
+	/**
+	 * Gives one byte per read, as a slow connection can.
+	 */
+	static final class Trickle extends InputStream {
+		private final byte[] bytes;
+		private int pos;
+
+		Trickle(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read() {
+			return pos < bytes.length ? bytes[pos++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if ( pos == bytes.length ) {
+				return -1;
+			}
+			if ( len == 0 ) {
+				return 0;
+			}
+			b[off] = bytes[pos++];
+			return 1;
+		}
+	}
+
+}
@@ -0,0 +1,332 @@
+package elasticemail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Checks that nanoxml's reworked parser behaves as the one the client shipped with, which is kept as
+ * <code>nanoxml.baseline.XMLElement</code>. The same documents are parsed with both, through every parse method, and
+ * the trees, attributes, contents, line numbers, error messages and whatever was left unread in the reader are
+ * compared. Entity references and the element editing methods are compared the same way.
+ * </p>
+ *
+ * <p>
+ * The two are driven through reflection, as they are unrelated classes with the same methods. A difference that was
+ * made on purpose is listed in {@link #CHANGED} and reported, not failed. <code>ant xml-check</code> runs it.
+ * </p>
+ */
+public class NanoxmlDifferential {
+
+	/**
+	 * Inputs that now raise XMLParseException for an unknown entity, where the old parser threw
+	 * StringIndexOutOfBoundsException.
+	 */
+	static final String[] CHANGED = { "&;", "&#;" };
+
+	static final String[] ENTITY_REFS = { "&#65;", "&#x41;", "&#x;", "&#;", "&;", "&#-5;", "&#+66;", "&#1234567;", "&#x10FFFF;", "&#x1F600;",
+			"&#00000065;", "&foo;", "&amp;", "&lt;&gt;&quot;&apos;", "&bar;", "&#X41;", "&#\u0661\u0662;" };
+
+	static final String[] PATHS = { "parseString", "parseString range", "parseCharArray", "parseFromReader", "parseFromReader unmarkable",
+			"parseFromReader buffered" };
+
+	/**
+	 * An element with no basic entities, as a subclass can make.
+	 */
+	public static class Bare extends nanoxml.XMLElement {
+		public Bare() {
+			super(new Hashtable<Object, Object>(), true, false, true);
+		}
+
+		@Override
+		protected nanoxml.XMLElement createAnotherElement() {
+			return new Bare();
+		}
+	}
+
+	public static class BaselineBare extends nanoxml.baseline.XMLElement {
+		public BaselineBare() {
+			super(new Hashtable<Object, Object>(), true, false, true);
+		}
+
+		@Override
+		protected nanoxml.baseline.XMLElement createAnotherElement() {
+			return new BaselineBare();
+		}
+	}
+
+	static List<String> documents() {
+		List<String> docs = new ArrayList<String>();
+		docs.add(XmlBenchmark.STATUS_XML);
+		StringBuilder big = new StringBuilder("<?xml version='1.0'?>\n<!DOCTYPE x [ <!ENTITY e 'v'> ]>\n<root a=\"1\" b='&lt;&#65;&#x42;'>\n");
+		for ( int i = 0; i < 400; i++ ) {
+			big.append("  <item id=\"").append(i).append("\" name='n&amp;").append(i).append("'>text ").append(i);
+			big.append(" &gt; &quot;x&apos;\n line</item>\n  <!-- c -->\n  <e/>\n");
+		}
+		big.append("<cd><![CDATA[ a<b ]] ]]> c ]]></cd></root>\ntrailing");
+		docs.add(big.toString());
+		StringBuilder longText = new StringBuilder("<a>");
+		for ( int i = 0; i < 5000; i++ ) {
+			longText.append((char) ('a' + i % 26));
+		}
+		docs.add(longText.append("</a>").toString());
+		docs.add("<a>");
+		docs.add("<a></b>");
+		docs.add("<a x=1/>");
+		docs.add("<a>&bogus;</a>");
+		docs.add("<a>x<b/></a>");
+		docs.add("  \n\n<a\n b = 'c' >\n\n</a >");
+		docs.add("<A><B>x</B></A>");
+		docs.add("<a>&#xZZ;</a>");
+		docs.add("");
+		docs.add("   ");
+		docs.add("<a>\u00e9\u4e2d</a>");
+		docs.add("<a:b c-d.e_f='1'/>");
+		docs.add("<a x='1' x='2'/>");
+		docs.add("<a><?pi x?><b/></a>");
+		docs.add("<a><!-- x </a>");
+		docs.add("<a><![CDATA[<x>&amp;]]></a>");
+		docs.add("\r\n\r\n<a>\r\n<b>\r\n</b>\r\n<c/></a>");
+		docs.add("<a><b><c><d>x</d></c></b></a>");
+		docs.add("<a>&;</a>");
+		docs.add("<a>&#;</a>");
+		return docs;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int compared = 0;
+		int changed = 0;
+		List<String> failures = new ArrayList<String>();
+
+		List<String> docs = documents();
+		for ( int d = 0; d < docs.size(); d++ ) {
+			for ( int path = 0; path < PATHS.length; path++ ) {
+				String now = parse(nanoxml.XMLElement.class, docs.get(d), path);
+				String was = parse(nanoxml.baseline.XMLElement.class, docs.get(d), path);
+				compared++;
+				if ( !now.equals(was) ) {
+					if ( isChanged(docs.get(d), was, now) ) {
+						changed++;
+					}
+					else {
+						failures.add("document " + d + ", " + PATHS[path] + ":\n  baseline: " + abbreviate(was) + "\n  now:      " + abbreviate(now));
+					}
+				}
+			}
+		}
+
+		for ( int table = 0; table < 3; table++ ) {
+			for ( String ref : ENTITY_REFS ) {
+				String now = entity(table == 2 ? Bare.class : nanoxml.XMLElement.class, table == 1, ref);
+				String was = entity(table == 2 ? BaselineBare.class : nanoxml.baseline.XMLElement.class, table == 1, ref);
+				compared++;
+				if ( !now.equals(was) ) {
+					if ( isChanged(ref, was, now) ) {
+						changed++;
+					}
+					else {
+						failures.add("entity " + ref + ", table " + table + ":\n  baseline: " + was + "\n  now:      " + now);
+					}
+				}
+			}
+		}
+
+		String now = edit(nanoxml.XMLElement.class);
+		String was = edit(nanoxml.baseline.XMLElement.class);
+		compared++;
+		if ( !now.equals(was) ) {
+			failures.add("editing:\n  baseline: " + was + "\n  now:      " + now);
+		}
+
+		System.out.println("nanoxml: " + docs.size() + " documents x " + PATHS.length + " parse paths, " + ENTITY_REFS.length
+				+ " entity references x 3 entity tables, and editing; " + compared + " comparisons, " + changed + " changed on purpose, "
+				+ failures.size() + " differ");
+		for ( String f : failures ) {
+			System.out.println(f);
+		}
+		if ( !failures.isEmpty() ) {
+			System.exit(1);
+		}
+	}
+
+	private static boolean isChanged(String input, String was, String now) {
+		for ( String c : CHANGED ) {
+			if ( input.contains(c) ) {
+				return was.contains("StringIndexOutOfBoundsException") && now.contains("XMLParseException");
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the parsed tree and what was left in the reader, or the exception
+	 */
+	static String parse(Class<?> type, String doc, int path) throws Exception {
+		Object x = type.getConstructor().newInstance();
+		Reader reader = null;
+		StringBuilder out = new StringBuilder();
+		try {
+			switch ( path ) {
+			case 0:
+				call(x, "parseString", doc);
+				break;
+			case 1:
+				call(x, "parseString", "junk" + doc + "tail", 4, 4 + doc.length(), 3);
+				break;
+			case 2:
+				call(x, "parseCharArray", (doc + "yy").toCharArray(), 0, doc.length());
+				break;
+			case 3:
+				reader = new StringReader(doc);
+				call(x, "parseFromReader", reader);
+				break;
+			case 4:
+				reader = new InputStreamReader(new ByteArrayInputStream(doc.getBytes("UTF-8")), "UTF-8");
+				call(x, "parseFromReader", reader);
+				break;
+			default:
+				reader = new BufferedReader(new StringReader(doc), 7);
+				call(x, "parseFromReader", reader, 5);
+				break;
+			}
+			dump(x, out);
+			if ( reader != null ) {
+				out.append(" rest=[");
+				int c;
+				while ( (c = reader.read()) >= 0 ) {
+					out.append((char) c);
+				}
+				out.append(']');
+			}
+		}
+		catch ( InvocationTargetException e ) {
+			out.append("ERR ").append(e.getCause());
+		}
+		return out.toString();
+	}
+
+	static String entity(Class<?> type, boolean custom, String ref) throws Exception {
+		Hashtable<Object, Object> entities = new Hashtable<Object, Object>();
+		if ( custom ) {
+			entities.put("foo", "FOO");
+			entities.put("bar", new char[] { 'b' });
+			entities.put("amp", "AMP");
+		}
+		Object x = custom ? type.getConstructor(Hashtable.class).newInstance(entities) : type.getConstructor().newInstance();
+		try {
+			call(x, "parseString", "<a v='" + ref + "'><b>" + ref + "</b></a>");
+			Object b = ((List<?>) call(x, "getChildren")).get(0);
+			return call(x, "getStringAttribute", "V") + "|" + call(b, "getContent");
+		}
+		catch ( InvocationTargetException e ) {
+			return "ERR " + e.getCause();
+		}
+	}
+
+	/**
+	 * Reads, sets and removes attributes and children.
+	 */
+	static String edit(Class<?> type) throws Exception {
+		StringBuilder out = new StringBuilder();
+		Object x = type.getConstructor().newInstance();
+		call(x, "parseString", "<r a='1' b='two' c='3.5'><k/><k2 z='1'>t</k2><k3/></r>");
+		out.append(call(x, "getIntAttribute", "a")).append(' ').append(call(x, "getStringAttribute", "B")).append(' ');
+		out.append(call(x, "getDoubleAttribute", "c")).append(' ').append(call(x, "getStringAttribute", "zz", "def")).append(' ');
+		Hashtable<Object, Object> values = new Hashtable<Object, Object>();
+		values.put("two", "2");
+		values.put("TWO", "2");
+		try {
+			out.append(call(x, "getIntAttribute", "b", values, "0", false));
+		}
+		catch ( InvocationTargetException e ) {
+			out.append(e.getCause().getMessage());
+		}
+		call(x, "setAttribute", "a", "9");
+		call(x, "setIntAttribute", "d", 4);
+		call(x, "removeAttribute", "b");
+		call(x, "removeAttribute", "nope");
+		out.append(' ');
+		dump(x, out);
+		Object k2 = ((List<?>) call(x, "getChildren")).get(1);
+		for ( Enumeration<?> e = (Enumeration<?>) call(x, "enumerateChildren"); e.hasMoreElements(); ) {
+			Object child = e.nextElement();
+			if ( "K".equals(call(child, "getName")) ) {
+				call(x, "removeChild", child);
+			}
+		}
+		out.append(' ').append(call(x, "countChildren")).append(' ').append(k2);
+		Object n = type.getConstructor().newInstance();
+		call(n, "setName", "n");
+		call(n, "addChild", k2);
+		call(n, "setAttribute", "q", "<&>");
+		out.append(' ').append(n).append(' ').append(call(n, "countChildren"));
+		Object e = type.getConstructor(boolean.class).newInstance(false);
+		call(e, "setName", "e");
+		out.append(' ').append(e).append(call(e, "countChildren")).append(call(e, "getChildren"));
+		out.append(((Enumeration<?>) call(e, "enumerateChildren")).hasMoreElements());
+		out.append(((Enumeration<?>) call(e, "enumerateAttributeNames")).hasMoreElements());
+		try {
+			call(e, "setAttribute", null, "x");
+		}
+		catch ( InvocationTargetException ex ) {
+			out.append(' ').append(ex.getCause().getClass().getName());
+		}
+		return out.toString();
+	}
+
+	private static void dump(Object x, StringBuilder out) throws Exception {
+		out.append(call(x, "getName")).append('@').append(call(x, "getLineNr")).append('{');
+		TreeMap<String, Object> attributes = new TreeMap<String, Object>();
+		for ( Enumeration<?> e = (Enumeration<?>) call(x, "enumerateAttributeNames"); e.hasMoreElements(); ) {
+			String name = (String) e.nextElement();
+			attributes.put(name, call(x, "getAttribute", name));
+		}
+		out.append(attributes).append(" [").append(call(x, "getContent")).append(']');
+		for ( Object child : (List<?>) call(x, "getChildren") ) {
+			dump(child, out);
+		}
+		out.append('}');
+	}
+
+	/**
+	 * Calls the public method with that name and number of parameters.
+	 */
+	private static Object call(Object target, String name, Object... args) throws Exception {
+		for ( Method m : target.getClass().getMethods() ) {
+			if ( m.getName().equals(name) && m.getParameterTypes().length == args.length && accepts(m.getParameterTypes(), args) ) {
+				return m.invoke(target, args);
+			}
+		}
+		throw new NoSuchMethodException(target.getClass().getName() + "." + name);
+	}
+
+	private static boolean accepts(Class<?>[] types, Object[] args) {
+		for ( int i = 0; i < types.length; i++ ) {
+			Class<?> t = types[i];
+			if ( args[i] == null ) {
+				if ( t.isPrimitive() ) {
+					return false;
+				}
+			}
+			else if ( t == int.class ? !(args[i] instanceof Integer) : t == boolean.class ? !(args[i] instanceof Boolean) : !t.isInstance(args[i]) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String abbreviate(String s) {
+		return s.length() > 300 ? s.substring(0, 150) + " ... " + s.substring(s.length() - 100) : s;
+	}
+
+}
@@ -0,0 +1,62 @@
+package elasticemail;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Whole calls through {@link ElasticEmailClient} over HTTP to a {@link StubServer} on the loopback interface: a short
+ * text send, and a status poll. The stub answers at once, so this measures the client's own cost per call, connection
+ * handling included. The allocation the gc profiler reports includes the stub's, as it runs in the same JVM.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+
+	private StubServer stub;
+	private ElasticEmailClient client;
+	private EmailMessage message;
+	private TransactionId sent;
+
+	@Setup
+	public void start() throws IOException {
+		stub = new StubServer(0, 1).start();
+		client = new ElasticEmailClient.Builder(SendBodyBenchmark.PROPS).apiBaseUrl(stub.getBaseUrl()).build();
+		message = SendBodyBenchmark.message(0);
+		sent = client.send(message.copy());
+	}
+
+	@TearDown
+	public void stop() {
+		stub.close();
+	}
+
+	@Benchmark
+	public TransactionId sendEmail() throws IOException {
+		return client.sendEmail(message.getChannel(), message.getFromEmail(), message.getFromName(), message.getToEmails(), message.getSubject(),
+				message.getBodyText(), null, null);
+	}
+
+	@Benchmark
+	public MailerStatus getStatus() throws Exception {
+		return client.getStatus(sent);
+	}
+
+}
@@ -0,0 +1,79 @@
+package elasticemail;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import elasticemail.ElasticEmailClient.ElasticEmailProperties;
+import elasticemail.TemplateBenchmark.DiscardOutputStream;
+
+/**
+ * <p>
+ * Building the body of a send request, as {@link ElasticEmailClient#sendEmail} writes it to the connection, for a
+ * short plain text message and for a ~100 KB html newsletter.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SendBodyBenchmark {
+
+	static final ElasticEmailProperties PROPS = new ElasticEmailProperties() {
+		@Override
+		public String getElasticEmailUserName() {
+			return "sender@example.com";
+		}
+
+		@Override
+		public String getElasticEmailApiKey() {
+			return "0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0";
+		}
+	};
+
+	static EmailMessage message(int htmlSize) {
+		EmailMessage m = new EmailMessage();
+		m.setChannel("receipts");
+		m.setFromEmail("orders@example.com");
+		m.setFromName("Example Store");
+		m.setToEmails(EncodingBenchmark.ADDRESS);
+		m.setSubject(EncodingBenchmark.SUBJECT);
+		m.setBodyText("Thanks for your order. It ships today and should arrive Thursday.\n\nExample Store\n");
+		if ( htmlSize > 0 ) {
+			m.setBodyHtml(TemplateBenchmark.htmlBody(htmlSize));
+		}
+		return m;
+	}
+
+	private final DiscardOutputStream out = new DiscardOutputStream();
+	private final EmailMessage small = message(0);
+	private final EmailMessage large = message(TemplateBenchmark.BODY_SIZE);
+
+	@Benchmark
+	public long text() throws IOException {
+		FormEncoder form = new FormEncoder(out);
+		ElasticEmailClient.writeSendForm(form, small, small.getToEmails(), null, PROPS, null);
+		form.flush();
+		return out.count;
+	}
+
+	@Benchmark
+	public long html100k() throws IOException {
+		FormEncoder form = new FormEncoder(out);
+		ElasticEmailClient.writeSendForm(form, large, large.getToEmails(), null, PROPS, null);
+		form.flush();
+		return out.count;
+	}
+
+}
@@ -0,0 +1,617 @@
+package elasticemail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A fake Elastic Email API to load test the client against. It answers <code>/mailer/send</code>,
+ * <code>/attachments/upload</code> and <code>/mailer/status/{id}</code> the way the real API does, and can be made to
+ * misbehave: each endpoint has a {@link Behavior} setting its latency, error rate, slow-dripped responses and
+ * connection resets.
+ * </p>
+ *
+ * <p>
+ * It also serves the <code>/mailer/list/bounced</code> and <code>/mailer/list/unsubscribed</code> CSV exports that
+ * {@link SuppressionSync} reads, with {@link #exportRows(long)} generated addresses each, streamed chunked the way a
+ * large export comes back. The addresses are the same on every request, so a second sync finds nothing new. Exports
+ * aren't dripped.
+ * </p>
+ *
+ * <p>
+ * It speaks just enough HTTP/1.1 for {@link java.net.HttpURLConnection}: keep-alive, and request bodies sent with a
+ * content length or chunked. Each connection gets a thread that reads requests off a blocking socket and answers from
+ * pre-encoded bytes, so on one box it answers tens of thousands of requests per second and isn't the bottleneck for
+ * the client. Its randomness is seeded, one {@link Random} per connection, so a run can be repeated.
+ * </p>
+ *
+ * <p>
+ * In process:
+ * </p>
+ *
+ * <pre>
+ * StubServer stub = new StubServer(0, 42).start();
+ * stub.behavior(StubServer.Endpoint.SEND).latency(20, 250).errors(0.01, 503);
+ * ElasticEmailClient client = new ElasticEmailClient.Builder(props).apiBaseUrl(stub.getBaseUrl()).build();
+ * </pre>
+ *
+ * <p>
+ * Or on its own, e.g. <code>ant stub -Dstub.args="-port 8025 -send.latency 20,250 -resets 0.001"</code>; run it with
+ * <code>-help</code> for the options.
+ * </p>
+ */
+public class StubServer implements Closeable {
+
+	public enum Endpoint {
+		SEND, UPLOAD, STATUS, EXPORT
+	}
+
+	/**
+	 * How an endpoint behaves. Changes take effect on the next request.
+	 */
+	public static final class Behavior {
+		private volatile double medianMillis;
+		private volatile double sigma; // of the log of the latency; 0 for a fixed latency
+		private volatile double errorRate;
+		private volatile int errorCode = 503;
+		private volatile double resetRate;
+		private volatile double dripRate;
+		private volatile int dripChunk = 1;
+		private volatile long dripDelayMillis;
+
+		/**
+		 * Delay each response by a log-normally distributed time, a fair fit for what a remote API's latency looks
+		 * like.
+		 *
+		 * @param medianMillis
+		 *        the typical delay
+		 * @param p99Millis
+		 *        the delay 1 response in 100 exceeds; the same as the median for a fixed delay
+		 * @return this
+		 */
+		public Behavior latency(double medianMillis, double p99Millis) {
+			if ( medianMillis < 0 || p99Millis < medianMillis ) {
+				throw new IllegalArgumentException("bad latency median " + medianMillis + "ms, p99 " + p99Millis + "ms");
+			}
+			this.medianMillis = medianMillis;
+			this.sigma = medianMillis == 0 ? 0 : Math.log(p99Millis / medianMillis) / 2.3263;
+			return this;
+		}
+
+		/**
+		 * @param rate
+		 *        fraction of requests to fail
+		 * @param code
+		 *        the HTTP status they fail with
+		 * @return this
+		 */
+		public Behavior errors(double rate, int code) {
+			this.errorRate = rate;
+			this.errorCode = code;
+			return this;
+		}
+
+		/**
+		 * @param rate
+		 *        fraction of requests whose connection is reset (a TCP RST) instead of answered
+		 * @return this
+		 */
+		public Behavior resets(double rate) {
+			this.resetRate = rate;
+			return this;
+		}
+
+		/**
+		 * @param rate
+		 *        fraction of responses to send slowly
+		 * @param chunk
+		 *        bytes sent at a time
+		 * @param delayMillis
+		 *        pause before each chunk
+		 * @return this
+		 */
+		public Behavior drip(double rate, int chunk, long delayMillis) {
+			this.dripRate = rate;
+			this.dripChunk = Math.max(1, chunk);
+			this.dripDelayMillis = delayMillis;
+			return this;
+		}
+
+		long sampleLatencyMillis(Random random) {
+			double median = medianMillis;
+			if ( median == 0 ) {
+				return 0;
+			}
+			return Math.round(median * Math.exp(sigma * random.nextGaussian()));
+		}
+	}
+
+	private static final byte[] HTTP_200 = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: ");
+	private static final byte[] HTTP_200_XML = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/xml; charset=utf-8\r\nContent-Length: ");
+	private static final byte[] HTTP_200_CSV = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/csv; charset=utf-8\r\nTransfer-Encoding: chunked\r\n\r\n");
+	private static final byte[] HTTP_404 = ascii("HTTP/1.1 404 Not Found\r\nContent-Type: text/plain\r\nContent-Length: 0\r\n\r\n");
+	private static final byte[] CRLF_CRLF = ascii("\r\n\r\n");
+	private static final byte[] STATUS_XML = ascii("<emailstatus><status>complete</status><recipients>1</recipients><delivered>1</delivered>"
+			+ "<failed>0</failed><pending>0</pending><opened>0</opened><clicked>0</clicked><unsubscribed>0</unsubscribed>"
+			+ "<abusereports>0</abusereports></emailstatus>");
+	private static final byte[] EXPORT_HEADER = ascii("email,reason,date\r\n");
+	private static final byte[] EXPORT_ROW_END = ascii("@stub.example.com,suppressed,2015-01-01\r\n");
+	private static final byte[] CRLF = ascii("\r\n");
+	private static final byte[] LAST_CHUNK = ascii("0\r\n\r\n");
+
+	private final Behavior[] behaviors = { new Behavior(), new Behavior(), new Behavior(), new Behavior() };
+	private final ServerSocket serverSocket;
+	private final long seed;
+	private final ExecutorService connections;
+	private final Set<Socket> open = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	private final AtomicLong connectionCount = new AtomicLong();
+	private final AtomicLong requestCount = new AtomicLong();
+	private volatile long exportRows = 100000;
+	private volatile boolean closed;
+
+	/**
+	 * Binds to the loopback interface.
+	 *
+	 * @param port
+	 *        0 for any free port
+	 * @param seed
+	 *        for the latency and fault draws
+	 */
+	public StubServer(int port, long seed) throws IOException {
+		this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), seed);
+	}
+
+	public StubServer(InetSocketAddress address, long seed) throws IOException {
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.setReuseAddress(true);
+		this.serverSocket.bind(address, 1024);
+		this.seed = seed;
+		this.connections = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicLong n = new AtomicLong();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "StubServer-" + n.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts accepting connections.
+	 *
+	 * @return this
+	 */
+	public StubServer start() {
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "StubServer-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return this;
+	}
+
+	public Behavior behavior(Endpoint endpoint) {
+		return behaviors[endpoint.ordinal()];
+	}
+
+	/**
+	 * @param rows
+	 *        how many addresses each export has, not counting its header row
+	 * @return this
+	 */
+	public StubServer exportRows(long rows) {
+		if ( rows < 0 ) {
+			throw new IllegalArgumentException("bad export rows " + rows);
+		}
+		this.exportRows = rows;
+		return this;
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return what to pass to {@link ElasticEmailClient.Builder#apiBaseUrl(String)}
+	 */
+	public String getBaseUrl() {
+		return "http://" + serverSocket.getInetAddress().getHostAddress() + ":" + getPort();
+	}
+
+	/**
+	 * @return requests read so far, answered or not
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * Stops accepting connections and drops the open ones.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			serverSocket.close();
+		}
+		catch ( IOException e ) { /* punt */}
+		connections.shutdownNow();
+		for ( Socket socket : open ) {
+			try {
+				socket.close();
+			}
+			catch ( IOException e ) { /* punt */}
+		}
+	}
+
+	private void accept() {
+		while ( !closed ) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			}
+			catch ( IOException e ) {
+				if ( !closed ) {
+					System.err.println("stub server: accept failed: " + e);
+				}
+				return;
+			}
+			final Random random = new Random(seed + connectionCount.incrementAndGet());
+			connections.execute(new Runnable() {
+				@Override
+				public void run() {
+					serve(socket, random);
+				}
+			});
+		}
+	}
+
+	private void serve(Socket socket, Random random) {
+		open.add(socket);
+		try {
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+			Request request = new Request();
+			while ( !closed && request.read(in) ) {
+				requestCount.incrementAndGet();
+				if ( !respond(request, socket, out, random) || request.close ) {
+					break;
+				}
+			}
+		}
+		catch ( IOException e ) {
+			// the client went away
+		}
+		catch ( InterruptedException e ) {
+			// closed
+		}
+		finally {
+			open.remove(socket);
+			try {
+				socket.close();
+			}
+			catch ( IOException e ) { /* punt */}
+		}
+	}
+
+	/**
+	 * @return false if the connection was reset
+	 */
+	private boolean respond(Request request, Socket socket, OutputStream out, Random random) throws IOException, InterruptedException {
+		Endpoint endpoint = request.endpoint();
+		if ( endpoint == null ) {
+			out.write(HTTP_404);
+			out.flush();
+			return true;
+		}
+		Behavior b = behavior(endpoint);
+		long latency = b.sampleLatencyMillis(random);
+		if ( latency > 0 ) {
+			Thread.sleep(latency);
+		}
+		if ( b.resetRate > 0 && random.nextDouble() < b.resetRate ) {
+			socket.setSoLinger(true, 0); // close sends a RST
+			socket.close();
+			return false;
+		}
+		byte[] body;
+		if ( b.errorRate > 0 && random.nextDouble() < b.errorRate ) {
+			body = ascii("Error: stub server injected error");
+			out.write(ascii("HTTP/1.1 " + b.errorCode + " Injected\r\nContent-Type: text/plain\r\nContent-Length: " + body.length + "\r\n\r\n"));
+		}
+		else if ( endpoint == Endpoint.EXPORT ) {
+			out.write(HTTP_200_CSV);
+			writeExport(request.exportName(), out);
+			out.flush();
+			return true;
+		}
+		else {
+			body = endpoint == Endpoint.STATUS ? STATUS_XML : ascii(new UUID(random.nextLong(), random.nextLong()).toString());
+			out.write(endpoint == Endpoint.STATUS ? HTTP_200_XML : HTTP_200);
+			out.write(ascii(Integer.toString(body.length)));
+			out.write(CRLF_CRLF);
+		}
+		if ( b.dripRate > 0 && random.nextDouble() < b.dripRate ) {
+			int chunk = b.dripChunk;
+			for ( int off = 0; off < body.length; off += chunk ) {
+				out.flush();
+				Thread.sleep(b.dripDelayMillis);
+				out.write(body, off, Math.min(chunk, body.length - off));
+			}
+		}
+		else {
+			out.write(body);
+		}
+		out.flush();
+		return true;
+	}
+
+	/**
+	 * Writes an export's rows, <code>list.N@stub.example.com</code> for N from 0, as HTTP chunks.
+	 */
+	private void writeExport(String list, OutputStream out) throws IOException {
+		byte[] prefix = ascii(list + ".");
+		byte[] chunk = new byte[64 * 1024];
+		int n = 0;
+		System.arraycopy(EXPORT_HEADER, 0, chunk, n, EXPORT_HEADER.length);
+		n += EXPORT_HEADER.length;
+		long rows = exportRows;
+		for ( long row = 0; row < rows; row++ ) {
+			if ( n + prefix.length + 20 + EXPORT_ROW_END.length > chunk.length ) {
+				writeChunk(out, chunk, n);
+				n = 0;
+			}
+			System.arraycopy(prefix, 0, chunk, n, prefix.length);
+			n += prefix.length;
+			String digits = Long.toString(row);
+			for ( int i = 0; i < digits.length(); i++ ) {
+				chunk[n++] = (byte) digits.charAt(i);
+			}
+			System.arraycopy(EXPORT_ROW_END, 0, chunk, n, EXPORT_ROW_END.length);
+			n += EXPORT_ROW_END.length;
+		}
+		writeChunk(out, chunk, n);
+		out.write(LAST_CHUNK);
+	}
+
+	private static void writeChunk(OutputStream out, byte[] chunk, int n) throws IOException {
+		if ( n > 0 ) {
+			out.write(ascii(Integer.toHexString(n)));
+			out.write(CRLF);
+			out.write(chunk, 0, n);
+			out.write(CRLF);
+		}
+	}
+
+	/**
+	 * The parts of a request the stub looks at. Reused for each request on a connection.
+	 */
+	static final class Request {
+		private final StringBuilder line = new StringBuilder(256);
+		private final byte[] skip = new byte[8192];
+		String target;
+		boolean close;
+
+		/**
+		 * Reads a request, skipping its body.
+		 *
+		 * @return false at the end of the stream
+		 */
+		boolean read(InputStream in) throws IOException {
+			if ( !readLine(in) ) {
+				return false;
+			}
+			if ( line.length() == 0 && !readLine(in) ) { // a stray CRLF between requests
+				return false;
+			}
+			int sp1 = line.indexOf(" ");
+			int sp2 = line.indexOf(" ", sp1 + 1);
+			if ( sp1 < 0 || sp2 < 0 ) {
+				throw new IOException("bad request line: " + line);
+			}
+			target = line.substring(sp1 + 1, sp2);
+			close = line.indexOf("HTTP/1.0", sp2) >= 0;
+			long contentLength = 0;
+			boolean chunked = false;
+			while ( true ) {
+				if ( !readLine(in) ) {
+					throw new EOFException("end of stream in headers");
+				}
+				if ( line.length() == 0 ) {
+					break;
+				}
+				if ( startsWithIgnoreCase("content-length:") ) {
+					contentLength = Long.parseLong(line.substring(15).trim());
+				}
+				else if ( startsWithIgnoreCase("transfer-encoding:") ) {
+					chunked = line.indexOf("chunked") > 0;
+				}
+				else if ( startsWithIgnoreCase("connection:") ) {
+					close = line.indexOf("close") > 0;
+				}
+			}
+			if ( chunked ) {
+				while ( true ) {
+					readLine(in);
+					int semi = line.indexOf(";");
+					long size = Long.parseLong((semi < 0 ? line.toString() : line.substring(0, semi)).trim(), 16);
+					if ( size == 0 ) {
+						while ( readLine(in) && line.length() > 0 ) {
+							// trailers
+						}
+						break;
+					}
+					skip(in, size);
+					readLine(in);
+				}
+			}
+			else {
+				skip(in, contentLength);
+			}
+			return true;
+		}
+
+		Endpoint endpoint() {
+			if ( target.startsWith("/mailer/send") ) {
+				return Endpoint.SEND;
+			}
+			if ( target.startsWith("/attachments/upload") ) {
+				return Endpoint.UPLOAD;
+			}
+			if ( target.startsWith("/mailer/status/") ) {
+				return Endpoint.STATUS;
+			}
+			if ( target.startsWith("/mailer/list/") && exportName().length() > 0 ) {
+				return Endpoint.EXPORT;
+			}
+			return null;
+		}
+
+		/**
+		 * @return the list an export request is for, e.g. "bounced"
+		 */
+		String exportName() {
+			int end = target.indexOf('?');
+			String name = target.substring("/mailer/list/".length(), end < 0 ? target.length() : end);
+			return name.length() <= 64 && name.indexOf('/') < 0 ? name : "";
+		}
+
+		private boolean readLine(InputStream in) throws IOException {
+			line.setLength(0);
+			int c;
+			while ( (c = in.read()) >= 0 ) {
+				if ( c == '\n' ) {
+					int n = line.length();
+					if ( n > 0 && line.charAt(n - 1) == '\r' ) {
+						line.setLength(n - 1);
+					}
+					return true;
+				}
+				line.append((char) c);
+			}
+			return false;
+		}
+
+		private void skip(InputStream in, long n) throws IOException {
+			while ( n > 0 ) {
+				int r = in.read(skip, 0, (int) Math.min(skip.length, n));
+				if ( r < 0 ) {
+					throw new EOFException("end of stream in body");
+				}
+				n -= r;
+			}
+		}
+
+		private boolean startsWithIgnoreCase(String prefix) {
+			return line.length() >= prefix.length() && line.substring(0, prefix.length()).equalsIgnoreCase(prefix);
+		}
+	}
+
+	private static byte[] ascii(String s) {
+		byte[] b = new byte[s.length()];
+		for ( int i = 0; i < b.length; i++ ) {
+			b[i] = (byte) s.charAt(i);
+		}
+		return b;
+	}
+
+	private static final String USAGE = "usage: StubServer [-port 8025] [-seed 1] [-exportRows 100000] [[endpoint.]setting value]...\n" //
+			+ "  endpoint is send, upload, status or export; without one a setting applies to all of them\n" //
+			+ "  latency MEDIAN_MS[,P99_MS]     log-normal response delay\n" //
+			+ "  errors RATE[,CODE]             fraction of requests answered with CODE (503)\n" //
+			+ "  resets RATE                    fraction of connections reset instead of answered\n" //
+			+ "  drip RATE,CHUNK,DELAY_MS       fraction of responses sent CHUNK bytes at a time\n" //
+			+ "e.g. -send.latency 20,250 -errors 0.01,500 -status.drip 0.1,16,5";
+
+	public static void main(String[] args) throws Exception {
+		int port = 8025;
+		long seed = 1;
+		long exportRows = 100000;
+		int i = 0;
+		while ( i < args.length && (args[i].equals("-port") || args[i].equals("-seed") || args[i].equals("-exportRows")) ) {
+			if ( i + 1 >= args.length ) {
+				throw new IllegalArgumentException(USAGE);
+			}
+			if ( args[i].equals("-port") ) {
+				port = Integer.parseInt(args[i + 1]);
+			}
+			else if ( args[i].equals("-seed") ) {
+				seed = Long.parseLong(args[i + 1]);
+			}
+			else {
+				exportRows = Long.parseLong(args[i + 1]);
+			}
+			i += 2;
+		}
+		StubServer stub = new StubServer(port, seed).exportRows(exportRows);
+		for ( ; i < args.length; i += 2 ) {
+			if ( args[i].equals("-help") || i + 1 >= args.length || !args[i].startsWith("-") ) {
+				System.err.println(USAGE);
+				System.exit(args[i].equals("-help") ? 0 : 1);
+			}
+			String setting = args[i].substring(1);
+			Endpoint[] endpoints = Endpoint.values();
+			int dot = setting.indexOf('.');
+			if ( dot >= 0 ) {
+				endpoints = new Endpoint[] { Endpoint.valueOf(setting.substring(0, dot).toUpperCase()) };
+				setting = setting.substring(dot + 1);
+			}
+			String[] v = args[i + 1].split(",");
+			for ( Endpoint e : endpoints ) {
+				Behavior b = stub.behavior(e);
+				if ( setting.equals("latency") ) {
+					b.latency(Double.parseDouble(v[0]), Double.parseDouble(v[v.length > 1 ? 1 : 0]));
+				}
+				else if ( setting.equals("errors") ) {
+					b.errors(Double.parseDouble(v[0]), v.length > 1 ? Integer.parseInt(v[1]) : 503);
+				}
+				else if ( setting.equals("resets") ) {
+					b.resets(Double.parseDouble(v[0]));
+				}
+				else if ( setting.equals("drip") && v.length == 3 ) {
+					b.drip(Double.parseDouble(v[0]), Integer.parseInt(v[1]), Long.parseLong(v[2]));
+				}
+				else {
+					System.err.println("unknown setting " + args[i] + " " + args[i + 1] + "\n" + USAGE);
+					System.exit(1);
+				}
+			}
+		}
+		stub.start();
+		System.out.println("stub Elastic Email API listening on " + stub.getBaseUrl());
+		long last = 0;
+		while ( true ) {
+			Thread.sleep(1000);
+			long n = stub.getRequestCount();
+			if ( n != last ) {
+				System.out.println((n - last) + " req/s, " + n + " total");
+				last = n;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package elasticemail;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * <p>
+ * How fast {@link SuppressionSync} merges large exports, and what it costs in heap. A {@link StubServer} serves the
+ * bounced and unsubscribed exports with <code>-rows</code> addresses each; they are synced into a new
+ * {@link SuppressionList}, then synced again, when every address is already listed.
+ * </p>
+ *
+ * <p>
+ * Run it with <code>ant suppression-sync</code>, or <code>-Dsync.args="-rows 3500000 -file /tmp/suppressed.bin"</code>
+ * to keep the list in a mapped file. The file is deleted first.
+ * </p>
+ */
+public class SuppressionSyncBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		long rows = 1000000;
+		File file = null;
+		for ( int i = 0; i + 1 < args.length; i += 2 ) {
+			if ( args[i].equals("-rows") ) {
+				rows = Long.parseLong(args[i + 1]);
+			}
+			else if ( args[i].equals("-file") ) {
+				file = new File(args[i + 1]);
+			}
+			else {
+				System.err.println("usage: SuppressionSyncBenchmark [-rows 1000000] [-file suppressed.bin]");
+				System.exit(1);
+			}
+		}
+		int expected = (int) Math.min(Integer.MAX_VALUE, rows * SuppressionSync.Export.values().length);
+		SuppressionList list;
+		if ( file != null ) {
+			file.delete();
+			list = SuppressionList.open(file, expected);
+		}
+		else {
+			list = SuppressionList.allocate(expected);
+		}
+		File checkpoint = File.createTempFile("suppression-sync", ".checkpoint");
+		checkpoint.delete();
+		StubServer stub = new StubServer(0, 1).exportRows(rows).start();
+		try {
+			ElasticEmailClient client = new ElasticEmailClient.Builder(SendBodyBenchmark.PROPS).apiBaseUrl(stub.getBaseUrl()).build();
+			SuppressionSync sync = new SuppressionSync(client, list, checkpoint);
+			System.out.println(String.format(Locale.ROOT, "%d rows per export, list %s", rows, file == null ? "in direct memory" : "in " + file));
+			System.out.println(String.format(Locale.ROOT, "%-8s %12s %12s %10s %12s %10s", "sync", "rows", "added", "seconds", "rows/s", "heap +MB"));
+			report("first", sync, list);
+			report("again", sync, list);
+		}
+		finally {
+			stub.close();
+			list.flush();
+		}
+	}
+
+	private static void report(String name, SuppressionSync sync, SuppressionList list) throws Exception {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+		long start = System.nanoTime();
+		long added = sync.run();
+		long elapsed = System.nanoTime() - start;
+		long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+		long rows = sync.getRowsRead();
+		System.out.println(String.format(Locale.ROOT, "%-8s %12d %12d %10.2f %12.0f %10.1f", name, rows, added, elapsed / 1e9, rows * 1e9 / elapsed,
+				Math.max(0, heapAfter - heapBefore) / 1048576.0));
+	}
+
+}
@@ -0,0 +1,106 @@
+package elasticemail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Personalizing a ~100 KB html body for one recipient: the <code>String.replace</code> chain callers used to do before
+ * {@link ElasticEmailClient#sendEmail}, against rendering a compiled {@link MailTemplate} into the request body.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+	static final int BODY_SIZE = 100 * 1024;
+
+	/**
+	 * Builds a realistic html body of about <code>size</code> chars with a handful of merge fields.
+	 */
+	static String htmlBody(int size) {
+		StringBuilder sb = new StringBuilder(size + 256);
+		sb.append("<html><head><style>body { font-family: Arial; } p { margin: 0 0 1em 0; }</style></head><body>\n");
+		sb.append("<p>Dear {firstname} {lastname},</p>\n");
+		int para = 0;
+		while ( sb.length() < size ) {
+			sb.append("<p class=\"c").append(para++ % 7).append("\">Thank you for being a customer since {since}. ");
+			sb.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit &amp; sed do eiusmod tempor incididunt ut labore ");
+			sb.append("et dolore magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation \u2014 ullamco laboris.</p>\n");
+			if ( para % 40 == 0 ) {
+				sb.append("<p><a href=\"https://example.com/account?id={accountid}&amp;ref=mail\">Your account</a></p>\n");
+			}
+		}
+		sb.append("<p><a href=\"https://example.com/unsubscribe?id={accountid}\">unsubscribe</a></p></body></html>\n");
+		return sb.toString();
+	}
+
+	static Map<String, String> fields() {
+		Map<String, String> m = new HashMap<String, String>();
+		m.put("firstname", "Zo\u00eb");
+		m.put("lastname", "O'Neil");
+		m.put("since", "March 2009");
+		m.put("accountid", "A-7718221");
+		return m;
+	}
+
+	/**
+	 * Swallows bytes, counting them, like a socket that is never the bottleneck.
+	 */
+	static final class DiscardOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	private final String body = htmlBody(BODY_SIZE);
+	private final Map<String, String> fields = fields();
+	private final MailTemplate template = MailTemplate.compile(body);
+	private final DiscardOutputStream out = new DiscardOutputStream();
+
+	@Benchmark
+	public long naiveReplace() throws IOException {
+		String personalized = body;
+		for ( Map.Entry<String, String> e : fields.entrySet() ) {
+			personalized = personalized.replace("{" + e.getKey() + "}", e.getValue());
+		}
+		out.write(("body_html=" + URLEncoder.encode(personalized, "UTF-8")).getBytes("UTF-8"));
+		return out.count;
+	}
+
+	@Benchmark
+	public long compiledTemplate() throws IOException {
+		FormEncoder form = new FormEncoder(out);
+		form.name("body_html");
+		template.writeTo(form, fields);
+		form.flush();
+		return out.count;
+	}
+
+}
@@ -0,0 +1,243 @@
+package elasticemail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Replays a {@link TrafficCapture} through an {@link ElasticEmailClient}: each recorded call is made again, at its
+ * recorded offset divided by the speed up, with stand-in content of the recorded sizes. Latency is measured from when
+ * each call was due, as in {@link LoadGenerator}, and reported next to the latency that was recorded.
+ * </p>
+ *
+ * <p>
+ * A send gets as many recipients, and a subject and bodies of as many encoded bytes, as the original, and its
+ * attachments are ids the stub accepts; a merge is replayed as a plain send of the same size. Uploads send as many
+ * bytes as the original, and status polls poll the last id sent. Exports aren't replayed.
+ * </p>
+ *
+ * <p>
+ * With no <code>-url</code> it replays against a {@link StubServer} started in process, e.g.
+ * <code>ant replay -Dreplay.args="capture.eec -speed 10"</code>.
+ * </p>
+ */
+public class TrafficReplayer {
+
+	private static final String USAGE = "usage: TrafficReplayer CAPTURE_FILE [options]\n" //
+			+ "  -speed X           replay X times faster than recorded: 1, 10, 100... (1)\n" //
+			+ "  -url URL           API to call; default a StubServer started in process\n" //
+			+ "  -threads N         threads making calls (64)\n" //
+			+ "  -stub.latency MEDIAN_MS,P99_MS  latency of the in-process stub (0,0)";
+
+	private final ElasticEmailClient client;
+	private final List<TrafficCapture.Record> records;
+	private final double speed;
+	private final int threads;
+	private final LatencyHistogram[] recorded = new LatencyHistogram[ClientMetrics.Endpoint.values().length];
+	private final LatencyHistogram[] replayed = new LatencyHistogram[ClientMetrics.Endpoint.values().length];
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicInteger errorsShown = new AtomicInteger();
+	private volatile TransactionId lastSent;
+
+	TrafficReplayer(ElasticEmailClient client, List<TrafficCapture.Record> records, double speed, int threads) {
+		this.client = client;
+		this.records = new ArrayList<TrafficCapture.Record>(records);
+		// records are written as calls finish; replay them in the order they started
+		Collections.sort(this.records, new Comparator<TrafficCapture.Record>() {
+			@Override
+			public int compare(TrafficCapture.Record a, TrafficCapture.Record b) {
+				return a.startMicros < b.startMicros ? -1 : a.startMicros == b.startMicros ? 0 : 1;
+			}
+		});
+		this.speed = speed;
+		this.threads = threads;
+		for ( int i = 0; i < recorded.length; i++ ) {
+			recorded[i] = new LatencyHistogram();
+			replayed[i] = new LatencyHistogram();
+		}
+	}
+
+	void run() throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger n = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "TrafficReplayer-" + n.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long start = System.nanoTime();
+		int skipped = 0;
+		for ( final TrafficCapture.Record r : records ) {
+			if ( r.endpoint == ClientMetrics.Endpoint.EXPORT ) {
+				skipped++;
+				continue;
+			}
+			final long due = start + (long) (r.startMicros * 1000 / speed);
+			long wait;
+			while ( (wait = due - System.nanoTime()) > 0 ) {
+				LockSupport.parkNanos(wait);
+			}
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					call(r, due);
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(10, TimeUnit.MINUTES);
+		long elapsed = System.nanoTime() - start;
+		long calls = records.size() - skipped;
+		long span = records.isEmpty() ? 0 : records.get(records.size() - 1).startMicros;
+		System.out.println(String.format(Locale.ROOT, "replayed %d calls in %.1fs (recorded over %.1fs, %.0fx): %.1f calls/s, %d errors, %d exports skipped",
+				calls, elapsed / 1e9, span / 1e6, speed, calls * 1e9 / elapsed, errors.get(), skipped));
+		System.out.println(String.format(Locale.ROOT, "%-16s %10s %10s %10s %10s %10s", "", "count", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for ( ClientMetrics.Endpoint e : ClientMetrics.Endpoint.values() ) {
+			if ( replayed[e.ordinal()].getCount() > 0 ) {
+				String name = e.name().toLowerCase();
+				LoadGenerator.printPercentiles(name + " recorded", recorded[e.ordinal()]);
+				LoadGenerator.printPercentiles(name + " replayed", replayed[e.ordinal()]);
+			}
+		}
+	}
+
+	private void call(TrafficCapture.Record r, long due) {
+		boolean ok = false;
+		try {
+			switch ( r.endpoint ) {
+			case SEND:
+				lastSent = client.send(message(r));
+				break;
+			case UPLOAD:
+				client.uploadAttachment(new ByteArrayInputStream(new byte[(int) Math.max(0, r.requestBytes)]), "replay.bin");
+				break;
+			case STATUS:
+				TransactionId polled = lastSent;
+				client.getStatus(polled == null ? new TransactionId("replay") : polled);
+				break;
+			default:
+				break;
+			}
+			ok = true;
+		}
+		catch ( Exception e ) {
+			if ( errorsShown.incrementAndGet() <= 5 ) {
+				System.err.println(r.endpoint + " failed: " + e);
+			}
+		}
+		finally {
+			replayed[r.endpoint.ordinal()].record(System.nanoTime() - due);
+			recorded[r.endpoint.ordinal()].record(r.latencyMicros * 1000);
+			if ( !ok ) {
+				errors.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return a send the same size as the recorded one. Letters and digits encode as themselves, so a string of n of
+	 *         them is n encoded bytes.
+	 */
+	static EmailMessage message(TrafficCapture.Record r) {
+		EmailMessage m = new EmailMessage();
+		m.setFromEmail("replay@example.com");
+		m.setFromName("Traffic Replayer");
+		StringBuilder to = new StringBuilder();
+		for ( int i = 0; i < Math.max(1, r.recipients); i++ ) {
+			if ( i > 0 ) {
+				to.append(';');
+			}
+			to.append("recipient").append(i).append("@example.com");
+		}
+		m.setToEmails(to.toString());
+		m.setSubject(filler(r.subjectBytes));
+		m.setBodyText(filler(r.bodyTextBytes));
+		if ( r.bodyHtmlBytes > 0 ) {
+			m.setBodyHtml(filler(r.bodyHtmlBytes));
+		}
+		if ( r.attachments > 0 ) {
+			List<AttachmentId> ids = new ArrayList<AttachmentId>(r.attachments);
+			for ( int i = 0; i < r.attachments; i++ ) {
+				ids.add(new AttachmentId("replay-" + i));
+			}
+			m.setAttachmentIds(ids);
+		}
+		return m;
+	}
+
+	private static String filler(int n) {
+		char[] c = new char[n];
+		for ( int i = 0; i < n; i++ ) {
+			c[i] = (char) ('a' + i % 26);
+		}
+		return new String(c);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if ( args.length == 0 || args[0].equals("-help") ) {
+			System.err.println(USAGE);
+			System.exit(args.length == 0 ? 1 : 0);
+		}
+		File file = new File(args[0]);
+		double speed = 1;
+		String url = null;
+		int threads = 64;
+		double[] stubLatency = { 0, 0 };
+		for ( int i = 1; i + 1 < args.length; i += 2 ) {
+			String opt = args[i];
+			String v = args[i + 1];
+			if ( opt.equals("-speed") ) {
+				speed = Double.parseDouble(v);
+			}
+			else if ( opt.equals("-url") ) {
+				url = v;
+			}
+			else if ( opt.equals("-threads") ) {
+				threads = Integer.parseInt(v);
+			}
+			else if ( opt.equals("-stub.latency") ) {
+				String[] ms = v.split(",");
+				stubLatency[0] = Double.parseDouble(ms[0]);
+				stubLatency[1] = Double.parseDouble(ms[ms.length > 1 ? 1 : 0]);
+			}
+			else {
+				System.err.println("unknown option " + opt + "\n" + USAGE);
+				System.exit(1);
+			}
+		}
+		List<TrafficCapture.Record> records = TrafficCapture.read(file);
+		StubServer stub = null;
+		if ( url == null ) {
+			stub = new StubServer(0, 1).start();
+			for ( StubServer.Endpoint e : StubServer.Endpoint.values() ) {
+				stub.behavior(e).latency(stubLatency[0], stubLatency[1]);
+			}
+			url = stub.getBaseUrl();
+		}
+		if ( System.getProperty("http.maxConnections") == null ) {
+			System.setProperty("http.maxConnections", Integer.toString(threads));
+		}
+		ElasticEmailClient client = new ElasticEmailClient.Builder(SendBodyBenchmark.PROPS).apiBaseUrl(url).build();
+		System.out.println(String.format(Locale.ROOT, "replaying %d calls from %s at %.0fx against %s", records.size(), file, speed, url));
+		new TrafficReplayer(client, records, speed, threads).run();
+		if ( stub != null ) {
+			stub.close();
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package elasticemail;
+
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nanoxml.XMLElement;
+
+/**
+ * <p>
+ * Parsing a status response: {@link ElasticEmailClient#parseXmlReponse(String)}, the {@link MailerStatusParser} it is
+ * built on, reading bytes as <code>getStatus</code> does, and the nanoxml {@link XMLElement#parseString(String)} it
+ * used to be built on.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlBenchmark {
+
+	/**
+	 * A status response as the API returns it for a campaign part way through delivery.
+	 */
+	static final String STATUS_XML = "<emailstatus>\r\n" //
+			+ "  <status>in_progress</status>\r\n" //
+			+ "  <recipients>12500</recipients>\r\n" //
+			+ "  <delivered>11873</delivered>\r\n" //
+			+ "  <failed>212</failed>\r\n" //
+			+ "  <pending>415</pending>\r\n" //
+			+ "  <opened>4471</opened>\r\n" //
+			+ "  <clicked>903</clicked>\r\n" //
+			+ "  <unsubscribed>37</unsubscribed>\r\n" //
+			+ "  <abusereports>2</abusereports>\r\n" //
+			+ "</emailstatus>\r\n";
+
+	private final ElasticEmailClient client = new ElasticEmailClient(SendBodyBenchmark.PROPS);
+	private final byte[] bytes = STATUS_XML.getBytes(Charset.forName("UTF-8"));
+
+	@Benchmark
+	public MailerStatus parseXmlReponse() {
+		return client.parseXmlReponse(STATUS_XML);
+	}
+
+	@Benchmark
+	public MailerStatus mailerStatusParser() throws Exception {
+		return new MailerStatusParser(bytes, 0, bytes.length).parse();
+	}
+
+	@Benchmark
+	public XMLElement nanoxmlParseString() {
+		XMLElement xml = new XMLElement();
+		xml.parseString(STATUS_XML);
+		return xml;
+	}
+
+	@Benchmark
+	public XMLElement nanoxmlParseFromReader() throws Exception {
+		XMLElement xml = new XMLElement();
+		xml.parseFromReader(new StringReader(STATUS_XML));
+		return xml;
+	}
+
+}
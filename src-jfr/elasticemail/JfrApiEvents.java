@@ -0,0 +1,131 @@
+package elasticemail;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>
+ * Java Flight Recorder events for the calls {@link ElasticEmailClient} makes, so time spent sending mail shows up by
+ * name in a recording, next to GC and thread activity, instead of as anonymous socket reads.
+ * </p>
+ *
+ * <p>
+ * The events are named <code>elasticemail.Send</code>, <code>elasticemail.Upload</code>,
+ * <code>elasticemail.Status</code>, <code>elasticemail.Export</code> and <code>elasticemail.XmlParse</code>, and are off
+ * by default. Turn them on in a recording's settings, e.g.
+ * <code>-XX:StartFlightRecording:settings=profile,+elasticemail.Send#enabled=true</code> on Java 17, or in a .jfc file.
+ * While they are off, {@link #begin(Kind)} only checks a flag, and allocates nothing.
+ * </p>
+ */
+final class JfrApiEvents implements ApiEvents {
+
+	@Category("Elastic Email")
+	@StackTrace(false)
+	@Enabled(false)
+	abstract static class ApiCallEvent extends Event {
+		@Label("Endpoint")
+		String endpoint;
+
+		@Label("Payload")
+		@DataAmount
+		long payloadBytes;
+
+		@Label("Response Code")
+		int responseCode;
+
+		@Label("Recipients")
+		int recipients;
+
+		@Label("Channel")
+		String channel;
+	}
+
+	@Name("elasticemail.Send")
+	@Label("Email Send")
+	@Description("A call to the Elastic Email send API")
+	static final class SendEvent extends ApiCallEvent {
+	}
+
+	@Name("elasticemail.Upload")
+	@Label("Email Attachment Upload")
+	@Description("A call to the Elastic Email attachment upload API")
+	static final class UploadEvent extends ApiCallEvent {
+	}
+
+	@Name("elasticemail.Status")
+	@Label("Email Status")
+	@Description("A call to the Elastic Email status API")
+	static final class StatusEvent extends ApiCallEvent {
+	}
+
+	@Name("elasticemail.Export")
+	@Label("Email List Export")
+	@Description("A download of an Elastic Email account list, such as its bounces")
+	static final class ExportEvent extends ApiCallEvent {
+	}
+
+	@Name("elasticemail.XmlParse")
+	@Label("Email XML Parse")
+	@Description("Parsing an Elastic Email XML response")
+	static final class XmlParseEvent extends ApiCallEvent {
+	}
+
+	private final EventType[] types = new EventType[Kind.values().length];
+
+	public JfrApiEvents() {
+		types[Kind.SEND.ordinal()] = EventType.getEventType(SendEvent.class);
+		types[Kind.UPLOAD.ordinal()] = EventType.getEventType(UploadEvent.class);
+		types[Kind.STATUS.ordinal()] = EventType.getEventType(StatusEvent.class);
+		types[Kind.EXPORT.ordinal()] = EventType.getEventType(ExportEvent.class);
+		types[Kind.XML_PARSE.ordinal()] = EventType.getEventType(XmlParseEvent.class);
+	}
+
+	@Override
+	public Object begin(Kind kind) {
+		if ( !types[kind.ordinal()].isEnabled() ) {
+			return null;
+		}
+		ApiCallEvent event;
+		switch ( kind ) {
+		case SEND:
+			event = new SendEvent();
+			break;
+		case UPLOAD:
+			event = new UploadEvent();
+			break;
+		case STATUS:
+			event = new StatusEvent();
+			break;
+		case EXPORT:
+			event = new ExportEvent();
+			break;
+		default:
+			event = new XmlParseEvent();
+			break;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void end(Object e, String endpoint, long payloadBytes, int responseCode, int recipients, String channel) {
+		ApiCallEvent event = (ApiCallEvent) e;
+		event.end();
+		if ( event.shouldCommit() ) {
+			event.endpoint = endpoint;
+			event.payloadBytes = payloadBytes;
+			event.responseCode = responseCode;
+			event.recipients = recipients;
+			event.channel = channel;
+			event.commit();
+		}
+	}
+
+}
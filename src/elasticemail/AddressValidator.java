@@ -0,0 +1,236 @@
+package elasticemail;
+
+/**
+ * <p>
+ * Checks and normalizes recipient email addresses before anything is sent, so one bad address is dropped locally
+ * instead of failing a whole request after a round trip to Elastic Email.
+ * </p>
+ *
+ * <p>
+ * Validation is a hand-written finite automaton over the chars of the address, run in the same pass that strips
+ * surrounding whitespace and lower cases the address. It accepts the addresses that mail providers actually use: a
+ * dot-atom local part of at most 64 chars, an '@', and a domain of at least two labels of letters, digits and inner
+ * hyphens, at most 253 chars in all, whose last label has a letter in it. Quoted local parts, address literals and
+ * non-ascii addresses are rejected. Nothing is allocated for a valid address.
+ * </p>
+ */
+public final class AddressValidator {
+
+	// char classes
+	private static final byte C_OTHER = 0;
+	private static final byte C_ALNUM = 1;
+	private static final byte C_HYPHEN = 2;
+	private static final byte C_ATEXT = 3; // allowed in a local part, beyond letters, digits and hyphen
+	private static final byte C_DOT = 4;
+	private static final byte C_AT = 5;
+	private static final byte C_SPACE = 6;
+
+	// states
+	private static final int S_START = 0; // leading whitespace
+	private static final int S_LOCAL = 1; // in the local part
+	private static final int S_LOCAL_DOT = 2; // just after a dot in the local part
+	private static final int S_AT = 3; // just after the '@'
+	private static final int S_LABEL = 4; // in a domain label, after a letter or digit
+	private static final int S_HYPHEN = 5; // in a domain label, after a hyphen
+	private static final int S_DOMAIN_DOT = 6; // just after a dot in the domain
+	private static final int S_TRAILING = 7; // trailing whitespace
+	private static final int S_ERROR = 8;
+
+	private static final int MAX_LOCAL = 64;
+	private static final int MAX_LABEL = 63;
+	private static final int MAX_DOMAIN = 253;
+
+	private static final byte[] CLASSES = new byte[128];
+
+	static {
+		for ( char c = 'a'; c <= 'z'; c++ ) {
+			CLASSES[c] = C_ALNUM;
+		}
+		for ( char c = 'A'; c <= 'Z'; c++ ) {
+			CLASSES[c] = C_ALNUM;
+		}
+		for ( char c = '0'; c <= '9'; c++ ) {
+			CLASSES[c] = C_ALNUM;
+		}
+		for ( char c : "!#$%&'*+/=?^_`{|}~".toCharArray() ) {
+			CLASSES[c] = C_ATEXT;
+		}
+		CLASSES['-'] = C_HYPHEN;
+		CLASSES['.'] = C_DOT;
+		CLASSES['@'] = C_AT;
+		CLASSES[' '] = C_SPACE;
+		CLASSES['\t'] = C_SPACE;
+		CLASSES['\r'] = C_SPACE;
+		CLASSES['\n'] = C_SPACE;
+	}
+
+	private AddressValidator() {
+	}
+
+	/**
+	 * @param address
+	 *        a single email address; surrounding whitespace is allowed
+	 * @return true if the address is valid
+	 */
+	public static boolean isValid(CharSequence address) {
+		return scan(address, 0, address.length(), null);
+	}
+
+	/**
+	 * @param address
+	 *        a single email address
+	 * @return the address with surrounding whitespace removed and in lower case, or null if it isn't valid
+	 */
+	public static String normalize(CharSequence address) {
+		StringBuilder out = new StringBuilder(address.length());
+		return scan(address, 0, address.length(), out) ? out.toString() : null;
+	}
+
+	/**
+	 * <p>
+	 * Validates and normalizes a list of recipients, as passed for <code>toEmails</code>.
+	 * </p>
+	 *
+	 * @param recipients
+	 *        addresses separated by ';' (or ','). Empty entries are skipped.
+	 * @param out
+	 *        the valid addresses are appended here, normalized and separated by ';'
+	 * @param handler
+	 *        told about each invalid address. May be null.
+	 * @return the number of valid addresses appended
+	 */
+	public static int normalizeList(CharSequence recipients, StringBuilder out, RecipientRejectionHandler handler) {
+		int count = 0;
+		int start = 0;
+		int length = recipients.length();
+		while ( start <= length ) {
+			int end = start;
+			while ( end < length && recipients.charAt(end) != ';' && recipients.charAt(end) != ',' ) {
+				end++;
+			}
+			if ( !isBlank(recipients, start, end) ) {
+				int mark = out.length();
+				if ( count > 0 ) {
+					out.append(';');
+				}
+				if ( scan(recipients, start, end, out) ) {
+					count++;
+				}
+				else {
+					out.setLength(mark);
+					if ( handler != null ) {
+						handler.rejected(trim(recipients, start, end), RecipientRejectionHandler.Reason.MALFORMED);
+					}
+				}
+			}
+			start = end + 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Runs the automaton over <code>s[start, end)</code>, appending the normalized address to <code>out</code> as it
+	 * goes. On failure <code>out</code> is left holding a partial address, which the caller discards.
+	 */
+	private static boolean scan(CharSequence s, int start, int end, StringBuilder out) {
+		int state = S_START;
+		int localLength = 0;
+		int domainLength = 0;
+		int labelLength = 0;
+		int labels = 0;
+		boolean labelHasLetter = false;
+		for ( int i = start; i < end && state != S_ERROR; i++ ) {
+			char c = s.charAt(i);
+			byte cls = c < 128 ? CLASSES[c] : C_OTHER;
+			switch ( state ) {
+			case S_START:
+				if ( cls == C_SPACE ) {
+					continue;
+				}
+				state = (cls == C_ALNUM || cls == C_HYPHEN || cls == C_ATEXT) ? S_LOCAL : S_ERROR;
+				localLength++;
+				break;
+			case S_LOCAL:
+			case S_LOCAL_DOT:
+				if ( cls == C_ALNUM || cls == C_HYPHEN || cls == C_ATEXT ) {
+					state = S_LOCAL;
+				}
+				else if ( cls == C_DOT && state == S_LOCAL ) {
+					state = S_LOCAL_DOT;
+				}
+				else if ( cls == C_AT && state == S_LOCAL ) {
+					state = S_AT;
+					break;
+				}
+				else {
+					state = S_ERROR;
+				}
+				if ( ++localLength > MAX_LOCAL ) {
+					state = S_ERROR;
+				}
+				break;
+			case S_AT:
+			case S_DOMAIN_DOT:
+				if ( cls == C_ALNUM ) {
+					state = S_LABEL;
+					labels++;
+					labelLength = 1;
+					labelHasLetter = c > '9';
+					domainLength++;
+				}
+				else {
+					state = S_ERROR;
+				}
+				break;
+			case S_LABEL:
+			case S_HYPHEN:
+				if ( cls == C_ALNUM || cls == C_HYPHEN ) {
+					state = (cls == C_ALNUM) ? S_LABEL : S_HYPHEN;
+					labelHasLetter |= c > '9';
+					if ( ++labelLength > MAX_LABEL ) {
+						state = S_ERROR;
+					}
+				}
+				else if ( cls == C_DOT && state == S_LABEL ) {
+					state = S_DOMAIN_DOT;
+				}
+				else if ( cls == C_SPACE && state == S_LABEL ) {
+					state = S_TRAILING;
+					continue;
+				}
+				else {
+					state = S_ERROR;
+				}
+				if ( ++domainLength > MAX_DOMAIN ) {
+					state = S_ERROR;
+				}
+				break;
+			case S_TRAILING:
+				if ( cls != C_SPACE ) {
+					state = S_ERROR;
+				}
+				continue;
+			default:
+				state = S_ERROR;
+			}
+			if ( out != null && state != S_ERROR ) {
+				out.append((c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c);
+			}
+		}
+		return (state == S_LABEL || state == S_TRAILING) && labels >= 2 && labelHasLetter;
+	}
+
+	private static boolean isBlank(CharSequence s, int start, int end) {
+		for ( int i = start; i < end; i++ ) {
+			if ( !Character.isWhitespace(s.charAt(i)) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String trim(CharSequence s, int start, int end) {
+		return s.subSequence(start, end).toString().trim();
+	}
+
+}
@@ -0,0 +1,143 @@
+package elasticemail;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * One call to the API, as an {@link ApiInterceptor} sees it. Made only when the client has interceptors.
+ * </p>
+ */
+public final class ApiCall {
+
+	private final ClientMetrics.Endpoint endpoint;
+	private final String url;
+	private final Map<String, List<String>> requestHeaders;
+	private final long startNanos;
+	long requestBytes = -1;
+	int responseCode = -1;
+	long responseBytes = -1;
+	int recipientCount = -1;
+	int subjectBytes = -1;
+	int bodyTextBytes = -1;
+	int bodyHtmlBytes = -1;
+	int attachmentCount = -1;
+	boolean merge;
+	private Map<Object, Object> attributes;
+
+	ApiCall(ClientMetrics.Endpoint endpoint, String url, Map<String, List<String>> requestHeaders, long startNanos) {
+		this.endpoint = endpoint;
+		this.url = url;
+		this.requestHeaders = Collections.unmodifiableMap(requestHeaders);
+		this.startNanos = startNanos;
+	}
+
+	public ClientMetrics.Endpoint getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * @return the URL called, without its query string, which holds the API key
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return the headers the client set on the request
+	 */
+	public Map<String, List<String>> getRequestHeaders() {
+		return requestHeaders;
+	}
+
+	/**
+	 * @return bytes in the request body, or -1 if it hasn't been sent
+	 */
+	public long getRequestBytes() {
+		return requestBytes;
+	}
+
+	/**
+	 * @return the HTTP status, or -1 if none was read
+	 */
+	public int getResponseCode() {
+		return responseCode;
+	}
+
+	/**
+	 * @return bytes in the response body, or -1 if it hasn't been read
+	 */
+	public long getResponseBytes() {
+		return responseBytes;
+	}
+
+	/**
+	 * @return for a send, how many recipients it went to (0 for a merge); otherwise -1
+	 */
+	public int getRecipientCount() {
+		return recipientCount;
+	}
+
+	/**
+	 * @return for a send, the size of its subject as sent, url encoded; otherwise -1
+	 */
+	public int getSubjectBytes() {
+		return subjectBytes;
+	}
+
+	/**
+	 * @return for a send, the size of its text body as sent, url encoded and merged; otherwise -1
+	 */
+	public int getBodyTextBytes() {
+		return bodyTextBytes;
+	}
+
+	/**
+	 * @return for a send, the size of its html body as sent, url encoded and merged; 0 if it has none, -1 if not a
+	 *         send
+	 */
+	public int getBodyHtmlBytes() {
+		return bodyHtmlBytes;
+	}
+
+	/**
+	 * @return for a send, how many attachments it has; otherwise -1
+	 */
+	public int getAttachmentCount() {
+		return attachmentCount;
+	}
+
+	/**
+	 * @return true if a send is a mail merge
+	 */
+	public boolean isMerge() {
+		return merge;
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} when the call started
+	 */
+	public long getStartNanos() {
+		return startNanos;
+	}
+
+	/**
+	 * Keeps something with the call until its response, such as a trace span.
+	 */
+	public void setAttribute(Object key, Object value) {
+		if ( attributes == null ) {
+			attributes = new HashMap<Object, Object>(4);
+		}
+		attributes.put(key, value);
+	}
+
+	/**
+	 * @return what {@link #setAttribute(Object, Object)} kept under the key, or null
+	 */
+	public Object getAttribute(Object key) {
+		return attributes == null ? null : attributes.get(key);
+	}
+
+}
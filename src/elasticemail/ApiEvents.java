@@ -0,0 +1,68 @@
+package elasticemail;
+
+/**
+ * <p>
+ * Where {@link ElasticEmailClient} reports each API call as a profiling event, such as a Java Flight Recorder event.
+ * </p>
+ *
+ * <p>
+ * The JFR implementation is built from a separate source tree, since <code>jdk.jfr</code> needs Java 11, and is found
+ * by name when the client class loads; see {@link #INSTANCE}. On an older JVM, or a build without it, there is no
+ * implementation and each call site costs a check of a constant null.
+ * </p>
+ */
+interface ApiEvents {
+
+	/**
+	 * The kinds of event.
+	 */
+	enum Kind {
+		SEND, UPLOAD, STATUS, EXPORT, XML_PARSE
+	}
+
+	/**
+	 * The implementation, or null if events can't be recorded on this JVM.
+	 */
+	ApiEvents INSTANCE = Loader.load();
+
+	/**
+	 * Starts timing an event.
+	 *
+	 * @return the event, to pass to {@link #end}; null if no recording wants this kind of event, in which case nothing
+	 *         has been allocated
+	 */
+	Object begin(Kind kind);
+
+	/**
+	 * Ends an event and records it.
+	 *
+	 * @param event
+	 *        from {@link #begin(Kind)}; must not be null
+	 * @param endpoint
+	 *        the URL called, without its query string
+	 * @param payloadBytes
+	 *        size of the request body, or of the document parsed
+	 * @param responseCode
+	 *        the HTTP status, or -1 if none was read
+	 * @param recipients
+	 *        how many recipients a send went to; 0 if not a send
+	 * @param channel
+	 *        the send's channel, or null
+	 */
+	void end(Object event, String endpoint, long payloadBytes, int responseCode, int recipients, String channel);
+
+	static final class Loader {
+		static ApiEvents load() {
+			try {
+				return (ApiEvents) Class.forName("elasticemail.JfrApiEvents").getDeclaredConstructor().newInstance();
+			}
+			catch ( ReflectiveOperationException e ) {
+				return null; // not built
+			}
+			catch ( LinkageError e ) {
+				return null; // this JVM has no jdk.jfr (NoClassDefFoundError, UnsupportedClassVersionError)
+			}
+		}
+	}
+
+}
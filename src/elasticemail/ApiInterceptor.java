@@ -0,0 +1,38 @@
+package elasticemail;
+
+/**
+ * <p>
+ * Sees every call {@link ElasticEmailClient} makes to the API, for tracing, auditing or metrics of your own, without
+ * wrapping the client.
+ * </p>
+ *
+ * <p>
+ * Register interceptors with {@link ElasticEmailClient.Builder#interceptor(ApiInterceptor)}. For each call,
+ * {@link #onRequest(ApiCall)} is called once the request has been written, then either {@link #onResponse(ApiCall)}
+ * or {@link #onError(ApiCall, Exception)}. Interceptors run in the order they were registered, and in reverse order
+ * for the response or error, so the first one registered wraps the rest. They run on the thread making the call, so
+ * they should be quick. An exception thrown by an interceptor fails the call.
+ * </p>
+ */
+public interface ApiInterceptor {
+
+	/**
+	 * The request has been sent. Its endpoint, headers and body size are set; the response hasn't been read.
+	 */
+	void onRequest(ApiCall call);
+
+	/**
+	 * The response has been read. Its status and size are set.
+	 */
+	void onResponse(ApiCall call);
+
+	/**
+	 * The call failed. {@link #onRequest(ApiCall)} may not have been called, if it failed before the request was
+	 * sent.
+	 *
+	 * @param e
+	 *        why it failed; the caller will get the same exception
+	 */
+	void onError(ApiCall call, Exception e);
+
+}
@@ -3,13 +3,26 @@ package elasticemail;
 public class AttachmentId {
 	
 	private String id;
+	private CredentialPool.Credential credential;
 	
 	public AttachmentId(String id) {
 		this.id = id;
 	}
+
+	AttachmentId(String id, CredentialPool.Credential credential) {
+		this.id = id;
+		this.credential = credential;
+	}
 	
 	public String getId() {
 		return id;
 	}
 
+	/**
+	 * @return the pooled key that uploaded it, or null
+	 */
+	CredentialPool.Credential getCredential() {
+		return credential;
+	}
+
 }
@@ -0,0 +1,159 @@
+package elasticemail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import elasticemail.ElasticEmailClient.ElasticEmailProperties;
+
+/**
+ * <p>
+ * Wraps an {@link ElasticEmailProperties} whose credentials are slow to get, such as one that reads a secrets vault,
+ * and keeps them in memory so sends don't wait on it.
+ * </p>
+ *
+ * <p>
+ * The credentials are read once up front, then again in the background when 80% of the time to live has passed, so a
+ * fresh copy is in place before the old one expires. Along with them it keeps the request prefix
+ * <code>username=...&amp;api_key=...</code>, already url encoded, which {@link ElasticEmailClient} writes into each
+ * request as is. The user name, key and prefix are swapped together in a single volatile write, so a rotated key
+ * takes effect at once and a request never mixes the old user name with the new key. Readers never block or wait for
+ * a refresh. If a refresh fails, the old credentials stay in use and the refresh is retried after a tenth of the time
+ * to live.
+ * </p>
+ */
+public class CachingElasticEmailProperties implements ElasticEmailProperties, Closeable {
+
+	final static private Logger logger = LoggerFactory.getLogger(CachingElasticEmailProperties.class);
+
+	/**
+	 * One read of the credentials. Immutable.
+	 */
+	private static final class Snapshot {
+		final String userName;
+		final String apiKey;
+		final byte[] encodedPrefix;
+		final String encodedQuery;
+		final long loadedAt;
+
+		Snapshot(String userName, String apiKey) throws IOException {
+			this.userName = userName;
+			this.apiKey = apiKey;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+			FormEncoder form = new FormEncoder(bytes, 128);
+			form.field("username", userName);
+			form.field("api_key", apiKey);
+			form.flush();
+			this.encodedPrefix = bytes.toByteArray();
+			this.encodedQuery = new String(encodedPrefix, "US-ASCII");
+			this.loadedAt = System.currentTimeMillis();
+		}
+	}
+
+	private final ElasticEmailProperties delegate;
+	private final long ttlMillis;
+	private final ScheduledExecutorService refresher;
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Reads the credentials from <code>delegate</code> now, and starts refreshing them in the background.
+	 *
+	 * @param delegate
+	 *        where the credentials come from
+	 * @param ttlMillis
+	 *        how long a read of the credentials may be used
+	 */
+	public CachingElasticEmailProperties(ElasticEmailProperties delegate, long ttlMillis) {
+		if ( ttlMillis < 10 ) {
+			throw new IllegalArgumentException("bad ttl " + ttlMillis + "ms");
+		}
+		this.delegate = delegate;
+		this.ttlMillis = ttlMillis;
+		this.snapshot = load();
+		this.refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "CachingElasticEmailProperties-refresh");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		schedule(ttlMillis * 8 / 10);
+	}
+
+	@Override
+	public String getElasticEmailUserName() {
+		return snapshot.userName;
+	}
+
+	@Override
+	public String getElasticEmailApiKey() {
+		return snapshot.apiKey;
+	}
+
+	/**
+	 * Reads the credentials from the wrapped properties now, on this thread, e.g. right after a key has been rotated.
+	 */
+	public void refresh() {
+		snapshot = load();
+	}
+
+	/**
+	 * Stops refreshing. The credentials last read stay in use.
+	 */
+	@Override
+	public void close() {
+		refresher.shutdownNow();
+	}
+
+	/**
+	 * @return <code>username=...&amp;api_key=...</code>, url encoded. Must not be modified.
+	 */
+	byte[] getEncodedPrefix() {
+		return snapshot.encodedPrefix;
+	}
+
+	/**
+	 * @return the same prefix as a string, for a query string
+	 */
+	String getEncodedQuery() {
+		return snapshot.encodedQuery;
+	}
+
+	private Snapshot load() {
+		try {
+			return new Snapshot(delegate.getElasticEmailUserName(), delegate.getElasticEmailApiKey());
+		}
+		catch ( IOException e ) {
+			throw new IllegalStateException("can't encode credentials", e); // ByteArrayOutputStream doesn't throw
+		}
+	}
+
+	private void schedule(long delayMillis) {
+		if ( refresher.isShutdown() ) {
+			return;
+		}
+		refresher.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+					schedule(ttlMillis * 8 / 10);
+				}
+				catch ( RuntimeException e ) {
+					long age = System.currentTimeMillis() - snapshot.loadedAt;
+					logger.warn("credential refresh failed; keeping credentials read " + age + "ms ago", e);
+					schedule(Math.max(1, ttlMillis / 10));
+				}
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+}
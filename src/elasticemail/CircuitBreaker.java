@@ -0,0 +1,92 @@
+package elasticemail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Stops calls to something that keeps failing, so it gets time to recover and callers fail or go elsewhere at once
+ * instead of waiting on it.
+ * </p>
+ *
+ * <p>
+ * The breaker is closed until <code>failureThreshold</code> calls in a row fail. It then opens, and
+ * {@link #allowRequest()} refuses calls for <code>openMillis</code>. After that a single trial call is let through
+ * (half open): if it succeeds the breaker closes, and if it fails the breaker opens again for another spell. State is
+ * kept in atomics, so checking it takes no lock.
+ * </p>
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openNanos;
+	private final AtomicInteger failures = new AtomicInteger();
+	private final AtomicLong openedAt = new AtomicLong(); // 0 when closed
+	private final AtomicInteger trials = new AtomicInteger(); // trial calls let through while half open
+
+	/**
+	 * @param failureThreshold
+	 *        how many failures in a row open the breaker; at least 1
+	 * @param openMillis
+	 *        how long it stays open before a trial call
+	 */
+	public CircuitBreaker(int failureThreshold, long openMillis) {
+		if ( failureThreshold < 1 || openMillis < 0 ) {
+			throw new IllegalArgumentException("bad threshold " + failureThreshold + ", open " + openMillis + "ms");
+		}
+		this.failureThreshold = failureThreshold;
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+	}
+
+	/**
+	 * @return true if a call may be made now. A true while half open is the trial call, and must be followed by
+	 *         {@link #recordSuccess()} or {@link #recordFailure()}.
+	 */
+	public boolean allowRequest() {
+		long opened = openedAt.get();
+		if ( opened == 0 ) {
+			return true;
+		}
+		if ( System.nanoTime() - opened < openNanos ) {
+			return false;
+		}
+		return trials.compareAndSet(0, 1);
+	}
+
+	/**
+	 * @return the state as of now
+	 */
+	public State getState() {
+		long opened = openedAt.get();
+		if ( opened == 0 ) {
+			return State.CLOSED;
+		}
+		return System.nanoTime() - opened < openNanos ? State.OPEN : State.HALF_OPEN;
+	}
+
+	public void recordSuccess() {
+		failures.set(0);
+		if ( openedAt.get() != 0 ) {
+			openedAt.set(0);
+			trials.set(0);
+		}
+	}
+
+	public void recordFailure() {
+		if ( failures.incrementAndGet() >= failureThreshold || openedAt.get() != 0 ) {
+			openedAt.set(nanoTimeNonZero());
+			trials.set(0);
+		}
+	}
+
+	private static long nanoTimeNonZero() {
+		long now = System.nanoTime();
+		return now == 0 ? 1 : now;
+	}
+
+}
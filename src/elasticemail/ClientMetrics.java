@@ -0,0 +1,410 @@
+package elasticemail;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * <p>
+ * Latency histograms and counters for every call an {@link ElasticEmailClient} makes, per API endpoint, published as
+ * a JMX MBean. Install with {@link ElasticEmailClient.Builder#metrics(ClientMetrics)}.
+ * </p>
+ *
+ * <p>
+ * Each call is timed by {@link Phase}: opening the connection, writing the request, waiting for the first byte of the
+ * response, and reading the rest, plus the total. Calls are also counted by response code, along with failures (any
+ * exception, including a bad response code) and bytes sent and received. Everything is kept in
+ * {@link LatencyHistogram}s and atomics, so recording a call takes a few nanosecond reads of the clock and atomic
+ * increments, with no locks and no allocation.
+ * </p>
+ *
+ * <p>
+ * Once {@link #register(String)}ed, the MBean's attributes are named <code>endpoint.phase.stat</code>, such as
+ * <code>send.firstByte.p99</code>, with times in milliseconds, and <code>endpoint.counter</code>, such as
+ * <code>send.calls</code> or <code>status.responseCodes</code>. Its <code>reset</code> operation clears them.
+ * </p>
+ */
+public class ClientMetrics implements DynamicMBean {
+
+	/**
+	 * The API calls that are measured.
+	 */
+	public enum Endpoint {
+		SEND, UPLOAD, STATUS, EXPORT;
+
+		final String attributeName = name().toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * The parts of a call that are timed.
+	 */
+	public enum Phase {
+		/** Opening the connection, including any TLS handshake. */
+		CONNECT("connect"),
+		/** Writing the request body. */
+		WRITE("write"),
+		/** From the end of the request to the response status line. */
+		FIRST_BYTE("firstByte"),
+		/** Reading the response body. */
+		READ("read"),
+		/** The whole call. */
+		TOTAL("total");
+
+		final String attributeName;
+
+		private Phase(String attributeName) {
+			this.attributeName = attributeName;
+		}
+	}
+
+	private static final String[] STATS = { "count", "mean", "p50", "p90", "p99", "p999", "max" };
+	private static final String[] COUNTERS = { "calls", "errors", "bytesSent", "bytesReceived", "responseCodes" };
+	private static final int MAX_CODE = 600;
+
+	private static final class EndpointMetrics {
+		final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong bytesSent = new AtomicLong();
+		final AtomicLong bytesReceived = new AtomicLong();
+		final AtomicLongArray responseCodes = new AtomicLongArray(MAX_CODE);
+
+		EndpointMetrics() {
+			for ( int i = 0; i < phases.length; i++ ) {
+				phases[i] = new LatencyHistogram();
+			}
+		}
+	}
+
+	private final EndpointMetrics[] endpoints = new EndpointMetrics[Endpoint.values().length];
+	private volatile MBeanInfo info;
+	private ObjectName registeredAs;
+
+	public ClientMetrics() {
+		for ( int i = 0; i < endpoints.length; i++ ) {
+			endpoints[i] = new EndpointMetrics();
+		}
+	}
+
+	/**
+	 * @return the times of one phase of the calls to an endpoint
+	 */
+	public LatencyHistogram getHistogram(Endpoint endpoint, Phase phase) {
+		return endpoints[endpoint.ordinal()].phases[phase.ordinal()];
+	}
+
+	public long getCalls(Endpoint endpoint) {
+		return endpoints[endpoint.ordinal()].calls.get();
+	}
+
+	/**
+	 * @return how many calls to the endpoint threw, for whatever reason
+	 */
+	public long getErrors(Endpoint endpoint) {
+		return endpoints[endpoint.ordinal()].errors.get();
+	}
+
+	public long getBytesSent(Endpoint endpoint) {
+		return endpoints[endpoint.ordinal()].bytesSent.get();
+	}
+
+	public long getBytesReceived(Endpoint endpoint) {
+		return endpoints[endpoint.ordinal()].bytesReceived.get();
+	}
+
+	/**
+	 * @return how many calls to the endpoint got an HTTP response with this status code
+	 */
+	public long getResponseCount(Endpoint endpoint, int code) {
+		return (code >= 0 && code < MAX_CODE) ? endpoints[endpoint.ordinal()].responseCodes.get(code) : 0;
+	}
+
+	/**
+	 * Clears every histogram and counter.
+	 */
+	public void reset() {
+		for ( EndpointMetrics e : endpoints ) {
+			for ( LatencyHistogram h : e.phases ) {
+				h.reset();
+			}
+			e.calls.set(0);
+			e.errors.set(0);
+			e.bytesSent.set(0);
+			e.bytesReceived.set(0);
+			for ( int i = 0; i < MAX_CODE; i++ ) {
+				e.responseCodes.set(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * Registers this as an MBean on the platform MBean server, as
+	 * <code>elasticemail:type=ClientMetrics,name=<i>name</i></code>.
+	 *
+	 * @return the name it was registered under
+	 */
+	public synchronized ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("elasticemail:type=ClientMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		registeredAs = objectName;
+		return objectName;
+	}
+
+	/**
+	 * Removes the MBean registered by {@link #register(String)}, if any.
+	 */
+	public synchronized void unregister() throws JMException {
+		if ( registeredAs != null ) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if ( server.isRegistered(registeredAs) ) {
+				server.unregisterMBean(registeredAs);
+			}
+			registeredAs = null;
+		}
+	}
+
+	/**
+	 * Records one call. A phase that wasn't reached has a time of zero. The total runs to <code>end</code>, which may be
+	 * after the response was read, e.g. once it has been parsed.
+	 *
+	 * @param start
+	 *        {@link System#nanoTime()} when the call began, and so on for the end of each phase
+	 * @param responseCode
+	 *        the HTTP status, or -1 if none was read
+	 * @param ok
+	 *        false if the call threw
+	 */
+	void record(Endpoint endpoint, long start, long connected, long written, long firstByte, long read, long end, int responseCode, long sent, long received, boolean ok) {
+		EndpointMetrics e = endpoints[endpoint.ordinal()];
+		e.calls.incrementAndGet();
+		if ( !ok ) {
+			e.errors.incrementAndGet();
+		}
+		if ( responseCode >= 0 && responseCode < MAX_CODE ) {
+			e.responseCodes.incrementAndGet(responseCode);
+		}
+		if ( sent > 0 ) {
+			e.bytesSent.addAndGet(sent);
+		}
+		if ( received > 0 ) {
+			e.bytesReceived.addAndGet(received);
+		}
+		LatencyHistogram[] phases = e.phases;
+		if ( connected != 0 ) {
+			phases[Phase.CONNECT.ordinal()].record(connected - start);
+			if ( written != 0 ) {
+				phases[Phase.WRITE.ordinal()].record(written - connected);
+				if ( firstByte != 0 ) {
+					phases[Phase.FIRST_BYTE.ordinal()].record(firstByte - written);
+					if ( read != 0 ) {
+						phases[Phase.READ.ordinal()].record(read - firstByte);
+					}
+				}
+			}
+		}
+		phases[Phase.TOTAL.ordinal()].record(end - start);
+	}
+
+	/**
+	 * Counts the bytes read through it, for {@link ClientMetrics#record}.
+	 */
+	static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if ( b >= 0 ) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if ( n > 0 ) {
+				count += n;
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * Counts the bytes written through it, for {@link ClientMetrics#record}.
+	 */
+	static final class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/*
+	 * DynamicMBean
+	 */
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		String[] parts = attribute.split("\\.");
+		EndpointMetrics e = null;
+		for ( Endpoint endpoint : Endpoint.values() ) {
+			if ( endpoint.attributeName.equals(parts[0]) ) {
+				e = endpoints[endpoint.ordinal()];
+			}
+		}
+		if ( e != null && parts.length == 2 ) {
+			if ( "calls".equals(parts[1]) ) {
+				return e.calls.get();
+			}
+			if ( "errors".equals(parts[1]) ) {
+				return e.errors.get();
+			}
+			if ( "bytesSent".equals(parts[1]) ) {
+				return e.bytesSent.get();
+			}
+			if ( "bytesReceived".equals(parts[1]) ) {
+				return e.bytesReceived.get();
+			}
+			if ( "responseCodes".equals(parts[1]) ) {
+				StringBuilder codes = new StringBuilder();
+				for ( int i = 0; i < MAX_CODE; i++ ) {
+					long n = e.responseCodes.get(i);
+					if ( n > 0 ) {
+						codes.append(codes.length() > 0 ? ", " : "").append(i).append('=').append(n);
+					}
+				}
+				return codes.toString();
+			}
+		}
+		if ( e != null && parts.length == 3 ) {
+			for ( Phase phase : Phase.values() ) {
+				if ( phase.attributeName.equals(parts[1]) ) {
+					return stat(e.phases[phase.ordinal()], parts[2], attribute);
+				}
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	private static Object stat(LatencyHistogram h, String stat, String attribute) throws AttributeNotFoundException {
+		if ( "count".equals(stat) ) {
+			return h.getCount();
+		}
+		if ( "mean".equals(stat) ) {
+			return h.getMean() / 1e6;
+		}
+		if ( "max".equals(stat) ) {
+			return h.getMax() / 1e6;
+		}
+		if ( stat.length() > 1 && stat.charAt(0) == 'p' ) {
+			// p50, p90, p99, p999: the digits after the first two are decimals
+			String digits = stat.substring(1);
+			for ( int i = 0; i < digits.length(); i++ ) {
+				if ( digits.charAt(i) < '0' || digits.charAt(i) > '9' ) {
+					throw new AttributeNotFoundException(attribute);
+				}
+			}
+			double percentile = Double.parseDouble(digits.length() > 2 ? digits.substring(0, 2) + "." + digits.substring(2) : digits);
+			return h.getValueAtPercentile(percentile) / 1e6;
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for ( String a : attributes ) {
+			try {
+				list.add(new Attribute(a, getAttribute(a)));
+			}
+			catch ( AttributeNotFoundException e ) {
+				/* left out, as the interface asks */
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		if ( "reset".equals(actionName) ) {
+			reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		MBeanInfo i = info;
+		if ( i == null ) {
+			List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+			for ( Endpoint endpoint : Endpoint.values() ) {
+				for ( String counter : COUNTERS ) {
+					String type = "responseCodes".equals(counter) ? String.class.getName() : long.class.getName();
+					attributes.add(new MBeanAttributeInfo(endpoint.attributeName + "." + counter, type, counter, true, false, false));
+				}
+				for ( Phase phase : Phase.values() ) {
+					for ( String stat : STATS ) {
+						String type = "count".equals(stat) ? long.class.getName() : double.class.getName();
+						String description = "count".equals(stat) ? "calls timed" : stat + " in milliseconds";
+						attributes.add(new MBeanAttributeInfo(endpoint.attributeName + "." + phase.attributeName + "." + stat, type, description, true, false, false));
+					}
+				}
+			}
+			MBeanOperationInfo reset = new MBeanOperationInfo("reset", "clears every histogram and counter", null, "void", MBeanOperationInfo.ACTION);
+			i = new MBeanInfo(getClass().getName(), "Elastic Email client call latency and counts", attributes.toArray(new MBeanAttributeInfo[0]), null,
+					new MBeanOperationInfo[] { reset }, null);
+			info = i;
+		}
+		return i;
+	}
+
+}
@@ -0,0 +1,263 @@
+package elasticemail;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import elasticemail.ElasticEmailClient.ElasticEmailProperties;
+
+/**
+ * <p>
+ * Several Elastic Email accounts' credentials, so one client can send through all of them and get past a single
+ * account's throughput limit.
+ * </p>
+ *
+ * <p>
+ * Each send picks a key by the pool's {@link Selection}: the key with the fewest requests in flight, or the one with
+ * the most quota left. Every key has its own {@link RateLimiter} and {@link CircuitBreaker}; a key whose breaker is
+ * open, or that is out of quota, is passed over, and one that is over its rate is passed over while another key has a
+ * permit free. When none has, the send waits for the best key's next permit.
+ * </p>
+ *
+ * <p>
+ * What a key creates belongs to its account, so it stays with that key: a {@link TransactionId} is polled by
+ * {@link ElasticEmailClient#getStatus(TransactionId)} with the key that sent it, and a message with attachments, or a
+ * merge, is sent with the key that uploaded them. Install the pool with
+ * {@link ElasticEmailClient.Builder#Builder(CredentialPool)}. The first key added is the client's default, used for
+ * account-wide calls such as the suppression list exports.
+ * </p>
+ */
+public class CredentialPool {
+
+	/**
+	 * How a key is picked for a send.
+	 */
+	public enum Selection {
+		/** The key with the fewest requests in flight. */
+		LEAST_OUTSTANDING,
+		/** The key with the most quota left. */
+		MOST_QUOTA,
+	}
+
+	private static final int MAX_KEYS = 64;
+
+	/**
+	 * One account's credentials and their load.
+	 */
+	public static final class Credential {
+		private final ElasticEmailProperties props;
+		private final RateLimiter limiter;
+		private final CircuitBreaker breaker;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicLong quota;
+
+		Credential(ElasticEmailProperties props, RateLimiter limiter, CircuitBreaker breaker, long quota) {
+			this.props = props;
+			this.limiter = limiter;
+			this.breaker = breaker;
+			this.quota = new AtomicLong(quota);
+		}
+
+		public ElasticEmailProperties getProperties() {
+			return props;
+		}
+
+		public CircuitBreaker getCircuitBreaker() {
+			return breaker;
+		}
+
+		/**
+		 * @return how many requests with this key are in flight
+		 */
+		public int getOutstanding() {
+			return outstanding.get();
+		}
+
+		/**
+		 * @return how many more sends the account is thought to allow
+		 */
+		public long getRemainingQuota() {
+			return quota.get();
+		}
+
+		/**
+		 * @param remaining
+		 *        the account's remaining quota, as last read from Elastic Email. Sends count it down from here.
+		 */
+		public void setRemainingQuota(long remaining) {
+			quota.set(remaining);
+		}
+
+		void begin() {
+			outstanding.incrementAndGet();
+		}
+
+		void end(boolean ok) {
+			outstanding.decrementAndGet();
+			if ( ok ) {
+				breaker.recordSuccess();
+			}
+			else {
+				breaker.recordFailure();
+			}
+		}
+	}
+
+	private final Selection selection;
+	private final CopyOnWriteArrayList<Credential> credentials = new CopyOnWriteArrayList<Credential>();
+
+	/**
+	 * @param selection
+	 *        how a key is picked for each send
+	 */
+	public CredentialPool(Selection selection) {
+		this.selection = selection;
+	}
+
+	/**
+	 * Add a key with no quota limit, whose breaker opens after 5 failures in a row for 30 seconds.
+	 *
+	 * @param props
+	 *        the account's credentials
+	 * @param perSecond
+	 *        the most sends per second to make with it
+	 * @param burst
+	 *        how many sends may be made with it at once
+	 * @return the key, to read its state or update its quota
+	 */
+	public Credential add(ElasticEmailProperties props, double perSecond, int burst) {
+		return add(props, new RateLimiter(perSecond, burst), new CircuitBreaker(5, 30000), Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param props
+	 *        the account's credentials
+	 * @param limiter
+	 *        the key's rate limit
+	 * @param breaker
+	 *        the key's circuit breaker
+	 * @param quota
+	 *        how many sends the account has left
+	 * @return the key, to read its state or update its quota
+	 */
+	public Credential add(ElasticEmailProperties props, RateLimiter limiter, CircuitBreaker breaker, long quota) {
+		if ( credentials.size() >= MAX_KEYS ) {
+			throw new IllegalStateException("a pool holds at most " + MAX_KEYS + " keys");
+		}
+		Credential c = new Credential(props, limiter, breaker, quota);
+		credentials.add(c);
+		return c;
+	}
+
+	/**
+	 * @return the pool's keys, in the order they were added
+	 */
+	public Credential[] getCredentials() {
+		return credentials.toArray(new Credential[0]);
+	}
+
+	/**
+	 * @return the key's position in the pool, or -1 if it isn't in it
+	 */
+	int indexOf(Credential c) {
+		return credentials.indexOf(c);
+	}
+
+	/**
+	 * @return the key at that position, or null if there is none
+	 */
+	Credential get(int index) {
+		return index < credentials.size() ? credentials.get(index) : null;
+	}
+
+	Credential getDefault() {
+		if ( credentials.isEmpty() ) {
+			throw new IllegalStateException("credential pool is empty");
+		}
+		return credentials.get(0);
+	}
+
+	/**
+	 * Picks a key for a send and counts the send against it. The caller must call {@link Credential#end(boolean)}.
+	 *
+	 * @throws IOException
+	 *         if every key's breaker is open or its quota is used up
+	 */
+	Credential acquire() throws IOException {
+		long passed = 0; // keys tried and found over their rate
+		Credential fallback = null;
+		while ( true ) {
+			Credential best = null;
+			int bestIndex = -1;
+			for ( int i = 0; i < credentials.size(); i++ ) {
+				Credential c = credentials.get(i);
+				if ( (passed & (1L << i)) != 0 || c.quota.get() <= 0 || c.breaker.getState() == CircuitBreaker.State.OPEN ) {
+					continue;
+				}
+				if ( best == null || better(c, best) ) {
+					best = c;
+					bestIndex = i;
+				}
+			}
+			if ( best == null ) {
+				break;
+			}
+			passed |= 1L << bestIndex;
+			if ( !best.breaker.allowRequest() ) {
+				continue; // half open and another thread has the trial call
+			}
+			if ( best.limiter.tryAcquire() ) {
+				return taken(best);
+			}
+			if ( best.breaker.getState() != CircuitBreaker.State.CLOSED ) {
+				return waitFor(best); // this send is the trial call, so it can't be handed back
+			}
+			if ( fallback == null ) {
+				fallback = best;
+			}
+		}
+		// every usable key is over its rate; wait for the best one, unless its breaker has opened since
+		if ( fallback == null || !fallback.breaker.allowRequest() ) {
+			throw new IOException("no API key available: every key's circuit breaker is open or its quota is used up");
+		}
+		return waitFor(fallback);
+	}
+
+	/**
+	 * Counts a send against a key that has to be used, such as the one that uploaded its attachments. Waits for the
+	 * key's rate limit, but sends even if its breaker is open.
+	 */
+	void acquire(Credential c) throws IOException {
+		waitFor(c);
+	}
+
+	private static Credential waitFor(Credential c) throws IOException {
+		try {
+			c.limiter.acquire();
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted waiting for an API key");
+		}
+		return taken(c);
+	}
+
+	private static Credential taken(Credential c) {
+		c.quota.decrementAndGet();
+		c.begin();
+		return c;
+	}
+
+	private boolean better(Credential a, Credential b) {
+		if ( selection == Selection.MOST_QUOTA ) {
+			long qa = a.quota.get();
+			long qb = b.quota.get();
+			if ( qa != qb ) {
+				return qa > qb;
+			}
+		}
+		return a.outstanding.get() < b.outstanding.get();
+	}
+
+}
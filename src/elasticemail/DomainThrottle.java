@@ -0,0 +1,258 @@
+package elasticemail;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Limits how fast mail goes to each recipient domain, so big mailbox providers don't throttle us for bursting at them
+ * even when the overall rate is fine.
+ * </p>
+ *
+ * <p>
+ * Each domain gets its own {@link RateLimiter}, at a default rate or one set with
+ * {@link #setLimit(String, double, int)}. When a recipient's domain is over its limit, the recipient is taken out of
+ * the message and deferred: it is sent on its own, on a background thread, once its domain's next permit comes due. The
+ * outcome of deferred sends goes to the {@link SendListener}. Nothing is rejected.
+ * </p>
+ *
+ * <p>
+ * Buckets are found through a fixed array of stripes, each a lock-free linked list updated by compare-and-set, so tens
+ * of thousands of domains spread over many independent slots, and finding an existing domain's bucket allocates
+ * nothing. Install it with {@link ElasticEmailClient.Builder#domainThrottle(DomainThrottle)}.
+ * </p>
+ */
+public class DomainThrottle {
+
+	final static private Logger logger = LoggerFactory.getLogger(DomainThrottle.class);
+
+	private static final int STRIPES = 8192;
+
+	private final double defaultPerSecond;
+	private final int defaultBurst;
+	private final ConcurrentMap<String, double[]> limits = new ConcurrentHashMap<String, double[]>();
+	private final AtomicReferenceArray<Bucket> stripes = new AtomicReferenceArray<Bucket>(STRIPES);
+	private final DelayQueue<Deferred> deferred = new DelayQueue<Deferred>();
+	private final int dispatchThreads;
+	private volatile SendListener listener;
+	private Thread[] dispatchers;
+
+	/**
+	 * A domain's bucket, and the next one in its stripe. Immutable once published.
+	 */
+	private static final class Bucket {
+		final String domain;
+		final RateLimiter limiter;
+		final Bucket next;
+
+		Bucket(String domain, RateLimiter limiter, Bucket next) {
+			this.domain = domain;
+			this.limiter = limiter;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * A recipient waiting for its domain's permit.
+	 */
+	private static final class Deferred implements Delayed {
+		final ElasticEmailClient client;
+		final EmailMessage message;
+		final long due;
+
+		Deferred(ElasticEmailClient client, EmailMessage message, long due) {
+			this.client = client;
+			this.message = message;
+			this.due = due;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			long d = due - ((Deferred) o).due;
+			return d < 0 ? -1 : (d > 0 ? 1 : 0);
+		}
+	}
+
+	/**
+	 * @param defaultPerSecond
+	 *        messages per second to any one domain that has no limit of its own
+	 * @param defaultBurst
+	 *        how many messages may go to such a domain at once
+	 */
+	public DomainThrottle(double defaultPerSecond, int defaultBurst) {
+		this(defaultPerSecond, defaultBurst, 2);
+	}
+
+	/**
+	 * @param defaultPerSecond
+	 *        messages per second to any one domain that has no limit of its own
+	 * @param defaultBurst
+	 *        how many messages may go to such a domain at once
+	 * @param dispatchThreads
+	 *        how many threads send deferred recipients
+	 */
+	public DomainThrottle(double defaultPerSecond, int defaultBurst, int dispatchThreads) {
+		this.defaultPerSecond = defaultPerSecond;
+		this.defaultBurst = defaultBurst;
+		this.dispatchThreads = dispatchThreads;
+		new RateLimiter(defaultPerSecond, defaultBurst); // check the arguments
+	}
+
+	/**
+	 * <p>
+	 * Give a domain its own limit. Set limits before sending; a domain's limit is read when its first recipient is seen.
+	 * </p>
+	 *
+	 * @param domain
+	 *        the part of the address after the '@'
+	 * @param perSecond
+	 *        messages per second to the domain
+	 * @param burst
+	 *        how many messages may go to the domain at once
+	 * @return this throttle
+	 */
+	public DomainThrottle setLimit(String domain, double perSecond, int burst) {
+		new RateLimiter(perSecond, burst); // check the arguments
+		limits.put(domain.toLowerCase(), new double[] { perSecond, burst });
+		return this;
+	}
+
+	/**
+	 * @param listener
+	 *        told how each deferred send turned out. By default failures are logged.
+	 * @return this throttle
+	 */
+	public DomainThrottle setListener(SendListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * @return how many recipients are waiting to be sent
+	 */
+	public int getDeferredCount() {
+		return deferred.size();
+	}
+
+	/**
+	 * Stops the dispatch threads. Recipients still waiting are not sent.
+	 */
+	public synchronized void shutdown() {
+		if ( dispatchers != null ) {
+			for ( Thread t : dispatchers ) {
+				t.interrupt();
+			}
+			dispatchers = null;
+		}
+	}
+
+	/**
+	 * Takes the next permit for a domain.
+	 *
+	 * @param s
+	 *        holds the domain, trimmed and in lower case, between start and end
+	 * @return nanoseconds until the permit may be used; zero or less means now
+	 */
+	long reserve(CharSequence s, int start, int end) {
+		return limiterFor(s, start, end).reserve();
+	}
+
+	/**
+	 * Sends a single-recipient message once its permit, already reserved, comes due.
+	 */
+	void defer(ElasticEmailClient client, EmailMessage message, long delayNanos) {
+		startDispatchers();
+		deferred.add(new Deferred(client, message, System.nanoTime() + delayNanos));
+	}
+
+	private RateLimiter limiterFor(CharSequence s, int start, int end) {
+		int h = 0;
+		for ( int i = start; i < end; i++ ) {
+			h = 31 * h + s.charAt(i);
+		}
+		int stripe = (h ^ (h >>> 16)) & (STRIPES - 1);
+		while ( true ) {
+			Bucket head = stripes.get(stripe);
+			for ( Bucket b = head; b != null; b = b.next ) {
+				if ( matches(b.domain, s, start, end) ) {
+					return b.limiter;
+				}
+			}
+			String domain = s.subSequence(start, end).toString();
+			double[] limit = limits.get(domain);
+			RateLimiter limiter = (limit == null) ? new RateLimiter(defaultPerSecond, defaultBurst) : new RateLimiter(limit[0], (int) limit[1]);
+			if ( stripes.compareAndSet(stripe, head, new Bucket(domain, limiter, head)) ) {
+				return limiter;
+			}
+			// another thread added to this stripe first; look again, it may have been this domain
+		}
+	}
+
+	private static boolean matches(String domain, CharSequence s, int start, int end) {
+		if ( domain.length() != end - start ) {
+			return false;
+		}
+		for ( int i = 0; i < domain.length(); i++ ) {
+			if ( domain.charAt(i) != s.charAt(start + i) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private synchronized void startDispatchers() {
+		if ( dispatchers != null ) {
+			return;
+		}
+		dispatchers = new Thread[dispatchThreads];
+		for ( int i = 0; i < dispatchThreads; i++ ) {
+			dispatchers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					dispatch();
+				}
+			}, "DomainThrottle-" + i);
+			dispatchers[i].setDaemon(true);
+			dispatchers[i].start();
+		}
+	}
+
+	private void dispatch() {
+		try {
+			while ( true ) {
+				Deferred d = deferred.take();
+				SendListener l = listener;
+				try {
+					TransactionId tid = d.client.sendUnthrottled(d.message);
+					if ( l != null ) {
+						l.sent(d.message, tid);
+					}
+				}
+				catch ( Exception e ) {
+					if ( l != null ) {
+						l.failed(d.message, e);
+					}
+					else {
+						logger.error("deferred send to " + d.message.getToEmails() + " failed", e);
+					}
+				}
+			}
+		}
+		catch ( InterruptedException e ) {
+			/* shut down */
+		}
+	}
+
+}
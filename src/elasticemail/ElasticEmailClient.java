@@ -1,20 +1,24 @@
 package elasticemail;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
-import nanoxml.XMLElement;
 import nanoxml.XMLParseException;
 
 import org.slf4j.Logger;
@@ -24,12 +28,48 @@ public class ElasticEmailClient {
 
 	final static private Logger logger = LoggerFactory.getLogger(ElasticEmailClient.class);
 
-	final static private String API_SEND = "https://api.elasticemail.com/mailer/send";
-	final static private String API_UPLOAD_ATTACHMENT = "https://api.elasticemail.com/attachments/upload";
-	final static private String API_STATUS = "https://api.elasticemail.com/mailer/status";
+	final static public String DEFAULT_API_BASE_URL = "https://api.elasticemail.com";
+	final static private String API_SEND = "/mailer/send";
+	final static private String API_UPLOAD_ATTACHMENT = "/attachments/upload";
+	final static private String API_STATUS = "/mailer/status";
 	final static private String UTF8 = "UTF-8";
+	// the merge list column holding each recipient's address
+	final static private String MERGE_EMAIL_COLUMN = "ToEmail";
+
+	final static private AtomicLong mergeFileCounter = new AtomicLong();
+
+	// Flight Recorder events, or null when this JVM or build has none; a constant, so a null check is all a call costs
+	final static private ApiEvents events = ApiEvents.INSTANCE;
+
+	final static private RecipientRejectionHandler LOG_REJECTIONS = new RecipientRejectionHandler() {
+		@Override
+		public void rejected(String address, Reason reason) {
+			logger.warn("recipient dropped: {} {}", reason, address);
+		}
+	};
+
+	/*
+	 * Scratch space for the normalized recipient list of the request being built on this thread.
+	 */
+	final static private ThreadLocal<StringBuilder> recipientBuffer = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
 
 	private ElasticEmailProperties props;
+	private final CredentialPool credentialPool;
+	private final String apiBaseUrl;
+	private final String apiSend;
+	private final String apiUploadAttachment;
+	private final String apiStatus;
+	private final RecipientRejectionHandler rejectionHandler;
+	private final SuppressionFilter suppressionFilter;
+	private final DomainThrottle domainThrottle;
+	private final ClientMetrics metrics;
+	private final ApiInterceptor interceptor; // null when there are none, so the calls skip it at the cost of a null check
+	private final HttpTransport transport;
 
 	/**
 	 * <p>
@@ -66,7 +106,152 @@ public class ElasticEmailClient {
 	 *        {@link ElasticEmailProperties} credentials needed to communicate with the Elastic Email API
 	 */
 	public ElasticEmailClient(ElasticEmailProperties props) {
-		this.props = props;
+		this(new Builder(props));
+	}
+
+	private ElasticEmailClient(Builder builder) {
+		this.props = builder.props;
+		this.credentialPool = builder.credentialPool;
+		this.apiBaseUrl = builder.apiBaseUrl;
+		this.apiSend = builder.apiBaseUrl + API_SEND;
+		this.apiUploadAttachment = builder.apiBaseUrl + API_UPLOAD_ATTACHMENT;
+		this.apiStatus = builder.apiBaseUrl + API_STATUS;
+		this.rejectionHandler = builder.rejectionHandler;
+		this.suppressionFilter = builder.suppressionFilter;
+		this.domainThrottle = builder.domainThrottle;
+		this.metrics = builder.metrics;
+		this.interceptor = InterceptorChain.of(builder.interceptors);
+		this.transport = builder.transport;
+	}
+
+	/**
+	 * @return the keys sends are spread over, or null if the client has just the one
+	 */
+	CredentialPool getCredentialPool() {
+		return credentialPool;
+	}
+
+	/**
+	 * <p>
+	 * Configures an {@link ElasticEmailClient} beyond its credentials. Every setting is optional.
+	 * </p>
+	 * 
+	 * <pre>
+	 * ElasticEmailClient client = new ElasticEmailClient.Builder(props).apiBaseUrl(&quot;http://localhost:8025&quot;).build();
+	 * </pre>
+	 */
+	public static class Builder {
+		private final ElasticEmailProperties props;
+		private final CredentialPool credentialPool;
+		private String apiBaseUrl = DEFAULT_API_BASE_URL;
+		private RecipientRejectionHandler rejectionHandler = LOG_REJECTIONS;
+		private SuppressionFilter suppressionFilter;
+		private DomainThrottle domainThrottle;
+		private ClientMetrics metrics;
+		private final List<ApiInterceptor> interceptors = new ArrayList<ApiInterceptor>();
+		private HttpTransport transport = HttpTransport.DEFAULT;
+
+		/**
+		 * @param props
+		 *        {@link ElasticEmailProperties} credentials needed to communicate with the Elastic Email API
+		 */
+		public Builder(ElasticEmailProperties props) {
+			this.props = props;
+			this.credentialPool = null;
+		}
+
+		/**
+		 * @param credentialPool
+		 *        several accounts' credentials to spread sends over. Its first key is used for calls that aren't
+		 *        sends.
+		 */
+		public Builder(CredentialPool credentialPool) {
+			this.props = credentialPool.getDefault().getProperties();
+			this.credentialPool = credentialPool;
+		}
+
+		/**
+		 * @param apiBaseUrl
+		 *        scheme, host and port of the API, with no trailing slash. Defaults to
+		 *        {@value ElasticEmailClient#DEFAULT_API_BASE_URL}; point it at a local stub server for testing.
+		 * @return this builder
+		 */
+		public Builder apiBaseUrl(String apiBaseUrl) {
+			this.apiBaseUrl = apiBaseUrl;
+			return this;
+		}
+
+		/**
+		 * @param handler
+		 *        told about each recipient dropped before sending, for example because the address is malformed. The
+		 *        default logs a warning.
+		 * @return this builder
+		 */
+		public Builder recipientRejectionHandler(RecipientRejectionHandler handler) {
+			this.rejectionHandler = handler;
+			return this;
+		}
+
+		/**
+		 * @param filter
+		 *        checked for every recipient before a message is sent, including each row of a merge list. Suppressed
+		 *        recipients are removed from the message, or their rows from the merge list, and reported to the
+		 *        {@link RecipientRejectionHandler}. A merge list without a <code>ToEmail</code> column is refused while a
+		 *        filter is set. Defaults to none.
+		 * @return this builder
+		 */
+		public Builder suppressionFilter(SuppressionFilter filter) {
+			this.suppressionFilter = filter;
+			return this;
+		}
+
+		/**
+		 * @param throttle
+		 *        limits the send rate to each recipient domain, deferring recipients over their domain's limit.
+		 *        Defaults to none.
+		 * @return this builder
+		 */
+		public Builder domainThrottle(DomainThrottle throttle) {
+			this.domainThrottle = throttle;
+			return this;
+		}
+
+		/**
+		 * @param metrics
+		 *        records the latency and outcome of every API call. Defaults to none.
+		 * @return this builder
+		 */
+		public Builder metrics(ClientMetrics metrics) {
+			this.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 * @param interceptor
+		 *        sees every API call. Interceptors run in the order they are added.
+		 * @return this builder
+		 */
+		public Builder interceptor(ApiInterceptor interceptor) {
+			if ( interceptor == null ) {
+				throw new NullPointerException("interceptor");
+			}
+			this.interceptors.add(interceptor);
+			return this;
+		}
+
+		/**
+		 * @param transport
+		 *        opens the client's HTTP connections. Defaults to {@link HttpTransport#DEFAULT}.
+		 * @return this builder
+		 */
+		public Builder transport(HttpTransport transport) {
+			this.transport = transport;
+			return this;
+		}
+
+		public ElasticEmailClient build() {
+			return new ElasticEmailClient(this);
+		}
 	}
 
 	/**
@@ -87,13 +272,14 @@ public class ElasticEmailClient {
 	 * @param fromName
 	 *        This is the human readable name of the person (or bot) the email will be "from".
 	 * @param toEmails
-	 *        This is a semicolon separated list of email recipients.
+	 *        This is a semicolon separated list of email recipients. Malformed addresses are dropped before sending
+	 *        and reported to the {@link RecipientRejectionHandler}.
 	 * @param subject
 	 *        This is the Subject line of the email.
 	 * @param bodyText
 	 *        This is the plain text body of the email.
 	 * @return A transactionId string is returned, which can be passed to {@link #getStatus(String)} to check the status
-	 *         of your message delivery.
+	 *         of your message delivery. It is null if every recipient was deferred by the domain throttle.
 	 * @throws IOException
 	 *         The Elastic Email API is over HTTP. If any communication goes awry, you'll get an IOException.
 	 */
@@ -124,7 +310,8 @@ public class ElasticEmailClient {
 	 * @param fromName
 	 *        This is the human readable name of the person (or bot) the email will be "from".
 	 * @param toEmails
-	 *        This is a semicolon separated list of email recipients.
+	 *        This is a semicolon separated list of email recipients. Malformed addresses are dropped before sending
+	 *        and reported to the {@link RecipientRejectionHandler}.
 	 * @param subject
 	 *        This is the Subject line of the email.
 	 * @param bodyText
@@ -134,87 +321,547 @@ public class ElasticEmailClient {
 	 * @param attachmentIds
 	 *        If you have any attachments, list them here. They must be uploaded in advance by calling
 	 *        {@link #uploadAttachment(InputStream, String)}.
-	 * @return
+	 * @return A transactionId string is returned, which can be passed to {@link #getStatus(String)} to check the status
+	 *         of your message delivery. It is null if every recipient was deferred by the domain throttle.
 	 * @throws IOException
 	 *         The Elastic Email API is over HTTP. If any communication goes awry, you'll get an IOException.
 	 */
 	public TransactionId sendEmail(String channel, String fromEmail, String fromName, String toEmails, String subject, String bodyText, String bodyHtml, List<AttachmentId> attachmentIds)
 			throws IOException {
-		StringBuilder buf = new StringBuilder();
-		buf.append("username=").append(urlEncodeUTF8(props.getElasticEmailUserName()));
-		buf.append("&api_key=").append(urlEncodeUTF8(props.getElasticEmailApiKey()));
-		buf.append("&from=").append(urlEncodeUTF8(fromEmail));
-		buf.append("&from_name=").append(urlEncodeUTF8(fromName));
-		buf.append("&to=").append(urlEncodeUTF8(toEmails));
-		buf.append("&subject=").append(urlEncodeUTF8(subject));
-		buf.append("&body_text=").append(urlEncodeUTF8(bodyText));
-		if ( channel != null ) {
-			buf.append("&channel=").append(urlEncodeUTF8(channel));
-		}
-		if ( bodyHtml != null ) {
-			buf.append("&body_html=").append(urlEncodeUTF8(bodyHtml));
-		}
-		if ( attachmentIds != null ) {
-			buf.append("&attachments=");
-			for ( int i = 0; i < attachmentIds.size(); i++ ) {
-				if ( i > 0 ) {
-					buf.append(";");
-				}
-				buf.append(urlEncodeUTF8(attachmentIds.get(i).getId()));
-			}
+		return send(new EmailMessage(channel, fromEmail, fromName, toEmails, subject, bodyText, bodyHtml, attachmentIds));
+	}
+
+	/**
+	 * <p>
+	 * Sends a personalized email rendered from compiled templates.
+	 * </p>
+	 * 
+	 * <p>
+	 * The templates are rendered straight into the outbound request body, so sending the same large template to many
+	 * recipients does not build a personalized copy of the body for each one. Compile each template once with
+	 * {@link MailTemplate#compile(String)} and keep it around.
+	 * </p>
+	 * 
+	 * @param channel
+	 *        This is an arbitrary string so that you can run reports at Elastic Email and bucket your outbound email
+	 *        statistics. Pass null to ignore.
+	 * @param fromEmail
+	 *        This is the email address that the email will be "from".
+	 * @param fromName
+	 *        This is the human readable name of the person (or bot) the email will be "from".
+	 * @param toEmails
+	 *        This is a semicolon separated list of email recipients. Malformed addresses are dropped before sending
+	 *        and reported to the {@link RecipientRejectionHandler}.
+	 * @param subject
+	 *        This is the Subject line of the email.
+	 * @param bodyText
+	 *        This is the template for the plain text body of the email.
+	 * @param bodyHtml
+	 *        This is the template for the html version of the email body. Pass null to not supply an html version of
+	 *        the body.
+	 * @param mergeFields
+	 *        The values to substitute for the <code>{name}</code> merge fields in both templates.
+	 * @param attachmentIds
+	 *        If you have any attachments, list them here. They must be uploaded in advance by calling
+	 *        {@link #uploadAttachment(InputStream, String)}.
+	 * @return A transactionId string is returned, which can be passed to {@link #getStatus(TransactionId)} to check the
+	 *         status of your message delivery. It is null if every recipient was deferred by the domain throttle.
+	 * @throws IOException
+	 *         The Elastic Email API is over HTTP. If any communication goes awry, you'll get an IOException.
+	 */
+	public TransactionId sendEmail(String channel, String fromEmail, String fromName, String toEmails, String subject, MailTemplate bodyText, MailTemplate bodyHtml,
+			Map<String, String> mergeFields, List<AttachmentId> attachmentIds) throws IOException {
+		if ( mergeFields == null ) {
+			throw new IllegalArgumentException("mergeFields is required to render a template");
 		}
+		EmailMessage message = new EmailMessage(channel, fromEmail, fromName, toEmails, subject, null, null, attachmentIds);
+		message.setBodyTextTemplate(bodyText);
+		message.setBodyHtmlTemplate(bodyHtml);
+		message.setMergeFields(mergeFields);
+		return send(message);
+	}
+
+	/**
+	 * <p>
+	 * Sends an email described by an {@link EmailMessage}.
+	 * </p>
+	 * 
+	 * <p>
+	 * Recipients are checked before anything is sent: malformed and suppressed addresses are dropped and reported to
+	 * the {@link RecipientRejectionHandler}. With a {@link DomainThrottle} installed, recipients whose domain is over its
+	 * rate are taken out and sent later on their own; their outcome goes to the throttle's {@link SendListener}.
+	 * </p>
+	 * 
+	 * @param message
+	 *        the email to send
+	 * @return A transactionId string is returned, which can be passed to {@link #getStatus(TransactionId)} to check the
+	 *         status of your message delivery. It is null if every recipient was deferred by the domain throttle.
+	 * @throws IOException
+	 *         The Elastic Email API is over HTTP. If any communication goes awry, you'll get an IOException.
+	 */
+	public TransactionId send(EmailMessage message) throws IOException {
+		return send(message, true);
+	}
 
-		URL resturl = new URL(API_SEND);
-		URLConnection con = resturl.openConnection();
-		con.setDoOutput(true); // FYI, this implicitly sets req method to POST
-		// con.setRequestMethod("POST");
-		con.setRequestProperty("Accept-Charset", UTF8);
-		con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=" + UTF8);
-		OutputStream out = null;
+	/**
+	 * Sends a message whose recipients have already been through the domain throttle.
+	 */
+	TransactionId sendUnthrottled(EmailMessage message) throws IOException {
+		return send(message, false);
+	}
+
+	/**
+	 * <p>
+	 * Sends one personalized email to every recipient in a mail-merge list, in a single API call.
+	 * </p>
+	 * 
+	 * <p>
+	 * The rows are streamed as a CSV file through the attachment upload, a buffer at a time, so the list is never held in
+	 * memory, and then one send request references the uploaded file as its merge source. Elastic Email substitutes each
+	 * row's values for the <code>{name}</code> merge fields in the templates, where a field's name is its column header.
+	 * The header must include the recipient email address column Elastic Email's merge expects.
+	 * </p>
+	 * 
+	 * <p>
+	 * Each row's address, in its <code>ToEmail</code> column, is checked as a send's recipients are. A row whose address
+	 * is malformed or suppressed is left out and reported to the {@link RecipientRejectionHandler}. Without a
+	 * <code>ToEmail</code> column the rows can't be checked, so the list is sent as is, or refused if a
+	 * {@link SuppressionFilter} is set.
+	 * </p>
+	 * 
+	 * @param channel
+	 *        This is an arbitrary string so that you can run reports at Elastic Email and bucket your outbound email
+	 *        statistics. Pass null to ignore.
+	 * @param fromEmail
+	 *        This is the email address that the email will be "from".
+	 * @param fromName
+	 *        This is the human readable name of the person (or bot) the email will be "from".
+	 * @param subject
+	 *        This is the Subject line of the email.
+	 * @param bodyText
+	 *        This is the template for the plain text body of the email.
+	 * @param bodyHtml
+	 *        This is the template for the html version of the email body. Pass null to not supply an html version of
+	 *        the body.
+	 * @param header
+	 *        The column names of the merge list.
+	 * @param rows
+	 *        One row of merge values per recipient, in the same order as the header.
+	 * @param attachmentIds
+	 *        If you have any attachments, list them here. They must be uploaded in advance by calling
+	 *        {@link #uploadAttachment(InputStream, String)}.
+	 * @return A transactionId string is returned, which can be passed to {@link #getStatus(TransactionId)} to check the
+	 *         status of the whole merge. It is never null: a merge is not held back by the domain throttle.
+	 * @throws IOException
+	 *         The Elastic Email API is over HTTP. If any communication goes awry, you'll get an IOException.
+	 */
+	public TransactionId sendMerge(String channel, String fromEmail, String fromName, String subject, MailTemplate bodyText, MailTemplate bodyHtml, final String[] header,
+			final Iterator<String[]> rows, List<AttachmentId> attachmentIds) throws IOException {
+		return sendMergeRows(channel, fromEmail, fromName, subject, bodyText, bodyHtml, header, rows, null, attachmentIds);
+	}
+
+	/**
+	 * <p>
+	 * Sends one personalized email to every recipient in a mail-merge CSV file, in a single API call; see
+	 * {@link #sendMerge(String, String, String, String, MailTemplate, MailTemplate, String[], Iterator, List)}.
+	 * </p>
+	 * 
+	 * <p>
+	 * The file is read a row at a time as the merge list is uploaded, not sent as is: each row is parsed and
+	 * re-written, and a row whose <code>ToEmail</code> address is malformed or suppressed is left out. A file without
+	 * a <code>ToEmail</code> column is refused with an {@link IllegalArgumentException} if a {@link SuppressionFilter}
+	 * is set.
+	 * </p>
+	 * 
+	 * @param mergeCsv
+	 *        A UTF-8 CSV file with a header row, and one row of merge values per recipient.
+	 * @return A transactionId string is returned, which can be passed to {@link #getStatus(TransactionId)} to check the
+	 *         status of the whole merge. It is never null: a merge is not held back by the domain throttle.
+	 * @throws IOException
+	 *         The Elastic Email API is over HTTP. If any communication goes awry, you'll get an IOException.
+	 */
+	public TransactionId sendMerge(String channel, String fromEmail, String fromName, String subject, MailTemplate bodyText, MailTemplate bodyHtml, File mergeCsv,
+			List<AttachmentId> attachmentIds) throws IOException {
+		// read a row at a time, so each recipient is checked as the list is uploaded
+		Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(mergeCsv), UTF8));
 		try {
-			out = con.getOutputStream();
-			out.write(buf.toString().getBytes(UTF8));
+			MergeCsvReader csv = new MergeCsvReader(in);
+			String[] header = csv.readRow();
+			if ( header == null ) {
+				throw new IOException("merge file is empty: " + mergeCsv);
+			}
+			return sendMergeRows(channel, fromEmail, fromName, subject, bodyText, bodyHtml, header, null, csv, attachmentIds);
 		}
 		finally {
-			if ( out != null ) {
-				try {
-					out.close();
+			try {
+				in.close();
+			}
+			catch ( IOException e ) { /* punt */}
+		}
+	}
+
+	/**
+	 * Uploads the merge list, from either <code>rows</code> or <code>csv</code>, leaving out rows whose recipient can't be
+	 * sent to, and sends it.
+	 */
+	private TransactionId sendMergeRows(String channel, String fromEmail, String fromName, String subject, MailTemplate bodyText, MailTemplate bodyHtml,
+			final String[] header, final Iterator<String[]> rows, final MergeCsvReader csv, List<AttachmentId> attachmentIds) throws IOException {
+		final int emailColumn = mergeEmailColumn(header);
+		if ( emailColumn < 0 && suppressionFilter != null ) {
+			throw new IllegalArgumentException("merge list has no " + MERGE_EMAIL_COLUMN + " column, so its recipients can't be checked against the suppression filter");
+		}
+		final long[] sent = new long[1];
+		String mergeFileName = newMergeFileName();
+		AttachmentId mergeFile = upload(mergeFileName, new UploadBody() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				MergeCsvWriter writer = new MergeCsvWriter(out);
+				writer.writeRow(header);
+				long dropped = 0;
+				String[] row;
+				while ( (row = rows != null ? (rows.hasNext() ? rows.next() : null) : csv.readRow()) != null ) {
+					if ( emailColumn < 0 || isMergeRecipientSendable(row, emailColumn) ) {
+						writer.writeRow(row);
+					}
+					else {
+						dropped++;
+					}
 				}
-				catch ( IOException e ) { /* punt */}
+				writer.flush();
+				sent[0] = writer.getRowCount() - 1;
+				logger.debug("merge rows uploaded: {}, left out: {}", sent[0], dropped);
+			}
+		});
+		if ( emailColumn >= 0 && sent[0] == 0 ) {
+			throw new IOException("no merge recipients left to send to");
+		}
+		return sendMergeSource(channel, fromEmail, fromName, subject, bodyText, bodyHtml, mergeFile, mergeFileName, attachmentIds);
+	}
+
+	/**
+	 * @return the index of the recipient address column in a merge header, or -1
+	 */
+	private static int mergeEmailColumn(String[] header) {
+		for ( int i = 0; i < header.length; i++ ) {
+			if ( header[i] != null && MERGE_EMAIL_COLUMN.equalsIgnoreCase(header[i].trim()) ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks a merge row's address as {@link #send(EmailMessage, boolean)} checks a recipient list.
+	 * 
+	 * @return false if the row must be left out
+	 */
+	private boolean isMergeRecipientSendable(String[] row, int emailColumn) {
+		String address = emailColumn < row.length && row[emailColumn] != null ? row[emailColumn] : "";
+		String normalized = AddressValidator.normalize(address);
+		if ( normalized == null ) {
+			if ( rejectionHandler != null ) {
+				rejectionHandler.rejected(address.trim(), RecipientRejectionHandler.Reason.MALFORMED);
+			}
+			return false;
+		}
+		if ( suppressionFilter != null && suppressionFilter.isSuppressed(normalized, 0, normalized.length()) ) {
+			if ( rejectionHandler != null ) {
+				rejectionHandler.rejected(address.trim(), RecipientRejectionHandler.Reason.SUPPRESSED);
 			}
+			return false;
 		}
+		return true;
+	}
+
+	private TransactionId sendMergeSource(String channel, String fromEmail, String fromName, String subject, MailTemplate bodyText, MailTemplate bodyHtml,
+			AttachmentId mergeFile, String mergeFileName, List<AttachmentId> attachmentIds) throws IOException {
+		EmailMessage message = new EmailMessage(channel, fromEmail, fromName, null, subject, null, null, attachmentIds);
+		message.setBodyTextTemplate(bodyText);
+		message.setBodyHtmlTemplate(bodyHtml);
+		return post(message, null, mergeFileName, mergeFile.getCredential());
+	}
 
-		// done writing. now read.
+	private static String newMergeFileName() {
+		return "merge-" + System.currentTimeMillis() + "-" + mergeFileCounter.incrementAndGet() + ".csv";
+	}
 
-		// get result code
-		int responseCode = ((HttpURLConnection) con).getResponseCode();
-		logger.info("email sent. response={} to={}, from={}, subject={}", responseCode, toEmails, fromEmail, subject);
-		if ( responseCode != 200 ) {
-			throw new IOException("bad response code: " + responseCode);
+	private TransactionId send(EmailMessage message, boolean throttled) throws IOException {
+		String toEmails = message.getToEmails();
+		if ( toEmails == null ) {
+			throw new IllegalArgumentException("toEmails is required");
+		}
+		// drop malformed addresses here rather than let them fail the whole request at the server
+		StringBuilder recipients = recipientBuffer.get();
+		recipients.setLength(0);
+		if ( AddressValidator.normalizeList(toEmails, recipients, rejectionHandler) == 0 ) {
+			throw new IOException("no valid recipients in: " + toEmails);
+		}
+		if ( suppressionFilter != null && removeSuppressed(recipients) == 0 ) {
+			throw new IOException("all recipients are suppressed: " + toEmails);
+		}
+		if ( throttled && domainThrottle != null && deferThrottled(message, recipients) == 0 ) {
+			return null;
 		}
+		return post(message, recipients, null, null);
+	}
 
-		// the following call is what actually fires the HTTP request.
-		InputStream response = con.getInputStream();
-		BufferedReader in = null;
+	/**
+	 * Picks the credentials for a send, and sends it.
+	 * 
+	 * @param recipients
+	 *        the checked recipient list, or null for a merge
+	 * @param mergeSource
+	 *        file name of an uploaded merge list, or null
+	 * @param uploadedWith
+	 *        the key that uploaded the merge list, or null
+	 */
+	private TransactionId post(EmailMessage message, CharSequence recipients, String mergeSource, CredentialPool.Credential uploadedWith) throws IOException {
+		if ( credentialPool == null ) {
+			return post(message, recipients, mergeSource, props, null);
+		}
+		CredentialPool.Credential credential = uploadedWith;
+		List<AttachmentId> attachmentIds = message.getAttachmentIds();
+		if ( credential == null && attachmentIds != null && !attachmentIds.isEmpty() ) {
+			credential = attachmentIds.get(0).getCredential(); // attachments belong to the account that uploaded them
+		}
+		if ( credential != null ) {
+			credentialPool.acquire(credential);
+		}
+		else {
+			credential = credentialPool.acquire();
+		}
+		boolean ok = false;
 		try {
-			in = new BufferedReader(new InputStreamReader(response, UTF8));
-			String transactionId = in.readLine(); // only expect a single line
-			// System.out.println("got back txId = " +transactionId);
-			return new TransactionId(transactionId);
+			TransactionId transactionId = post(message, recipients, mergeSource, credential.getProperties(), credential);
+			ok = true;
+			return transactionId;
+		}
+		finally {
+			credential.end(ok);
+		}
+	}
+
+	/**
+	 * Writes the send request.
+	 */
+	private TransactionId post(EmailMessage message, CharSequence recipients, String mergeSource, ElasticEmailProperties props, CredentialPool.Credential credential)
+			throws IOException {
+		long start = System.nanoTime();
+		long connected = 0;
+		long written = 0;
+		long firstByte = 0;
+		long read = 0;
+		long sent = 0;
+		ClientMetrics.CountingInputStream counted = null;
+		int responseCode = -1;
+		boolean ok = false;
+		Object event = events == null ? null : events.begin(ApiEvents.Kind.SEND);
+		ApiCall call = null;
+		Exception failure = null;
+		try {
+			URL resturl = new URL(apiSend);
+			HttpURLConnection con = transport.open(ClientMetrics.Endpoint.SEND, resturl);
+			con.setDoOutput(true); // FYI, this implicitly sets req method to POST
+			// con.setRequestMethod("POST");
+			con.setChunkedStreamingMode(FormEncoder.DEFAULT_BUFFER_SIZE); // don't let the connection buffer the whole body
+			con.setRequestProperty("Accept-Charset", UTF8);
+			con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=" + UTF8);
+			if ( interceptor != null ) {
+				call = new ApiCall(ClientMetrics.Endpoint.SEND, apiSend, con.getRequestProperties(), start);
+			}
+			con.connect();
+			connected = System.nanoTime();
+			OutputStream out = null;
+			try {
+				out = con.getOutputStream();
+				FormEncoder form = new FormEncoder(out);
+				writeSendForm(form, message, recipients, mergeSource, props, call);
+				form.flush();
+				sent = form.size();
+			}
+			finally {
+				if ( out != null ) {
+					try {
+						out.close();
+					}
+					catch ( IOException e ) { /* punt */}
+				}
+			}
+			written = System.nanoTime();
+			if ( call != null ) {
+				call.requestBytes = sent;
+				interceptor.onRequest(call);
+			}
+
+			// done writing. now read.
+
+			// get result code
+			responseCode = con.getResponseCode();
+			firstByte = System.nanoTime();
+			logger.info("email sent. response={} to={}, from={}, subject={}", responseCode, recipients, message.getFromEmail(), message.getSubject());
+			if ( responseCode != 200 ) {
+				throw new IOException("bad response code: " + responseCode);
+			}
+
+			// the following call is what actually fires the HTTP request.
+			InputStream response = con.getInputStream();
+			if ( metrics != null || call != null ) {
+				response = counted = new ClientMetrics.CountingInputStream(response);
+			}
+			BufferedReader in = null;
+			try {
+				in = new BufferedReader(new InputStreamReader(response, UTF8));
+				String transactionId = in.readLine(); // only expect a single line
+				// System.out.println("got back txId = " +transactionId);
+				read = System.nanoTime();
+				ok = true;
+				return new TransactionId(transactionId, credential);
+			}
+			catch ( IOException e ) {
+				throw new IOException("Unable to read response from server for sendEmail.");
+			}
+			finally {
+				if ( in != null ) {
+					try {
+						in.close();
+					}
+					catch ( IOException e ) { /* punt */}
+				}
+			}
 		}
 		catch ( IOException e ) {
-			throw new IOException("Unable to read response from server for sendEmail.");
+			failure = e;
+			throw e;
+		}
+		catch ( RuntimeException e ) {
+			failure = e;
+			throw e;
 		}
 		finally {
-			if ( in != null ) {
-				try {
-					in.close();
+			if ( call != null ) {
+				intercepted(call, responseCode, counted, ok, failure);
+			}
+			if ( metrics != null ) {
+				metrics.record(ClientMetrics.Endpoint.SEND, start, connected, written, firstByte, read, System.nanoTime(), responseCode, sent, counted == null ? 0 : counted.count, ok);
+			}
+			if ( event != null ) {
+				events.end(event, apiSend, sent, responseCode, countRecipients(recipients), message.getChannel());
+			}
+		}
+	}
+
+	/**
+	 * Writes the fields of a send request.
+	 *
+	 * @param call
+	 *        if not null, given the shape of the request
+	 */
+	static void writeSendForm(FormEncoder form, EmailMessage message, CharSequence recipients, String mergeSource, ElasticEmailProperties props, ApiCall call)
+			throws IOException {
+		writeCredentials(form, props);
+		form.field("from", message.getFromEmail());
+		form.field("from_name", message.getFromName());
+		if ( recipients != null ) {
+			form.field("to", recipients);
+		}
+		long subject = form.name("subject").size();
+		form.value(message.getSubject());
+		if ( call != null ) {
+			call.subjectBytes = (int) (form.size() - subject);
+		}
+		if ( mergeSource != null ) {
+			form.field("data_source", mergeSource);
+		}
+		writeBody(form, message, mergeSource != null, call);
+		if ( message.getChannel() != null ) {
+			form.field("channel", message.getChannel());
+		}
+		List<AttachmentId> attachmentIds = message.getAttachmentIds();
+		if ( call != null ) {
+			call.recipientCount = countRecipients(recipients);
+			call.attachmentCount = attachmentIds == null ? 0 : attachmentIds.size();
+			call.merge = mergeSource != null;
+		}
+		if ( attachmentIds != null ) {
+			form.name("attachments");
+			for ( int i = 0; i < attachmentIds.size(); i++ ) {
+				if ( i > 0 ) {
+					form.raw(';');
 				}
-				catch ( IOException e ) { /* punt */}
+				form.value(attachmentIds.get(i).getId());
 			}
 		}
 	}
 
+	private static void writeBody(FormEncoder form, EmailMessage message, boolean merge, ApiCall call) throws IOException {
+		long text;
+		long html = -1;
+		long end;
+		if ( message.isTemplated() ) {
+			// for a merge, leave the merge fields in for Elastic Email to fill in per row
+			Map<String, String> values = merge ? null : message.getMergeFields();
+			text = form.name("body_text").size();
+			message.getBodyTextTemplate().writeTo(form, values);
+			end = form.size();
+			if ( message.getBodyHtmlTemplate() != null ) {
+				html = form.name("body_html").size();
+				message.getBodyHtmlTemplate().writeTo(form, values);
+			}
+		}
+		else {
+			text = form.name("body_text").size();
+			form.value(message.getBodyText());
+			end = form.size();
+			if ( message.getBodyHtml() != null ) {
+				html = form.name("body_html").size();
+				form.value(message.getBodyHtml());
+			}
+		}
+		if ( call != null ) {
+			call.bodyTextBytes = (int) (end - text);
+			call.bodyHtmlBytes = html < 0 ? 0 : (int) (form.size() - html);
+		}
+	}
+
+	/**
+	 * Takes each recipient's domain permit, and hands the recipients that have to wait for theirs to the domain
+	 * throttle, removing them from the list in place.
+	 * 
+	 * @return how many recipients may be sent to now
+	 */
+	private int deferThrottled(EmailMessage message, StringBuilder recipients) {
+		int kept = 0;
+		int w = 0;
+		int length = recipients.length();
+		for ( int start = 0; start < length; ) {
+			int end = start;
+			int at = -1;
+			while ( end < length && recipients.charAt(end) != ';' ) {
+				if ( recipients.charAt(end) == '@' ) {
+					at = end;
+				}
+				end++;
+			}
+			long wait = domainThrottle.reserve(recipients, at + 1, end);
+			if ( wait > 0 ) {
+				EmailMessage later = message.copy();
+				later.setToEmails(recipients.substring(start, end));
+				domainThrottle.defer(this, later, wait);
+			}
+			else {
+				if ( kept++ > 0 ) {
+					recipients.setCharAt(w++, ';');
+				}
+				for ( int i = start; i < end; i++ ) {
+					recipients.setCharAt(w++, recipients.charAt(i));
+				}
+			}
+			start = end + 1;
+		}
+		recipients.setLength(w);
+		return kept;
+	}
+
 	/**
 	 * <p>
 	 * Upload an email attachment.
@@ -236,68 +883,154 @@ public class ElasticEmailClient {
 	 * @throws IOException
 	 *         The Elastic Email API is over HTTP. If any communication goes awry, you'll get an IOException.
 	 */
-	public AttachmentId uploadAttachment(InputStream data, String filename) throws IOException {
-		StringBuilder params = new StringBuilder();
-		params.append("?username=").append(urlEncodeUTF8(props.getElasticEmailUserName()));
-		params.append("&api_key=").append(urlEncodeUTF8(props.getElasticEmailApiKey()));
-		params.append("&file=").append(urlEncodeUTF8(filename));
-
-		URL resturl = new URL(API_UPLOAD_ATTACHMENT + params.toString());
-		HttpURLConnection con = (HttpURLConnection) resturl.openConnection();
-		con.setDoOutput(true); // FYI, this implicitly sets req method to POST
-		con.setRequestMethod("PUT");
-		con.setRequestProperty("Accept-Charset", UTF8);
-		con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=" + UTF8);
-		OutputStream out = null;
-		try {
-			final int BUFSIZ = 64 * 1024; // why not have a 64K buffer?
-			byte[] buffer = new byte[BUFSIZ];
-			int bytesRead = 0;
+	public AttachmentId uploadAttachment(final InputStream data, String filename) throws IOException {
+		return upload(filename, new UploadBody() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				final int BUFSIZ = 64 * 1024; // why not have a 64K buffer?
+				byte[] buffer = new byte[BUFSIZ];
+				int bytesRead = 0;
 
-			out = con.getOutputStream();
-			int total = 0;
-			while ( (bytesRead = data.read(buffer, 0, BUFSIZ)) > 0 ) {
-				out.write(buffer, 0, bytesRead);
-				total += bytesRead;
+				int total = 0;
+				while ( (bytesRead = data.read(buffer, 0, BUFSIZ)) > 0 ) {
+					out.write(buffer, 0, bytesRead);
+					total += bytesRead;
+				}
+				logger.debug("total bytes uploaded: {}", total);
 			}
-			logger.debug("total bytes uploaded: {}", total);
+		});
+	}
+
+	/**
+	 * Writes the content of an attachment being uploaded.
+	 */
+	private interface UploadBody {
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	private AttachmentId upload(String filename, UploadBody body) throws IOException {
+		if ( credentialPool == null ) {
+			return upload(filename, body, props, null);
+		}
+		CredentialPool.Credential credential = credentialPool.acquire();
+		boolean ok = false;
+		try {
+			AttachmentId attachmentId = upload(filename, body, credential.getProperties(), credential);
+			ok = true;
+			return attachmentId;
 		}
 		finally {
-			if ( out != null ) {
-				try {
-					out.close();
+			credential.end(ok);
+		}
+	}
+
+	private AttachmentId upload(String filename, UploadBody body, ElasticEmailProperties props, CredentialPool.Credential credential) throws IOException {
+		long start = System.nanoTime();
+		long connected = 0;
+		long written = 0;
+		long firstByte = 0;
+		long read = 0;
+		ClientMetrics.CountingOutputStream sent = null;
+		ClientMetrics.CountingInputStream counted = null;
+		int responseCode = -1;
+		boolean ok = false;
+		Object event = events == null ? null : events.begin(ApiEvents.Kind.UPLOAD);
+		ApiCall call = null;
+		Exception failure = null;
+		try {
+			StringBuilder params = new StringBuilder();
+			params.append('?');
+			appendCredentials(params, props);
+			params.append("&file=").append(urlEncodeUTF8(filename));
+
+			URL resturl = new URL(apiUploadAttachment + params.toString());
+			HttpURLConnection con = transport.open(ClientMetrics.Endpoint.UPLOAD, resturl);
+			con.setDoOutput(true); // FYI, this implicitly sets req method to POST
+			con.setRequestMethod("PUT");
+			con.setChunkedStreamingMode(MergeCsvWriter.DEFAULT_BUFFER_SIZE); // don't let the connection buffer the whole upload
+			con.setRequestProperty("Accept-Charset", UTF8);
+			con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=" + UTF8);
+			if ( interceptor != null ) {
+				call = new ApiCall(ClientMetrics.Endpoint.UPLOAD, apiUploadAttachment, con.getRequestProperties(), start);
+			}
+			con.connect();
+			connected = System.nanoTime();
+			OutputStream out = null;
+			try {
+				out = con.getOutputStream();
+				if ( metrics != null || event != null || call != null ) {
+					out = sent = new ClientMetrics.CountingOutputStream(out);
 				}
-				catch ( IOException e ) { /* punt */}
+				body.writeTo(out);
+			}
+			finally {
+				if ( out != null ) {
+					try {
+						out.close();
+					}
+					catch ( IOException e ) { /* punt */}
+				}
+			}
+			written = System.nanoTime();
+			if ( call != null ) {
+				call.requestBytes = sent.count;
+				interceptor.onRequest(call);
 			}
-		}
 
-		// done writing. now read.
+			// done writing. now read.
 
-		// get result code
-		int responseCode = ((HttpURLConnection) con).getResponseCode();
-		logger.debug("upload attachment response code = {}", responseCode);
-		if ( responseCode != 200 ) {
-			throw new IOException("bad response code: " + responseCode);
-		}
+			// get result code
+			responseCode = con.getResponseCode();
+			firstByte = System.nanoTime();
+			logger.debug("upload attachment response code = {}", responseCode);
+			if ( responseCode != 200 ) {
+				throw new IOException("bad response code: " + responseCode);
+			}
 
-		// the following call is what actually fires the HTTP request.
-		InputStream response = con.getInputStream();
-		BufferedReader in = null;
-		try {
-			in = new BufferedReader(new InputStreamReader(response, UTF8));
-			String attachmentId = in.readLine(); // only expect a single line
-			logger.debug("got back attachmentId = {}", attachmentId);
-			return new AttachmentId(attachmentId);
+			// the following call is what actually fires the HTTP request.
+			InputStream response = con.getInputStream();
+			if ( metrics != null || call != null ) {
+				response = counted = new ClientMetrics.CountingInputStream(response);
+			}
+			BufferedReader in = null;
+			try {
+				in = new BufferedReader(new InputStreamReader(response, UTF8));
+				String attachmentId = in.readLine(); // only expect a single line
+				logger.debug("got back attachmentId = {}", attachmentId);
+				read = System.nanoTime();
+				ok = true;
+				return new AttachmentId(attachmentId, credential);
+			}
+			catch ( IOException e ) {
+				throw new IOException("Unable to read response from server for sendEmail.");
+			}
+			finally {
+				if ( in != null ) {
+					try {
+						in.close();
+					}
+					catch ( IOException e ) { /* punt */}
+				}
+			}
 		}
 		catch ( IOException e ) {
-			throw new IOException("Unable to read response from server for sendEmail.");
+			failure = e;
+			throw e;
+		}
+		catch ( RuntimeException e ) {
+			failure = e;
+			throw e;
 		}
 		finally {
-			if ( in != null ) {
-				try {
-					in.close();
-				}
-				catch ( IOException e ) { /* punt */}
+			if ( call != null ) {
+				intercepted(call, responseCode, counted, ok, failure);
+			}
+			if ( metrics != null ) {
+				metrics.record(ClientMetrics.Endpoint.UPLOAD, start, connected, written, firstByte, read, System.nanoTime(), responseCode, sent == null ? 0 : sent.count,
+						counted == null ? 0 : counted.count, ok);
+			}
+			if ( event != null ) {
+				events.end(event, apiUploadAttachment, sent == null ? 0 : sent.count, responseCode, 0, null);
 			}
 		}
 	}
@@ -316,126 +1049,312 @@ public class ElasticEmailClient {
 	 *         The Elastic Email API is over HTTP. If any communication goes awry, you'll get an IOException.
 	 */
 	public MailerStatus getStatus(TransactionId transactionId) throws IOException, ElasticEmailException {
-		StringBuilder buf = new StringBuilder();
-		buf.append(API_STATUS).append("/").append(transactionId.getId()).append("?showstats=true");
-		// buf.append("&username=").append(urlEncodeUTF8(USERNAME));
-		// buf.append("&api_key=").append(urlEncodeUTF8(API_KEY));
-		// System.out.println("status url: "+buf.toString());
-		URL resturl = new URL(buf.toString());
-		HttpURLConnection con = (HttpURLConnection) resturl.openConnection();
-		con.setDoOutput(true);
-		con.setRequestMethod("GET");
-		OutputStreamWriter out = new OutputStreamWriter(con.getOutputStream());
-		out.flush();
-		out.close();
-
-		BufferedReader in = null;
+		long start = System.nanoTime();
+		long connected = 0;
+		long written = 0;
+		long firstByte = 0;
+		long read = 0;
+		ClientMetrics.CountingInputStream counted = null;
+		int responseCode = -1;
+		boolean ok = false;
+		Object event = events == null ? null : events.begin(ApiEvents.Kind.STATUS);
+		ApiCall call = null;
+		Exception failure = null;
 		try {
-			if ( con.getInputStream() != null ) {
-				in = new BufferedReader(new InputStreamReader(con.getInputStream()));
+			StringBuilder buf = new StringBuilder();
+			buf.append(apiStatus).append("/").append(transactionId.getId()).append("?showstats=true");
+			CredentialPool.Credential credential = transactionId.getCredential();
+			if ( credential != null ) {
+				// poll with the account that sent it
+				buf.append('&');
+				appendCredentials(buf, credential.getProperties());
+			}
+			// buf.append("&username=").append(urlEncodeUTF8(USERNAME));
+			// buf.append("&api_key=").append(urlEncodeUTF8(API_KEY));
+			// System.out.println("status url: "+buf.toString());
+			URL resturl = new URL(buf.toString());
+			HttpURLConnection con = transport.open(ClientMetrics.Endpoint.STATUS, resturl);
+			con.setDoOutput(true);
+			con.setRequestMethod("GET");
+			if ( interceptor != null ) {
+				call = new ApiCall(ClientMetrics.Endpoint.STATUS, apiStatus, con.getRequestProperties(), start);
+			}
+			con.connect();
+			connected = System.nanoTime();
+			OutputStreamWriter out = new OutputStreamWriter(con.getOutputStream());
+			out.flush();
+			out.close();
+			written = System.nanoTime();
+			if ( call != null ) {
+				call.requestBytes = 0;
+				interceptor.onRequest(call);
+			}
+
+			InputStream stream = null;
+			try {
+				stream = con.getInputStream();
+			}
+			catch ( IOException e ) {
+				stream = con.getErrorStream();
+			}
+			firstByte = System.nanoTime();
+
+			if ( stream == null ) {
+				throw new IOException("Unable to read response from server for getStatus.");
+			}
+			if ( metrics != null || call != null ) {
+				stream = counted = new ClientMetrics.CountingInputStream(stream);
+			}
+			try {
+				// the status is parsed as it is read; anything else, or any other response code, is an error message
+				MailerStatusParser parser = new MailerStatusParser(stream);
+				responseCode = con.getResponseCode();
+				if ( responseCode >= 200 && responseCode < 300 && parser.peek() == '<' ) {
+					MailerStatus status = parseStatus(parser);
+					read = System.nanoTime();
+					ok = true;
+					return status;
+				}
+				else {
+					String response = parser.text();
+					read = System.nanoTime();
+					throw new ElasticEmailException(response);
+				}
+			}
+			finally {
+				try {
+					stream.close();
+				}
+				catch ( IOException e ) { /* punt */}
 			}
 		}
 		catch ( IOException e ) {
-			if ( con.getErrorStream() != null ) {
-				in = new BufferedReader(new InputStreamReader(con.getErrorStream()));
-			}
+			failure = e;
+			throw e;
 		}
-
-		if ( in == null ) {
-			throw new IOException("Unable to read response from server for getStatus.");
+		catch ( ElasticEmailException e ) {
+			failure = e;
+			throw e;
 		}
-		String response = getStringFromBufferedReader(in);
-		in.close();
-		
-		int responseCode = con.getResponseCode();
-		if ( (responseCode >= 200) || (responseCode < 300 ) ) {
-			if ( response.startsWith("<") ) {
-				return parseXmlReponse(response);
+		catch ( RuntimeException e ) {
+			failure = e;
+			throw e;
+		}
+		finally {
+			if ( call != null ) {
+				intercepted(call, responseCode, counted, ok, failure);
 			}
-			else {
-				throw new ElasticEmailException(response);
+			if ( metrics != null ) {
+				metrics.record(ClientMetrics.Endpoint.STATUS, start, connected, written, firstByte, read, System.nanoTime(), responseCode, 0, counted == null ? 0
+						: counted.count, ok);
+			}
+			if ( event != null ) {
+				events.end(event, apiStatus, 0, responseCode, 0, null);
 			}
-		}
-		else {
-			throw new ElasticEmailException(response);
 		}
 	}
 
-	private MailerStatus parseXmlReponse(String response) {
-		XMLElement xml = new XMLElement();
+	/**
+	 * Opens a streamed GET of one of the account's CSV exports, such as its bounce list. The caller reads and closes it.
+	 */
+	InputStream openExport(final String path) throws IOException {
+		StringBuilder params = new StringBuilder();
+		params.append('?');
+		appendCredentials(params, props);
+		params.append("&format=csv");
+
+		final long start = System.nanoTime();
+		long connected = 0;
+		int responseCode = -1;
+		boolean ok = false;
+		final Object event = events == null ? null : events.begin(ApiEvents.Kind.EXPORT);
+		ApiCall call = null;
+		Exception failure = null;
 		try {
-			xml.parseString(response);
-			// System.out.println(xml);
-
-			MailerStatus status = new MailerStatus();
-			@SuppressWarnings("rawtypes")
-			Vector children = xml.getChildren();
-			for ( Object c : children ) {
-				XMLElement x = (XMLElement) c;
-				if ( "status".equals(x.getName()) ) {
-					DeliveryStatus ds = DeliveryStatus.valueOf(x.getContent());
-					status.setStatus(ds);
-				}
-				else {
-					int val = Integer.parseInt(x.getContent());
-					if ( "recipients".equals(x.getName()) ) {
-						status.setRecipients(val);
-					}
-					else if ( "delivered".equals(x.getName()) ) {
-						status.setDelivered(val);
-					}
-					else if ( "failed".equals(x.getName()) ) {
-						status.setFailed(val);
-					}
-					else if ( "pending".equals(x.getName()) ) {
-						status.setPending(val);
-					}
-					else if ( "opened".equals(x.getName()) ) {
-						status.setOpened(val);
-					}
-					else if ( "clicked".equals(x.getName()) ) {
-						status.setClicked(val);
-					}
-					else if ( "unsubscribed".equals(x.getName()) ) {
-						status.setUnsubscribed(val);
-					}
-					else if ( "abusereports".equals(x.getName()) ) {
-						status.setAbusereports(val);
+			URL resturl = new URL(apiBaseUrl + path + params.toString());
+			HttpURLConnection con = transport.open(ClientMetrics.Endpoint.EXPORT, resturl);
+			con.setRequestMethod("GET");
+			con.setRequestProperty("Accept-Charset", UTF8);
+			if ( interceptor != null ) {
+				call = new ApiCall(ClientMetrics.Endpoint.EXPORT, apiBaseUrl + path, con.getRequestProperties(), start);
+			}
+			con.connect();
+			connected = System.nanoTime();
+			if ( call != null ) {
+				call.requestBytes = 0;
+				interceptor.onRequest(call);
+			}
+			responseCode = con.getResponseCode();
+			logger.debug("export {} response code = {}", path, responseCode);
+			if ( responseCode != 200 ) {
+				throw new IOException("bad response code: " + responseCode);
+			}
+			InputStream export = con.getInputStream();
+			ok = true;
+			if ( metrics == null && event == null && call == null ) {
+				return export;
+			}
+			// the export is read by the caller, so the call is recorded when it closes the stream
+			final long connectedAt = connected;
+			final long firstByte = System.nanoTime();
+			final int code = responseCode;
+			final ApiCall exportCall = call;
+			return new ClientMetrics.CountingInputStream(export) {
+				private boolean recorded;
+
+				@Override
+				public void close() throws IOException {
+					super.close();
+					if ( !recorded ) {
+						recorded = true;
+						long end = System.nanoTime();
+						if ( metrics != null ) {
+							metrics.record(ClientMetrics.Endpoint.EXPORT, start, connectedAt, connectedAt, firstByte, end, end, code, 0, count, true);
+						}
+						if ( event != null ) {
+							events.end(event, apiBaseUrl + path, 0, code, 0, null);
+						}
+						if ( exportCall != null ) {
+							intercepted(exportCall, code, this, true, null);
+						}
 					}
 				}
+			};
+		}
+		catch ( IOException e ) {
+			failure = e;
+			throw e;
+		}
+		catch ( RuntimeException e ) {
+			failure = e;
+			throw e;
+		}
+		finally {
+			if ( call != null && !ok ) {
+				intercepted(call, responseCode, null, false, failure);
+			}
+			if ( metrics != null && !ok ) {
+				metrics.record(ClientMetrics.Endpoint.EXPORT, start, connected, connected, 0, 0, System.nanoTime(), responseCode, 0, 0, false);
 			}
+			if ( event != null && !ok ) {
+				events.end(event, apiBaseUrl + path, 0, responseCode, 0, null);
+			}
+		}
+	}
 
-			return status;
+	MailerStatus parseXmlReponse(String response) {
+		try {
+			byte[] bytes = response.getBytes(UTF8);
+			return parseStatus(new MailerStatusParser(bytes, 0, bytes.length));
 		}
-		catch ( XMLParseException e ) {
-			logger.error("could not parse response as xml: {}", response);
-			throw e;
+		catch ( IOException e ) {
+			// can't happen; the response is already in memory
+			throw new IllegalStateException(e);
 		}
 	}
 
-	private static String getStringFromBufferedReader(BufferedReader br) {
-		StringBuilder sb = new StringBuilder();
-		String line;
+	private MailerStatus parseStatus(MailerStatusParser parser) throws IOException {
+		Object event = events == null ? null : events.begin(ApiEvents.Kind.XML_PARSE);
 		try {
-			while ( (line = br.readLine()) != null ) {
-				sb.append(line);
+			return parser.parse();
+		}
+		catch ( XMLParseException e ) {
+			logger.error("could not parse response as xml: {}", parser.consumed());
+			throw e;
+		}
+		finally {
+			if ( event != null ) {
+				events.end(event, apiStatus, parser.consumedBytes(), -1, 0, null);
 			}
+		}
+	}
 
+	/**
+	 * Tells the interceptors how a call ended.
+	 */
+	private void intercepted(ApiCall call, int responseCode, ClientMetrics.CountingInputStream counted, boolean ok, Exception failure) {
+		call.responseCode = responseCode;
+		if ( counted != null ) {
+			call.responseBytes = counted.count;
 		}
-		catch ( IOException e ) {
-			e.printStackTrace();
+		if ( ok ) {
+			interceptor.onResponse(call);
 		}
-		finally {
-			if ( br != null ) {
-				try {
-					br.close();
+		else if ( failure != null ) {
+			interceptor.onError(call, failure);
+		}
+	}
+
+	/**
+	 * @return how many addresses are in a <code>;</code> separated list
+	 */
+	private static int countRecipients(CharSequence recipients) {
+		if ( recipients == null || recipients.length() == 0 ) {
+			return 0;
+		}
+		int n = 1;
+		for ( int i = 0; i < recipients.length(); i++ ) {
+			if ( recipients.charAt(i) == ';' ) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Removes suppressed addresses from a normalized, ';' separated recipient list, in place.
+	 * 
+	 * @return how many recipients are left
+	 */
+	private int removeSuppressed(StringBuilder recipients) {
+		int kept = 0;
+		int w = 0;
+		int length = recipients.length();
+		for ( int start = 0; start < length; ) {
+			int end = start;
+			while ( end < length && recipients.charAt(end) != ';' ) {
+				end++;
+			}
+			if ( suppressionFilter.isSuppressed(recipients, start, end) ) {
+				if ( rejectionHandler != null ) {
+					rejectionHandler.rejected(recipients.substring(start, end), RecipientRejectionHandler.Reason.SUPPRESSED);
+				}
+			}
+			else {
+				if ( kept++ > 0 ) {
+					recipients.setCharAt(w++, ';');
 				}
-				catch ( IOException e ) {
-					e.printStackTrace();
+				for ( int i = start; i < end; i++ ) {
+					recipients.setCharAt(w++, recipients.charAt(i));
 				}
 			}
+			start = end + 1;
+		}
+		recipients.setLength(w);
+		return kept;
+	}
+
+	/**
+	 * Writes the username and api_key fields, from the already encoded copy if the credentials are cached.
+	 */
+	static private void writeCredentials(FormEncoder form, ElasticEmailProperties props) throws IOException {
+		if ( props instanceof CachingElasticEmailProperties ) {
+			form.fields(((CachingElasticEmailProperties) props).getEncodedPrefix());
+		}
+		else {
+			form.field("username", props.getElasticEmailUserName());
+			form.field("api_key", props.getElasticEmailApiKey());
+		}
+	}
+
+	static private void appendCredentials(StringBuilder params, ElasticEmailProperties props) {
+		if ( props instanceof CachingElasticEmailProperties ) {
+			params.append(((CachingElasticEmailProperties) props).getEncodedQuery());
+		}
+		else {
+			params.append("username=").append(urlEncodeUTF8(props.getElasticEmailUserName()));
+			params.append("&api_key=").append(urlEncodeUTF8(props.getElasticEmailApiKey()));
 		}
-		return sb.toString();
 	}
 
 	/**
@@ -447,7 +1366,7 @@ public class ElasticEmailClient {
 	 *        The URL to be encoded
 	 * @return UTF-8 encoded URL
 	 */
-	static private String urlEncodeUTF8(String url) {
+	static String urlEncodeUTF8(String url) {
 		try {
 			return URLEncoder.encode(url, "UTF-8");
 		}
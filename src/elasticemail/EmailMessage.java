@@ -0,0 +1,132 @@
+package elasticemail;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Everything needed to send one email, so a send can be queued, scheduled or retried and handed to
+ * {@link ElasticEmailClient#send(EmailMessage)} later. The fields mean the same as the parameters of
+ * {@link ElasticEmailClient#sendEmail(String, String, String, String, String, String, String, List)}.
+ * </p>
+ *
+ * <p>
+ * The body is either plain strings (<code>bodyText</code>, <code>bodyHtml</code>) or templates
+ * (<code>bodyTextTemplate</code>, <code>bodyHtmlTemplate</code>) rendered with <code>mergeFields</code>. If a text
+ * template is set, the templates are used.
+ * </p>
+ */
+public class EmailMessage {
+
+	private String channel;
+	private String fromEmail;
+	private String fromName;
+	private String toEmails;
+	private String subject;
+	private String bodyText;
+	private String bodyHtml;
+	private MailTemplate bodyTextTemplate;
+	private MailTemplate bodyHtmlTemplate;
+	private Map<String, String> mergeFields;
+	private List<AttachmentId> attachmentIds;
+
+	public EmailMessage() {
+	}
+
+	public EmailMessage(String channel, String fromEmail, String fromName, String toEmails, String subject, String bodyText, String bodyHtml, List<AttachmentId> attachmentIds) {
+		this.channel = channel;
+		this.fromEmail = fromEmail;
+		this.fromName = fromName;
+		this.toEmails = toEmails;
+		this.subject = subject;
+		this.bodyText = bodyText;
+		this.bodyHtml = bodyHtml;
+		this.attachmentIds = attachmentIds;
+	}
+
+	/**
+	 * @return a copy of this message, sharing its body, merge fields and attachment list
+	 */
+	public EmailMessage copy() {
+		EmailMessage m = new EmailMessage(channel, fromEmail, fromName, toEmails, subject, bodyText, bodyHtml, attachmentIds);
+		m.bodyTextTemplate = bodyTextTemplate;
+		m.bodyHtmlTemplate = bodyHtmlTemplate;
+		m.mergeFields = mergeFields;
+		return m;
+	}
+
+	/**
+	 * @return true if the body is rendered from templates
+	 */
+	public boolean isTemplated() {
+		return bodyTextTemplate != null;
+	}
+
+	public String getChannel() {
+		return channel;
+	}
+	public void setChannel(String channel) {
+		this.channel = channel;
+	}
+	public String getFromEmail() {
+		return fromEmail;
+	}
+	public void setFromEmail(String fromEmail) {
+		this.fromEmail = fromEmail;
+	}
+	public String getFromName() {
+		return fromName;
+	}
+	public void setFromName(String fromName) {
+		this.fromName = fromName;
+	}
+	public String getToEmails() {
+		return toEmails;
+	}
+	public void setToEmails(String toEmails) {
+		this.toEmails = toEmails;
+	}
+	public String getSubject() {
+		return subject;
+	}
+	public void setSubject(String subject) {
+		this.subject = subject;
+	}
+	public String getBodyText() {
+		return bodyText;
+	}
+	public void setBodyText(String bodyText) {
+		this.bodyText = bodyText;
+	}
+	public String getBodyHtml() {
+		return bodyHtml;
+	}
+	public void setBodyHtml(String bodyHtml) {
+		this.bodyHtml = bodyHtml;
+	}
+	public MailTemplate getBodyTextTemplate() {
+		return bodyTextTemplate;
+	}
+	public void setBodyTextTemplate(MailTemplate bodyTextTemplate) {
+		this.bodyTextTemplate = bodyTextTemplate;
+	}
+	public MailTemplate getBodyHtmlTemplate() {
+		return bodyHtmlTemplate;
+	}
+	public void setBodyHtmlTemplate(MailTemplate bodyHtmlTemplate) {
+		this.bodyHtmlTemplate = bodyHtmlTemplate;
+	}
+	public Map<String, String> getMergeFields() {
+		return mergeFields;
+	}
+	public void setMergeFields(Map<String, String> mergeFields) {
+		this.mergeFields = mergeFields;
+	}
+	public List<AttachmentId> getAttachmentIds() {
+		return attachmentIds;
+	}
+	public void setAttachmentIds(List<AttachmentId> attachmentIds) {
+		this.attachmentIds = attachmentIds;
+	}
+
+}
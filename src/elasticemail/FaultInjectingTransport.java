@@ -0,0 +1,466 @@
+package elasticemail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * An {@link HttpTransport} that makes some calls fail or run slow, to test how the client, and whatever retries or
+ * circuit breakers surround it, hold up when the API misbehaves.
+ * </p>
+ *
+ * <p>
+ * It wraps another transport, and each endpoint gets its own {@link Faults}: added latency, and rates of error
+ * responses, connection resets, read timeouts and responses cut off part way. The request is always made; the fault
+ * shows when the client reads the response, the way it would from a real server. An error response comes back as that
+ * status, and the rest as the <code>IOException</code> <code>HttpURLConnection</code> throws for them.
+ * </p>
+ *
+ * <p>
+ * Which calls fail is decided by the seed and the order connections are opened, so a single threaded run fails the
+ * same calls every time.
+ * </p>
+ *
+ * <pre>
+ * FaultInjectingTransport faults = new FaultInjectingTransport(HttpTransport.DEFAULT, 42);
+ * faults.faults(ClientMetrics.Endpoint.SEND).latency(50, 400).errors(0.02, 503).resets(0.01);
+ * ElasticEmailClient client = new ElasticEmailClient.Builder(props).transport(faults).build();
+ * </pre>
+ */
+public class FaultInjectingTransport implements HttpTransport {
+
+	/**
+	 * The faults injected into one endpoint's calls. Changes take effect for connections opened after them.
+	 */
+	public static final class Faults {
+		private volatile double medianMillis;
+		private volatile double sigma;
+		private volatile double errorRate;
+		private volatile int errorCode = 503;
+		private volatile double resetRate;
+		private volatile double truncateRate;
+		private volatile double timeoutRate;
+		private volatile long timeoutMillis = 30000;
+
+		/**
+		 * Delay each response by a log-normally distributed time.
+		 *
+		 * @param medianMillis
+		 *        the typical delay
+		 * @param p99Millis
+		 *        the delay 1 response in 100 exceeds; the same as the median for a fixed delay
+		 * @return this
+		 */
+		public Faults latency(double medianMillis, double p99Millis) {
+			if ( medianMillis < 0 || p99Millis < medianMillis ) {
+				throw new IllegalArgumentException("bad latency median " + medianMillis + "ms, p99 " + p99Millis + "ms");
+			}
+			this.medianMillis = medianMillis;
+			this.sigma = medianMillis == 0 ? 0 : Math.log(p99Millis / medianMillis) / 2.3263;
+			return this;
+		}
+
+		/**
+		 * @param rate
+		 *        fraction of calls answered with <code>code</code>
+		 * @return this
+		 */
+		public Faults errors(double rate, int code) {
+			this.errorRate = rate;
+			this.errorCode = code;
+			return this;
+		}
+
+		/**
+		 * @param rate
+		 *        fraction of calls whose connection is reset
+		 * @return this
+		 */
+		public Faults resets(double rate) {
+			this.resetRate = rate;
+			return this;
+		}
+
+		/**
+		 * @param rate
+		 *        fraction of responses that end after half their body
+		 * @return this
+		 */
+		public Faults truncations(double rate) {
+			this.truncateRate = rate;
+			return this;
+		}
+
+		/**
+		 * @param rate
+		 *        fraction of calls that time out reading the response
+		 * @param millis
+		 *        how long they take to; the connection's read timeout is used instead if it has one
+		 * @return this
+		 */
+		public Faults timeouts(double rate, long millis) {
+			this.timeoutRate = rate;
+			this.timeoutMillis = millis;
+			return this;
+		}
+	}
+
+	enum Fault {
+		NONE, ERROR, RESET, TRUNCATE, TIMEOUT
+	}
+
+	private final HttpTransport delegate;
+	private final long seed;
+	private final AtomicLong opened = new AtomicLong();
+	private final Faults[] faults = new Faults[ClientMetrics.Endpoint.values().length];
+
+	/**
+	 * @param delegate
+	 *        opens the real connections, e.g. {@link HttpTransport#DEFAULT}
+	 * @param seed
+	 *        decides which calls fail
+	 */
+	public FaultInjectingTransport(HttpTransport delegate, long seed) {
+		this.delegate = delegate;
+		this.seed = seed;
+		for ( int i = 0; i < faults.length; i++ ) {
+			faults[i] = new Faults();
+		}
+	}
+
+	public Faults faults(ClientMetrics.Endpoint endpoint) {
+		return faults[endpoint.ordinal()];
+	}
+
+	@Override
+	public HttpURLConnection open(ClientMetrics.Endpoint endpoint, URL url) throws IOException {
+		HttpURLConnection con = delegate.open(endpoint, url);
+		Faults f = faults[endpoint.ordinal()];
+		Random random = new Random(seed ^ (opened.incrementAndGet() * 0x9E3779B97F4A7C15L));
+		long latency = f.medianMillis == 0 ? 0 : Math.round(f.medianMillis * Math.exp(f.sigma * random.nextGaussian()));
+		double u = random.nextDouble();
+		Fault fault = Fault.NONE;
+		if ( (u -= f.errorRate) < 0 ) {
+			fault = Fault.ERROR;
+		}
+		else if ( (u -= f.resetRate) < 0 ) {
+			fault = Fault.RESET;
+		}
+		else if ( (u -= f.truncateRate) < 0 ) {
+			fault = Fault.TRUNCATE;
+		}
+		else if ( (u -= f.timeoutRate) < 0 ) {
+			fault = Fault.TIMEOUT;
+		}
+		if ( fault == Fault.NONE && latency == 0 ) {
+			return con;
+		}
+		return new FaultyConnection(con, fault, latency, f.errorCode, f.timeoutMillis);
+	}
+
+	/**
+	 * Passes everything through to the real connection, and injects its fault when the response is first asked for.
+	 */
+	static final class FaultyConnection extends HttpURLConnection {
+		private final HttpURLConnection con;
+		private final Fault fault;
+		private final long latencyMillis;
+		private final int errorCode;
+		private final long timeoutMillis;
+		private boolean responded;
+
+		FaultyConnection(HttpURLConnection con, Fault fault, long latencyMillis, int errorCode, long timeoutMillis) {
+			super(con.getURL());
+			this.con = con;
+			this.fault = fault;
+			this.latencyMillis = latencyMillis;
+			this.errorCode = errorCode;
+			this.timeoutMillis = timeoutMillis;
+		}
+
+		private void respond() throws IOException {
+			if ( responded ) {
+				if ( fault == Fault.RESET || fault == Fault.TIMEOUT ) {
+					throw new SocketException("Connection reset (injected)");
+				}
+				return;
+			}
+			responded = true;
+			try {
+				if ( latencyMillis > 0 ) {
+					Thread.sleep(latencyMillis);
+				}
+				switch ( fault ) {
+				case ERROR:
+					con.disconnect();
+					break;
+				case RESET:
+					con.disconnect();
+					throw new SocketException("Connection reset (injected)");
+				case TIMEOUT:
+					Thread.sleep(con.getReadTimeout() > 0 ? con.getReadTimeout() : timeoutMillis);
+					con.disconnect();
+					throw new SocketTimeoutException("Read timed out (injected)");
+				default:
+					break;
+				}
+			}
+			catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				con.disconnect();
+				throw new SocketException("interrupted");
+			}
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			respond();
+			return fault == Fault.ERROR ? errorCode : con.getResponseCode();
+		}
+
+		@Override
+		public String getResponseMessage() throws IOException {
+			respond();
+			return fault == Fault.ERROR ? "Injected" : con.getResponseMessage();
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			respond();
+			if ( fault == Fault.ERROR ) {
+				throw new IOException("Server returned HTTP response code: " + errorCode + " for URL: " + url);
+			}
+			InputStream in = con.getInputStream();
+			if ( fault == Fault.TRUNCATE ) {
+				long length = con.getContentLengthLong();
+				if ( length < 0 ) {
+					// chunked, so read it all to find where half way is
+					byte[] body = readFully(in);
+					return new TruncatedInputStream(new ByteArrayInputStream(body), body.length / 2);
+				}
+				return new TruncatedInputStream(in, length / 2);
+			}
+			return in;
+		}
+
+		@Override
+		public InputStream getErrorStream() {
+			if ( fault == Fault.ERROR ) {
+				return new ByteArrayInputStream("Error: injected fault".getBytes());
+			}
+			return con.getErrorStream();
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			return con.getOutputStream();
+		}
+
+		@Override
+		public void connect() throws IOException {
+			con.connect();
+		}
+
+		@Override
+		public void disconnect() {
+			con.disconnect();
+		}
+
+		@Override
+		public boolean usingProxy() {
+			return con.usingProxy();
+		}
+
+		@Override
+		public void setDoOutput(boolean doOutput) {
+			con.setDoOutput(doOutput);
+		}
+
+		@Override
+		public boolean getDoOutput() {
+			return con.getDoOutput();
+		}
+
+		@Override
+		public void setDoInput(boolean doInput) {
+			con.setDoInput(doInput);
+		}
+
+		@Override
+		public boolean getDoInput() {
+			return con.getDoInput();
+		}
+
+		@Override
+		public void setRequestMethod(String method) throws java.net.ProtocolException {
+			con.setRequestMethod(method);
+		}
+
+		@Override
+		public String getRequestMethod() {
+			return con.getRequestMethod();
+		}
+
+		@Override
+		public void setChunkedStreamingMode(int chunklen) {
+			con.setChunkedStreamingMode(chunklen);
+		}
+
+		@Override
+		public void setFixedLengthStreamingMode(int contentLength) {
+			con.setFixedLengthStreamingMode(contentLength);
+		}
+
+		@Override
+		public void setFixedLengthStreamingMode(long contentLength) {
+			con.setFixedLengthStreamingMode(contentLength);
+		}
+
+		@Override
+		public void setRequestProperty(String key, String value) {
+			con.setRequestProperty(key, value);
+		}
+
+		@Override
+		public void addRequestProperty(String key, String value) {
+			con.addRequestProperty(key, value);
+		}
+
+		@Override
+		public String getRequestProperty(String key) {
+			return con.getRequestProperty(key);
+		}
+
+		@Override
+		public Map<String, List<String>> getRequestProperties() {
+			return con.getRequestProperties();
+		}
+
+		@Override
+		public void setConnectTimeout(int timeout) {
+			con.setConnectTimeout(timeout);
+		}
+
+		@Override
+		public int getConnectTimeout() {
+			return con.getConnectTimeout();
+		}
+
+		@Override
+		public void setReadTimeout(int timeout) {
+			con.setReadTimeout(timeout);
+		}
+
+		@Override
+		public int getReadTimeout() {
+			return con.getReadTimeout();
+		}
+
+		@Override
+		public void setUseCaches(boolean useCaches) {
+			con.setUseCaches(useCaches);
+		}
+
+		@Override
+		public void setInstanceFollowRedirects(boolean followRedirects) {
+			con.setInstanceFollowRedirects(followRedirects);
+		}
+
+		@Override
+		public String getHeaderField(String name) {
+			return fault == Fault.ERROR ? null : con.getHeaderField(name);
+		}
+
+		@Override
+		public String getHeaderField(int n) {
+			return fault == Fault.ERROR ? null : con.getHeaderField(n);
+		}
+
+		@Override
+		public String getHeaderFieldKey(int n) {
+			return fault == Fault.ERROR ? null : con.getHeaderFieldKey(n);
+		}
+
+		@Override
+		public Map<String, List<String>> getHeaderFields() {
+			return con.getHeaderFields();
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ( (n = in.read(buf)) >= 0 ) {
+				body.write(buf, 0, n);
+			}
+			return body.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Gives up to <code>limit</code> bytes, then fails as a connection closed mid body does.
+	 */
+	static final class TruncatedInputStream extends FilterInputStream {
+		private long remaining;
+
+		TruncatedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if ( remaining <= 0 ) {
+				throw new IOException("Premature EOF (injected)");
+			}
+			int b = in.read();
+			if ( b >= 0 ) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if ( len == 0 ) {
+				return 0;
+			}
+			if ( remaining <= 0 ) {
+				throw new IOException("Premature EOF (injected)");
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if ( n > 0 ) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			return super.skip(Math.min(n, remaining));
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), remaining);
+		}
+	}
+
+}
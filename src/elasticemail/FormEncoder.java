@@ -0,0 +1,226 @@
+package elasticemail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Writes an <code>application/x-www-form-urlencoded</code> request body straight into an {@link OutputStream}.
+ * </p>
+ *
+ * <p>
+ * Values are percent-encoded as UTF-8 on the fly into a fixed buffer, producing exactly the same bytes as
+ * {@link java.net.URLEncoder#encode(String, String)} would, but without building the whole body as a
+ * <code>String</code> first. Not thread safe; one instance per request.
+ * </p>
+ */
+final class FormEncoder {
+
+	static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+	private final OutputStream out;
+	private final byte[] buf;
+	private int pos;
+	private long flushed;
+	private boolean first = true;
+
+	FormEncoder(OutputStream out) {
+		this(out, DEFAULT_BUFFER_SIZE);
+	}
+
+	FormEncoder(OutputStream out, int bufferSize) {
+		this.out = out;
+		this.buf = new byte[Math.max(bufferSize, 16)];
+	}
+
+	/**
+	 * Writes a complete <code>name=value</code> pair, preceded by a '&amp;' unless it is the first field.
+	 */
+	FormEncoder field(String name, CharSequence value) throws IOException {
+		return name(name).value(value);
+	}
+
+	/**
+	 * Starts a field. The name is written as is, so it must already be safe for a form body. Follow with any number of
+	 * {@link #value(CharSequence)} calls.
+	 */
+	FormEncoder name(String name) throws IOException {
+		if ( !first ) {
+			put('&');
+		}
+		first = false;
+		for ( int i = 0; i < name.length(); i++ ) {
+			put(name.charAt(i));
+		}
+		put('=');
+		return this;
+	}
+
+	/**
+	 * Writes fields that are already url encoded, such as a cached <code>username=...&amp;api_key=...</code> prefix,
+	 * preceded by a '&amp;' unless they are the first.
+	 */
+	FormEncoder fields(byte[] encoded) throws IOException {
+		if ( !first ) {
+			put('&');
+		}
+		first = false;
+		return raw(encoded, 0, encoded.length);
+	}
+
+	/**
+	 * Appends the url encoded value to the current field.
+	 */
+	FormEncoder value(CharSequence value) throws IOException {
+		return value(value, 0, value.length());
+	}
+
+	FormEncoder value(CharSequence value, int start, int end) throws IOException {
+		for ( int i = start; i < end; i++ ) {
+			char c = value.charAt(i);
+			if ( isUnreserved(c) ) {
+				put(c);
+			}
+			else if ( c == ' ' ) {
+				put('+');
+			}
+			else if ( c < 0x80 ) {
+				escape(c);
+			}
+			else if ( c < 0x800 ) {
+				escape(0xc0 | (c >> 6));
+				escape(0x80 | (c & 0x3f));
+			}
+			else if ( Character.isHighSurrogate(c) && (i + 1 < end) && Character.isLowSurrogate(value.charAt(i + 1)) ) {
+				int cp = Character.toCodePoint(c, value.charAt(++i));
+				escape(0xf0 | (cp >> 18));
+				escape(0x80 | ((cp >> 12) & 0x3f));
+				escape(0x80 | ((cp >> 6) & 0x3f));
+				escape(0x80 | (cp & 0x3f));
+			}
+			else if ( Character.isSurrogate(c) ) {
+				escape('?'); // unpaired surrogate, same replacement String.getBytes() makes
+			}
+			else {
+				escape(0xe0 | (c >> 12));
+				escape(0x80 | ((c >> 6) & 0x3f));
+				escape(0x80 | (c & 0x3f));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Appends bytes that are already safe for a form body, e.g. a literal separator.
+	 */
+	FormEncoder raw(char c) throws IOException {
+		put(c);
+		return this;
+	}
+
+	/**
+	 * Appends bytes that are already url encoded, such as a pre-encoded template segment, with bulk array copies.
+	 */
+	FormEncoder raw(byte[] b, int off, int len) throws IOException {
+		if ( len > buf.length - pos ) {
+			drain();
+			if ( len >= buf.length ) {
+				out.write(b, off, len);
+				flushed += len;
+				return this;
+			}
+		}
+		System.arraycopy(b, off, buf, pos, len);
+		pos += len;
+		return this;
+	}
+
+	/**
+	 * Appends bytes that are already url encoded from a buffer, which may be off-heap, with bulk copies.
+	 */
+	FormEncoder raw(ByteBuffer src, int off, int len) throws IOException {
+		src.clear();
+		src.position(off);
+		src.limit(off + len);
+		while ( src.hasRemaining() ) {
+			if ( pos == buf.length ) {
+				drain();
+			}
+			int n = Math.min(src.remaining(), buf.length - pos);
+			src.get(buf, pos, n);
+			pos += n;
+		}
+		return this;
+	}
+
+	/**
+	 * @return total number of body bytes produced so far, including any still buffered.
+	 */
+	long size() {
+		return flushed + pos;
+	}
+
+	void flush() throws IOException {
+		if ( pos > 0 ) {
+			out.write(buf, 0, pos);
+			flushed += pos;
+			pos = 0;
+		}
+		out.flush();
+	}
+
+	static boolean isUnreserved(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '*' || c == '_';
+	}
+
+	/**
+	 * @return how many bytes a single byte of UTF-8 text takes once url encoded
+	 */
+	static int encodedLength(byte b) {
+		return (b == ' ' || (b >= 0 && isUnreserved((char) b))) ? 1 : 3;
+	}
+
+	/**
+	 * Url encodes a single byte of UTF-8 text. Encoding valid UTF-8 a byte at a time gives the same result as encoding
+	 * the decoded chars.
+	 */
+	static void encode(byte b, ByteBuffer dst) {
+		if ( b == ' ' ) {
+			dst.put((byte) '+');
+		}
+		else if ( b >= 0 && isUnreserved((char) b) ) {
+			dst.put(b);
+		}
+		else {
+			dst.put((byte) '%');
+			dst.put(HEX[(b >> 4) & 0x0f]);
+			dst.put(HEX[b & 0x0f]);
+		}
+	}
+
+	private void escape(int b) throws IOException {
+		if ( pos + 3 > buf.length ) {
+			drain();
+		}
+		buf[pos++] = '%';
+		buf[pos++] = HEX[(b >> 4) & 0x0f];
+		buf[pos++] = HEX[b & 0x0f];
+	}
+
+	private void put(char c) throws IOException {
+		if ( pos == buf.length ) {
+			drain();
+		}
+		buf[pos++] = (byte) c;
+	}
+
+	private void drain() throws IOException {
+		out.write(buf, 0, pos);
+		flushed += pos;
+		pos = 0;
+	}
+
+}
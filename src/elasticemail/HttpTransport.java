@@ -0,0 +1,37 @@
+package elasticemail;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * <p>
+ * Opens the HTTP connections {@link ElasticEmailClient} makes its calls over. The default opens them with
+ * {@link URL#openConnection()}. Install another with {@link ElasticEmailClient.Builder#transport(HttpTransport)} to
+ * wrap or replace the connection, such as the {@link FaultInjectingTransport} for resilience tests.
+ * </p>
+ *
+ * <p>
+ * The client sets the request up, writes the body and reads the response through the returned connection, so a
+ * transport that wraps one sees the whole exchange.
+ * </p>
+ */
+public interface HttpTransport {
+
+	HttpTransport DEFAULT = new HttpTransport() {
+		@Override
+		public HttpURLConnection open(ClientMetrics.Endpoint endpoint, URL url) throws IOException {
+			return (HttpURLConnection) url.openConnection();
+		}
+	};
+
+	/**
+	 * @param endpoint
+	 *        which API call the connection is for
+	 * @param url
+	 *        its URL, with the query string
+	 * @return an unconnected connection to <code>url</code>
+	 */
+	HttpURLConnection open(ClientMetrics.Endpoint endpoint, URL url) throws IOException;
+
+}
@@ -0,0 +1,52 @@
+package elasticemail;
+
+import java.util.List;
+
+/**
+ * Several {@link ApiInterceptor}s run as one. Built once by {@link ElasticEmailClient.Builder}; a client with a single
+ * interceptor calls it directly, and one with none has no chain at all.
+ */
+final class InterceptorChain implements ApiInterceptor {
+
+	private final ApiInterceptor[] interceptors;
+
+	private InterceptorChain(ApiInterceptor[] interceptors) {
+		this.interceptors = interceptors;
+	}
+
+	/**
+	 * @return null for no interceptors, the interceptor itself for one, otherwise a chain of them
+	 */
+	static ApiInterceptor of(List<ApiInterceptor> interceptors) {
+		switch ( interceptors.size() ) {
+		case 0:
+			return null;
+		case 1:
+			return interceptors.get(0);
+		default:
+			return new InterceptorChain(interceptors.toArray(new ApiInterceptor[interceptors.size()]));
+		}
+	}
+
+	@Override
+	public void onRequest(ApiCall call) {
+		for ( ApiInterceptor i : interceptors ) {
+			i.onRequest(call);
+		}
+	}
+
+	@Override
+	public void onResponse(ApiCall call) {
+		for ( int i = interceptors.length - 1; i >= 0; i-- ) {
+			interceptors[i].onResponse(call);
+		}
+	}
+
+	@Override
+	public void onError(ApiCall call, Exception e) {
+		for ( int i = interceptors.length - 1; i >= 0; i-- ) {
+			interceptors[i].onError(call, e);
+		}
+	}
+
+}
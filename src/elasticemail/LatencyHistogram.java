@@ -0,0 +1,137 @@
+package elasticemail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A fixed-size, lock-free histogram of durations in nanoseconds.
+ * </p>
+ *
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is split into {@value #SUB_BUCKETS} equal parts, so any
+ * recorded value is reported to within 1/{@value #SUB_BUCKETS} (12.5%) of itself, from a nanosecond up to centuries.
+ * Recording is a couple of shifts and an atomic increment, with no allocation, so it is cheap enough to call on every
+ * request from any number of threads.
+ * </p>
+ */
+public class LatencyHistogram {
+
+	static final int SUB_BUCKETS = 8;
+	private static final int SUB_BITS = 3;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos
+	 *        a duration; negative values count as zero
+	 */
+	public void record(long nanos) {
+		if ( nanos < 0 ) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(indexOf(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long m;
+		while ( nanos > (m = max.get()) && !max.compareAndSet(m, nanos) ) {
+			// lost a race with another larger value; look again
+		}
+	}
+
+	/**
+	 * @return how many values have been recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the largest value recorded, in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the values recorded, in nanoseconds
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * @param percentile
+	 *        between 0 and 100
+	 * @return the value, in nanoseconds, that <code>percentile</code> percent of the recorded values are at or below
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = count.get();
+		if ( n == 0 ) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(n * Math.min(percentile, 100) / 100));
+		long seen = 0;
+		for ( int i = 0; i < BUCKETS; i++ ) {
+			seen += counts.get(i);
+			if ( seen >= rank ) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets every recorded value. Values recorded while a reset is in progress may be partly lost.
+	 */
+	public void reset() {
+		for ( int i = 0; i < BUCKETS; i++ ) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @return a one-line summary in milliseconds
+	 */
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms", getCount(), getMean() / 1e6, toMillis(getValueAtPercentile(50)),
+				toMillis(getValueAtPercentile(99)), toMillis(getValueAtPercentile(99.9)), toMillis(getMax()));
+	}
+
+	private static double toMillis(long nanos) {
+		return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	static int indexOf(long value) {
+		if ( value < SUB_BUCKETS ) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value); // at least SUB_BITS
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the largest value that falls in bucket <code>index</code>
+	 */
+	static long upperBound(int index) {
+		if ( index < SUB_BUCKETS ) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = index % SUB_BUCKETS;
+		long low = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		return low + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+}
@@ -0,0 +1,271 @@
+package elasticemail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A mail-merge template for an email body, parsed once and rendered for many recipients.
+ * </p>
+ *
+ * <p>
+ * Merge fields are written as <code>{name}</code>, where the name is made of letters, digits, '_' or '-'. Anything
+ * else in braces (css rules, for instance) is left alone as literal text. The template is split into literal and
+ * merge field segments when it is compiled, and rendering writes each segment directly into the outbound request body,
+ * so no personalized copy of the body is ever built as a <code>String</code>. The literal segments are kept already
+ * url encoded, so only the merge field values are encoded per recipient.
+ * </p>
+ *
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ * </p>
+ */
+public final class MailTemplate {
+
+	/*
+	 * The literal text of the template, already url encoded as UTF-8. Literal segment i is
+	 * encoded[offsets[i] .. offsets[i + 1]), and fields[i] goes between segments i and i + 1. Templates loaded by a
+	 * TemplateRepository keep this in a mapped file, off the heap. Never moved; renders work on duplicates.
+	 */
+	private final ByteBuffer encoded;
+	private final int[] offsets;
+	private final String[] fields;
+
+	/*
+	 * "{name}" for each field, url encoded, used when the fields are passed through for Elastic Email to merge.
+	 */
+	private final byte[][] encodedPlaceholders;
+
+	private MailTemplate(ByteBuffer encoded, int[] offsets, String[] fields) {
+		this.encoded = encoded;
+		this.offsets = offsets;
+		this.fields = fields;
+		this.encodedPlaceholders = new byte[fields.length][];
+		for ( int i = 0; i < fields.length; i++ ) {
+			encodedPlaceholders[i] = encode("{" + fields[i] + "}");
+		}
+	}
+
+	/**
+	 * <p>
+	 * Parse a template.
+	 * </p>
+	 *
+	 * <p>
+	 * The literal text between merge fields is url encoded once here, so rendering only has to encode the merge field
+	 * values and copy the rest.
+	 * </p>
+	 *
+	 * @param source
+	 *        The template text, containing <code>{name}</code> merge fields.
+	 * @return the compiled template
+	 */
+	public static MailTemplate compile(String source) {
+		ByteArrayOutputStream image = new ByteArrayOutputStream(source.length() + (source.length() >> 1));
+		FormEncoder form = new FormEncoder(image);
+		List<Integer> offsets = new ArrayList<Integer>();
+		List<String> fields = new ArrayList<String>();
+		try {
+			int literalStart = 0;
+			int i = 0;
+			offsets.add(0);
+			while ( (i = source.indexOf('{', i)) >= 0 ) {
+				int end = fieldEnd(source, i);
+				if ( end < 0 ) {
+					i++;
+					continue;
+				}
+				form.value(source, literalStart, i);
+				offsets.add(Integer.valueOf((int) form.size()));
+				fields.add(source.substring(i + 1, end));
+				i = literalStart = end + 1;
+			}
+			form.value(source, literalStart, source.length());
+			offsets.add(Integer.valueOf((int) form.size()));
+			form.flush();
+		}
+		catch ( IOException e ) {
+			throw new IllegalStateException(e); // can't happen writing to memory
+		}
+		int[] offs = new int[offsets.size()];
+		for ( int i = 0; i < offs.length; i++ ) {
+			offs[i] = offsets.get(i).intValue();
+		}
+		return new MailTemplate(ByteBuffer.wrap(image.toByteArray()), offs, fields.toArray(new String[fields.size()]));
+	}
+
+	/**
+	 * Where the encoded image of a template compiled from bytes is kept.
+	 */
+	interface ImageStore {
+		/**
+		 * @return a previously stored image of this length, or null if there is none
+		 */
+		ByteBuffer find(int length) throws IOException;
+
+		/**
+		 * @return a writable buffer of exactly this length for the new image, positioned at 0
+		 */
+		ByteBuffer create(int length) throws IOException;
+
+		/**
+		 * Called once the buffer from {@link #create(int)} has been filled.
+		 * 
+		 * @return the image to render from
+		 */
+		ByteBuffer commit(ByteBuffer image) throws IOException;
+	}
+
+	/**
+	 * Parse a UTF-8 template held in a buffer, such as a mapped file, without decoding it to a <code>String</code>. Merge
+	 * field names are ascii, so they can be found a byte at a time, and valid UTF-8 url encodes the same a byte at a time
+	 * as it does a char at a time.
+	 * 
+	 * @param source
+	 *        the template bytes between its position and limit. Not modified.
+	 * @param images
+	 *        supplies the buffer the encoded image is kept in
+	 */
+	static MailTemplate compile(ByteBuffer source, ImageStore images) throws IOException {
+		List<String> fields = new ArrayList<String>();
+		List<Integer> bounds = new ArrayList<Integer>(); // start, end of each literal segment in source
+		int literalStart = source.position();
+		int limit = source.limit();
+		int i = literalStart;
+		while ( i < limit ) {
+			if ( source.get(i) != '{' ) {
+				i++;
+				continue;
+			}
+			int end = fieldEnd(source, i);
+			if ( end < 0 ) {
+				i++;
+				continue;
+			}
+			bounds.add(Integer.valueOf(literalStart));
+			bounds.add(Integer.valueOf(i));
+			char[] name = new char[end - i - 1];
+			for ( int k = 0; k < name.length; k++ ) {
+				name[k] = (char) source.get(i + 1 + k);
+			}
+			fields.add(new String(name));
+			i = literalStart = end + 1;
+		}
+		bounds.add(Integer.valueOf(literalStart));
+		bounds.add(Integer.valueOf(limit));
+
+		int[] offsets = new int[fields.size() + 2];
+		for ( int seg = 0; seg <= fields.size(); seg++ ) {
+			int length = 0;
+			for ( int b = bounds.get(2 * seg).intValue(), e = bounds.get(2 * seg + 1).intValue(); b < e; b++ ) {
+				length += FormEncoder.encodedLength(source.get(b));
+			}
+			offsets[seg + 1] = offsets[seg] + length;
+		}
+
+		int length = offsets[fields.size() + 1];
+		ByteBuffer image = images.find(length);
+		if ( image == null ) {
+			ByteBuffer out = images.create(length);
+			for ( int seg = 0; seg <= fields.size(); seg++ ) {
+				for ( int b = bounds.get(2 * seg).intValue(), e = bounds.get(2 * seg + 1).intValue(); b < e; b++ ) {
+					FormEncoder.encode(source.get(b), out);
+				}
+			}
+			image = images.commit(out);
+		}
+		return new MailTemplate(image, offsets, fields.toArray(new String[fields.size()]));
+	}
+
+	/**
+	 * @return the merge field names in the order they appear in the template. A name appears once per use.
+	 */
+	public String[] getFieldNames() {
+		return fields.clone();
+	}
+
+	/**
+	 * <p>
+	 * Writes the url encoded body for one recipient. Only the merge field values are encoded; the literal text is
+	 * copied in already encoded.
+	 * </p>
+	 *
+	 * @param form
+	 *        the request body being written
+	 * @param values
+	 *        merge field values. A field with no value renders as empty text. Pass null to write the merge fields
+	 *        back out as <code>{name}</code>, for Elastic Email to substitute itself.
+	 */
+	void writeTo(FormEncoder form, Map<String, String> values) throws IOException {
+		ByteBuffer image = encoded.duplicate();
+		for ( int i = 0; i < fields.length; i++ ) {
+			form.raw(image, offsets[i], offsets[i + 1] - offsets[i]);
+			if ( values == null ) {
+				form.raw(encodedPlaceholders[i], 0, encodedPlaceholders[i].length);
+			}
+			else {
+				String value = values.get(fields[i]);
+				if ( value != null ) {
+					form.value(value);
+				}
+			}
+		}
+		form.raw(image, offsets[fields.length], offsets[fields.length + 1] - offsets[fields.length]);
+	}
+
+	private static byte[] encode(String s) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() * 3);
+		try {
+			FormEncoder form = new FormEncoder(bytes, 64);
+			form.value(s);
+			form.flush();
+		}
+		catch ( IOException e ) {
+			throw new IllegalStateException(e); // can't happen writing to memory
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the index of the closing brace of a merge field that opens at <code>open</code>, or -1 if the brace does
+	 * not start a merge field.
+	 */
+	private static int fieldEnd(String source, int open) {
+		int i = open + 1;
+		while ( i < source.length() ) {
+			char c = source.charAt(i);
+			if ( c == '}' ) {
+				return (i > open + 1) ? i : -1;
+			}
+			if ( !isFieldChar(c) ) {
+				return -1;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	private static int fieldEnd(ByteBuffer source, int open) {
+		int i = open + 1;
+		while ( i < source.limit() ) {
+			byte b = source.get(i);
+			if ( b == '}' ) {
+				return (i > open + 1) ? i : -1;
+			}
+			if ( b < 0 || !isFieldChar((char) b) ) {
+				return -1;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	private static boolean isFieldChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+	}
+
+}
@@ -0,0 +1,528 @@
+package elasticemail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import nanoxml.XMLParseException;
+
+/**
+ * <p>
+ * Reads a status response straight from the response bytes into a {@link MailerStatus}, without building an XML tree
+ * or any <code>String</code>s.
+ * </p>
+ *
+ * <p>
+ * The children of the root element are matched against the nine fields of {@link MailerStatus} by their length and
+ * first byte, then checked byte for byte; numbers are accumulated digit by digit and the status is matched against the
+ * {@link DeliveryStatus} names. Unknown elements, attributes, the XML declaration and comments are skipped, but a
+ * response with no <code>&lt;status&gt;</code> isn't a status and fails. The only allocations are the parser, its buffer
+ * and the <code>MailerStatus</code>.
+ * </p>
+ *
+ * <p>
+ * Bytes are parsed as they arrive, and are kept until the parse ends, so a response that isn't a status can still be
+ * reported whole. Not thread safe; one instance per response.
+ * </p>
+ */
+final class MailerStatusParser {
+
+	static final int DEFAULT_BUFFER_SIZE = 512;
+
+	private static final int STATUS = 0;
+	private static final int RECIPIENTS = 1;
+	private static final int DELIVERED = 2;
+	private static final int FAILED = 3;
+	private static final int PENDING = 4;
+	private static final int OPENED = 5;
+	private static final int CLICKED = 6;
+	private static final int UNSUBSCRIBED = 7;
+	private static final int ABUSEREPORTS = 8;
+
+	private static final byte[][] NAMES = { ascii("status"), ascii("recipients"), ascii("delivered"), ascii("failed"), ascii("pending"),
+			ascii("opened"), ascii("clicked"), ascii("unsubscribed"), ascii("abusereports") };
+
+	private static final DeliveryStatus[] DELIVERY_STATUSES = DeliveryStatus.values();
+
+	private final InputStream in;
+	private final int start;
+	private byte[] buf;
+	private int pos;
+	private int limit;
+	private boolean eof;
+
+	/**
+	 * Parses a response as it is read from <code>in</code>. The stream is read to its end but not closed.
+	 */
+	MailerStatusParser(InputStream in) {
+		this.in = in;
+		this.start = 0;
+		this.buf = new byte[DEFAULT_BUFFER_SIZE];
+	}
+
+	/**
+	 * Parses a response already in memory.
+	 */
+	MailerStatusParser(byte[] b, int off, int len) {
+		this.in = null;
+		this.start = off;
+		this.buf = b;
+		this.pos = off;
+		this.limit = off + len;
+	}
+
+	/**
+	 * @return the first byte of the response, without consuming it, or -1 if it is empty
+	 */
+	int peek() throws IOException {
+		if ( pos == limit && !fill() ) {
+			return -1;
+		}
+		return buf[pos] & 0xff;
+	}
+
+	/**
+	 * Parses the response, then reads past whatever follows the root element, so the connection can be reused.
+	 *
+	 * @throws XMLParseException
+	 *         if the response isn't well formed as far as this parser looks, or has no <code>&lt;status&gt;</code>
+	 * @throws NumberFormatException
+	 *         if a count isn't an integer
+	 * @throws IllegalArgumentException
+	 *         if the status isn't a {@link DeliveryStatus}
+	 */
+	MailerStatus parse() throws IOException {
+		MailerStatus status = new MailerStatus();
+		int rootStart = -1;
+		int rootLength = 0;
+		int depth = 0;
+		while ( true ) {
+			int c = next();
+			if ( c < 0 ) {
+				throw new XMLParseException(null, "Unexpected end of data reached");
+			}
+			if ( c != '<' ) {
+				if ( depth == 0 && !isWhitespace(c) ) {
+					throw new XMLParseException(null, "Expected: <");
+				}
+				continue;
+			}
+			c = next();
+			if ( c == '?' ) {
+				skipPast('?', '>');
+			}
+			else if ( c == '!' ) {
+				skipDeclaration();
+			}
+			else if ( c == '/' ) {
+				int nameStart = pos;
+				int nameLength = scanName();
+				skipPast('>', -1);
+				if ( --depth == 0 ) {
+					if ( !same(rootStart, rootLength, nameStart, nameLength) ) {
+						String root = new String(buf, rootStart, rootLength, "UTF-8");
+						throw new XMLParseException(root, "Expected: </" + root + ">");
+					}
+					if ( status.getStatus() == null ) {
+						throw new XMLParseException(new String(buf, rootStart, rootLength, "UTF-8"), "Expected: <status>");
+					}
+					skipRest();
+					return status;
+				}
+			}
+			else {
+				pos--;
+				int nameStart = pos;
+				int nameLength = scanName();
+				if ( nameLength == 0 ) {
+					throw new XMLParseException(null, "Expected: name of an element");
+				}
+				boolean empty = skipAttributes();
+				if ( depth == 0 ) {
+					if ( empty ) {
+						throw new XMLParseException(new String(buf, nameStart, nameLength, "UTF-8"), "Expected: <status>");
+					}
+					rootStart = nameStart;
+					rootLength = nameLength;
+					depth = 1;
+					continue;
+				}
+				int field = depth == 1 && !empty ? field(nameStart, nameLength) : -1;
+				if ( field == STATUS ) {
+					status.setStatus(scanStatus());
+					closeField(field);
+				}
+				else if ( field >= 0 ) {
+					set(status, field, scanInt());
+					closeField(field);
+				}
+				else if ( !empty ) {
+					depth++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the response, read to its end, with line breaks left out as {@link java.io.BufferedReader#readLine()}
+	 *         would, decoded with the platform's charset as the client always has for error messages
+	 */
+	String text() throws IOException {
+		while ( fill() ) {
+			pos = limit;
+		}
+		int w = start;
+		for ( int i = start; i < limit; i++ ) {
+			if ( buf[i] != '\r' && buf[i] != '\n' ) {
+				buf[w++] = buf[i];
+			}
+		}
+		limit = pos = w;
+		return new String(buf, start, w - start);
+	}
+
+	/**
+	 * @return what has been read of the response so far, for a log message
+	 */
+	String consumed() {
+		try {
+			return new String(buf, start, limit - start, "UTF-8");
+		}
+		catch ( java.io.UnsupportedEncodingException e ) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return how many bytes of the response have been read so far
+	 */
+	int consumedBytes() {
+		return limit - start;
+	}
+
+	/**
+	 * @return the index into {@link #NAMES} of the field a child element holds, or -1 if it isn't one
+	 */
+	private int field(int off, int len) {
+		int candidate;
+		switch ( len ) {
+		case 6:
+			candidate = buf[off] == 's' ? STATUS : buf[off] == 'f' ? FAILED : buf[off] == 'o' ? OPENED : -1;
+			break;
+		case 7:
+			candidate = buf[off] == 'p' ? PENDING : buf[off] == 'c' ? CLICKED : -1;
+			break;
+		case 9:
+			candidate = DELIVERED;
+			break;
+		case 10:
+			candidate = RECIPIENTS;
+			break;
+		case 12:
+			candidate = buf[off] == 'u' ? UNSUBSCRIBED : buf[off] == 'a' ? ABUSEREPORTS : -1;
+			break;
+		default:
+			return -1;
+		}
+		if ( candidate < 0 ) {
+			return -1;
+		}
+		byte[] name = NAMES[candidate];
+		for ( int i = 1; i < len; i++ ) {
+			if ( buf[off + i] != name[i] ) {
+				return -1;
+			}
+		}
+		return candidate;
+	}
+
+	private static void set(MailerStatus status, int field, int value) {
+		switch ( field ) {
+		case RECIPIENTS:
+			status.setRecipients(value);
+			break;
+		case DELIVERED:
+			status.setDelivered(value);
+			break;
+		case FAILED:
+			status.setFailed(value);
+			break;
+		case PENDING:
+			status.setPending(value);
+			break;
+		case OPENED:
+			status.setOpened(value);
+			break;
+		case CLICKED:
+			status.setClicked(value);
+			break;
+		case UNSUBSCRIBED:
+			status.setUnsubscribed(value);
+			break;
+		case ABUSEREPORTS:
+			status.setAbusereports(value);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Reads a field's text as an <code>int</code>, as {@link Integer#parseInt(String)} would, allowing whitespace around
+	 * it. Leaves the '&lt;' that ends it unread.
+	 */
+	private int scanInt() throws IOException {
+		int c = skipWhitespace();
+		int textStart = pos - 1;
+		boolean negative = c == '-';
+		if ( negative || c == '+' ) {
+			c = next();
+		}
+		if ( c < '0' || c > '9' ) {
+			throw numberFormat(textStart);
+		}
+		// accumulate negatively, as Integer.parseInt does, so MIN_VALUE fits
+		int limitValue = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+		int value = 0;
+		while ( c >= '0' && c <= '9' ) {
+			int digit = c - '0';
+			if ( value < limitValue / 10 || value * 10 < limitValue + digit ) {
+				throw numberFormat(textStart);
+			}
+			value = value * 10 - digit;
+			c = next();
+		}
+		while ( isWhitespace(c) ) {
+			c = next();
+		}
+		if ( c != '<' ) {
+			throw numberFormat(textStart);
+		}
+		pos--;
+		return negative ? value : -value;
+	}
+
+	/**
+	 * Reads a field's text as a {@link DeliveryStatus}. Leaves the '&lt;' that ends it unread.
+	 */
+	private DeliveryStatus scanStatus() throws IOException {
+		int c = skipWhitespace();
+		int textStart = pos - 1;
+		while ( c >= 0 && c != '<' && !isWhitespace(c) ) {
+			c = next();
+		}
+		int textLength = pos - 1 - textStart;
+		while ( isWhitespace(c) ) {
+			c = next();
+		}
+		if ( c != '<' ) {
+			throw new XMLParseException("status", "Expected: </status>");
+		}
+		pos--;
+		for ( DeliveryStatus ds : DELIVERY_STATUSES ) {
+			String name = ds.name();
+			if ( name.length() == textLength ) {
+				int i = 0;
+				while ( i < textLength && buf[textStart + i] == name.charAt(i) ) {
+					i++;
+				}
+				if ( i == textLength ) {
+					return ds;
+				}
+			}
+		}
+		return DeliveryStatus.valueOf(new String(buf, textStart, textLength, "UTF-8"));
+	}
+
+	/**
+	 * Reads the end tag of a field.
+	 */
+	private void closeField(int field) throws IOException {
+		int c = next();
+		if ( c != '<' || next() != '/' || field(pos, scanName()) != field ) {
+			String name = new String(NAMES[field], "US-ASCII");
+			throw new XMLParseException(name, "Expected: </" + name + ">");
+		}
+		skipPast('>', -1);
+	}
+
+	/**
+	 * Reads a name, leaving the byte after it unread.
+	 *
+	 * @return its length
+	 */
+	private int scanName() throws IOException {
+		int nameStart = pos;
+		int c = next();
+		while ( c >= 0 && c != '>' && c != '/' && c != '=' && !isWhitespace(c) ) {
+			c = next();
+		}
+		if ( c >= 0 ) {
+			pos--;
+		}
+		return pos - nameStart;
+	}
+
+	/**
+	 * Skips to the end of a start tag.
+	 *
+	 * @return whether it was an empty element tag, like <code>&lt;failed/&gt;</code>
+	 */
+	private boolean skipAttributes() throws IOException {
+		int quote = -1;
+		int last = -1;
+		int c;
+		while ( (c = next()) >= 0 ) {
+			if ( quote >= 0 ) {
+				if ( c == quote ) {
+					quote = -1;
+				}
+			}
+			else if ( c == '"' || c == '\'' ) {
+				quote = c;
+			}
+			else if ( c == '>' ) {
+				return last == '/';
+			}
+			last = c;
+		}
+		throw new XMLParseException(null, "Unexpected end of data reached");
+	}
+
+	/**
+	 * Skips a comment, CDATA section or DOCTYPE, the "&lt;!" of which has been read.
+	 */
+	private void skipDeclaration() throws IOException {
+		int c = next();
+		if ( c == '-' && next() == '-' ) {
+			// comment: up to "-->"
+			int dashes = 0;
+			while ( (c = next()) >= 0 ) {
+				if ( c == '>' && dashes >= 2 ) {
+					return;
+				}
+				dashes = c == '-' ? dashes + 1 : 0;
+			}
+			throw new XMLParseException(null, "Unexpected end of data reached");
+		}
+		if ( c == '[' ) {
+			// CDATA: up to "]]>"
+			int brackets = 0;
+			while ( (c = next()) >= 0 ) {
+				if ( c == '>' && brackets >= 2 ) {
+					return;
+				}
+				brackets = c == ']' ? brackets + 1 : 0;
+			}
+			throw new XMLParseException(null, "Unexpected end of data reached");
+		}
+		skipPast('>', -1);
+	}
+
+	/**
+	 * Skips past <code>a</code>, or past <code>a</code> followed by <code>b</code> unless <code>b</code> is -1.
+	 */
+	private void skipPast(int a, int b) throws IOException {
+		int last = -1;
+		int c;
+		while ( (c = next()) >= 0 ) {
+			if ( b < 0 ? c == a : last == a && c == b ) {
+				return;
+			}
+			last = c;
+		}
+		throw new XMLParseException(null, "Unexpected end of data reached");
+	}
+
+	/**
+	 * @return the first byte that isn't whitespace, consumed
+	 */
+	private int skipWhitespace() throws IOException {
+		int c;
+		do {
+			c = next();
+		}
+		while ( isWhitespace(c) );
+		return c;
+	}
+
+	/**
+	 * Reads whatever follows the root element, without keeping it.
+	 */
+	private void skipRest() throws IOException {
+		pos = limit;
+		if ( in == null ) {
+			return;
+		}
+		// usually just a line break; read into the spare end of the buffer, or a byte at a time if there is none
+		while ( !eof ) {
+			int n = limit < buf.length ? in.read(buf, limit, buf.length - limit) : in.read();
+			eof = n < 0;
+		}
+	}
+
+	private NumberFormatException numberFormat(int textStart) throws IOException {
+		int end = textStart;
+		while ( end < limit && buf[end] != '<' ) {
+			end++;
+		}
+		return new NumberFormatException("For input string: \"" + new String(buf, textStart, end - textStart, "UTF-8").trim() + "\"");
+	}
+
+	private int next() throws IOException {
+		if ( pos == limit && !fill() ) {
+			return -1;
+		}
+		return buf[pos++] & 0xff;
+	}
+
+	/**
+	 * Reads more of the response onto the end of the buffer, growing it if it is full.
+	 *
+	 * @return false at the end of the response
+	 */
+	private boolean fill() throws IOException {
+		if ( in == null || eof ) {
+			return false;
+		}
+		if ( limit == buf.length ) {
+			buf = Arrays.copyOf(buf, buf.length * 2);
+		}
+		int n;
+		do {
+			n = in.read(buf, limit, buf.length - limit);
+		}
+		while ( n == 0 );
+		if ( n < 0 ) {
+			eof = true;
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+
+	private boolean same(int a, int aLength, int b, int bLength) {
+		if ( aLength != bLength ) {
+			return false;
+		}
+		for ( int i = 0; i < aLength; i++ ) {
+			if ( buf[a + i] != buf[b + i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	private static byte[] ascii(String s) {
+		byte[] b = new byte[s.length()];
+		for ( int i = 0; i < b.length; i++ ) {
+			b[i] = (byte) s.charAt(i);
+		}
+		return b;
+	}
+
+}
@@ -0,0 +1,85 @@
+package elasticemail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Reads a mail-merge CSV file a row at a time, so its recipients can be checked before it is uploaded.
+ * </p>
+ *
+ * <p>
+ * Reads what {@link MergeCsvWriter} writes, and CSV in general: fields may be quoted, a quoted field may hold commas,
+ * doubled quotes and line breaks, and rows may end in CRLF or LF. Blank lines and a leading byte order mark are
+ * skipped. Not thread safe.
+ * </p>
+ */
+final class MergeCsvReader {
+
+	private final Reader in;
+	private final StringBuilder field = new StringBuilder();
+	private int next;
+
+	/**
+	 * @param in
+	 *        the CSV text; buffer it, as it is read a char at a time
+	 */
+	MergeCsvReader(Reader in) throws IOException {
+		this.in = in;
+		this.next = in.read();
+		if ( next == '\uFEFF' ) {
+			next = in.read();
+		}
+	}
+
+	/**
+	 * @return the next row's fields, or null at the end of the file
+	 */
+	String[] readRow() throws IOException {
+		while ( next == '\r' || next == '\n' ) {
+			next = in.read(); // blank line
+		}
+		if ( next < 0 ) {
+			return null;
+		}
+		List<String> fields = new ArrayList<String>();
+		while ( true ) {
+			field.setLength(0);
+			if ( next == '"' ) {
+				next = in.read();
+				while ( true ) {
+					if ( next < 0 ) {
+						throw new IOException("merge file ends inside a quoted field");
+					}
+					if ( next == '"' ) {
+						next = in.read();
+						if ( next != '"' ) {
+							break;
+						}
+					}
+					field.append((char) next);
+					next = in.read();
+				}
+			}
+			while ( next >= 0 && next != ',' && next != '\r' && next != '\n' ) {
+				field.append((char) next);
+				next = in.read();
+			}
+			fields.add(field.toString());
+			if ( next == ',' ) {
+				next = in.read();
+				continue;
+			}
+			if ( next == '\r' ) {
+				next = in.read();
+			}
+			if ( next == '\n' ) {
+				next = in.read();
+			}
+			return fields.toArray(new String[fields.size()]);
+		}
+	}
+
+}
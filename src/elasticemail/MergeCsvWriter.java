@@ -0,0 +1,138 @@
+package elasticemail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * Streams a mail-merge CSV file, one recipient per row, as UTF-8 through a fixed size buffer.
+ * </p>
+ *
+ * <p>
+ * Fields are quoted only when they need to be (they hold a comma, quote, line break, or leading or trailing space),
+ * and rows end in CRLF. Chars are encoded straight into the buffer, so writing a row allocates nothing. Not thread
+ * safe.
+ * </p>
+ */
+final class MergeCsvWriter {
+
+	static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final OutputStream out;
+	private final byte[] buf;
+	private int pos;
+	private int columns = -1;
+	private long rows;
+
+	MergeCsvWriter(OutputStream out) {
+		this(out, DEFAULT_BUFFER_SIZE);
+	}
+
+	MergeCsvWriter(OutputStream out, int bufferSize) {
+		this.out = out;
+		this.buf = new byte[Math.max(bufferSize, 16)];
+	}
+
+	/**
+	 * Writes one row. The first row written, normally the header, fixes the number of columns every other row must have.
+	 */
+	void writeRow(String[] fields) throws IOException {
+		if ( columns < 0 ) {
+			columns = fields.length;
+		}
+		else if ( fields.length != columns ) {
+			throw new IllegalArgumentException("merge row " + rows + " has " + fields.length + " fields, expected " + columns);
+		}
+		for ( int i = 0; i < fields.length; i++ ) {
+			if ( i > 0 ) {
+				put(',');
+			}
+			writeField(fields[i] == null ? "" : fields[i]);
+		}
+		put('\r');
+		put('\n');
+		rows++;
+	}
+
+	/**
+	 * @return how many rows have been written, including the header
+	 */
+	long getRowCount() {
+		return rows;
+	}
+
+	void flush() throws IOException {
+		if ( pos > 0 ) {
+			out.write(buf, 0, pos);
+			pos = 0;
+		}
+		out.flush();
+	}
+
+	private void writeField(String field) throws IOException {
+		boolean quote = needsQuotes(field);
+		if ( quote ) {
+			put('"');
+		}
+		for ( int i = 0; i < field.length(); i++ ) {
+			char c = field.charAt(i);
+			if ( c < 0x80 ) {
+				if ( c == '"' ) {
+					put('"');
+				}
+				put(c);
+			}
+			else if ( c < 0x800 ) {
+				putByte(0xc0 | (c >> 6));
+				putByte(0x80 | (c & 0x3f));
+			}
+			else if ( Character.isHighSurrogate(c) && (i + 1 < field.length()) && Character.isLowSurrogate(field.charAt(i + 1)) ) {
+				int cp = Character.toCodePoint(c, field.charAt(++i));
+				putByte(0xf0 | (cp >> 18));
+				putByte(0x80 | ((cp >> 12) & 0x3f));
+				putByte(0x80 | ((cp >> 6) & 0x3f));
+				putByte(0x80 | (cp & 0x3f));
+			}
+			else if ( Character.isSurrogate(c) ) {
+				put('?');
+			}
+			else {
+				putByte(0xe0 | (c >> 12));
+				putByte(0x80 | ((c >> 6) & 0x3f));
+				putByte(0x80 | (c & 0x3f));
+			}
+		}
+		if ( quote ) {
+			put('"');
+		}
+	}
+
+	private static boolean needsQuotes(String field) {
+		if ( field.length() == 0 ) {
+			return false;
+		}
+		if ( field.charAt(0) == ' ' || field.charAt(field.length() - 1) == ' ' ) {
+			return true;
+		}
+		for ( int i = 0; i < field.length(); i++ ) {
+			char c = field.charAt(i);
+			if ( c == ',' || c == '"' || c == '\r' || c == '\n' ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void put(char c) throws IOException {
+		putByte(c);
+	}
+
+	private void putByte(int b) throws IOException {
+		if ( pos == buf.length ) {
+			out.write(buf, 0, pos);
+			pos = 0;
+		}
+		buf[pos++] = (byte) b;
+	}
+
+}
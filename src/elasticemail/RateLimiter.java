@@ -0,0 +1,81 @@
+package elasticemail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A lock-free rate limiter: a token bucket kept as a single theoretical arrival time (the generic cell rate
+ * algorithm), updated with compare-and-set. Permits come at a steady rate, and up to <code>burst</code> of them can be
+ * taken at once after an idle spell.
+ * </p>
+ *
+ * <p>
+ * Besides taking a permit when one is free, a caller can {@link #reserve()} the next free permit and be told how long
+ * to wait for it, which lets work be scheduled for later instead of blocking or being turned away.
+ * </p>
+ */
+public class RateLimiter {
+
+	private final long interval; // nanos between permits
+	private final long burstWindow; // how far ahead of now the arrival time may run and still allow a permit
+	private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * @param permitsPerSecond
+	 *        the steady rate
+	 * @param burst
+	 *        how many permits may be taken at once; at least 1
+	 */
+	public RateLimiter(double permitsPerSecond, int burst) {
+		if ( permitsPerSecond <= 0 || burst < 1 ) {
+			throw new IllegalArgumentException("bad rate " + permitsPerSecond + "/s, burst " + burst);
+		}
+		this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+		this.burstWindow = interval * burst;
+	}
+
+	/**
+	 * @return true if a permit was free and has been taken
+	 */
+	public boolean tryAcquire() {
+		long now = System.nanoTime();
+		while ( true ) {
+			long tat = arrival.get();
+			long next = Math.max(tat, now) + interval;
+			if ( next - now > burstWindow ) {
+				return false;
+			}
+			if ( arrival.compareAndSet(tat, next) ) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Takes the next free permit, which may be in the future.
+	 *
+	 * @return nanoseconds until the permit may be used; zero or less means now
+	 */
+	public long reserve() {
+		long now = System.nanoTime();
+		while ( true ) {
+			long tat = arrival.get();
+			long next = Math.max(tat, now) + interval;
+			if ( arrival.compareAndSet(tat, next) ) {
+				return next - now - burstWindow;
+			}
+		}
+	}
+
+	/**
+	 * Takes the next permit, sleeping until it may be used.
+	 */
+	public void acquire() throws InterruptedException {
+		long wait = reserve();
+		if ( wait > 0 ) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+}
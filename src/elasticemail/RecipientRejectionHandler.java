@@ -0,0 +1,39 @@
+package elasticemail;
+
+/**
+ * <p>
+ * Told about each recipient that is dropped from a message before it is sent. The rest of the recipients are still
+ * sent to. Set one with {@link ElasticEmailClient.Builder#recipientRejectionHandler(RecipientRejectionHandler)}; by
+ * default rejections are only logged.
+ * </p>
+ *
+ * <p>
+ * Called on the sending thread, so implementations should be quick and must be thread safe.
+ * </p>
+ */
+public interface RecipientRejectionHandler {
+
+	/**
+	 * Why a recipient was dropped.
+	 */
+	public enum Reason {
+		/**
+		 * The address is not a valid email address.
+		 */
+		MALFORMED,
+		/**
+		 * The address is on the {@link SuppressionFilter}'s list.
+		 */
+		SUPPRESSED,
+		;
+	}
+
+	/**
+	 * @param address
+	 *        the address as it appeared in the recipient list, with surrounding whitespace removed
+	 * @param reason
+	 *        why it was dropped
+	 */
+	public void rejected(String address, Reason reason);
+
+}
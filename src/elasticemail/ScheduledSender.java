@@ -0,0 +1,633 @@
+package elasticemail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Holds messages until a given time, then sends them through a {@link SendScheduler}.
+ * </p>
+ *
+ * <p>
+ * Pending messages are kept in a hierarchical timing wheel: four levels of 256 slots, the first a slot per tick, each
+ * level above a slot per full turn of the one below. Scheduling a message is a list insert, and a message moves down at
+ * most three times before it comes due, so holding and firing millions of them costs a constant amount each,
+ * independent of how many are pending. Everything due in the same tick is released together and handed to the
+ * scheduler in one burst, paced by a {@link RateLimiter}.
+ * </p>
+ *
+ * <p>
+ * Each scheduled message is appended to an outbox journal before {@link #sendAt(Date, EmailMessage)} returns, and
+ * marked done once its send has completed, so messages survive a restart: the journal is replayed when a
+ * <code>ScheduledSender</code> is opened on it, and anything overdue is sent straight away. A message is sent at least
+ * once; one whose send was under way during a crash may be sent again. The journal is written through to the operating
+ * system on each call, and forced to disk once per tick.
+ * </p>
+ *
+ * <p>
+ * Only plain string bodies can be journaled; render templated messages before scheduling them. An attachment uploaded
+ * through a {@link CredentialPool} is journaled with its key's position in the pool, so that it is sent with the key
+ * that owns it; after a restart, build the pool with the same keys in the same order.
+ * </p>
+ */
+public class ScheduledSender implements Closeable {
+
+	final static private Logger logger = LoggerFactory.getLogger(ScheduledSender.class);
+
+	static final long DEFAULT_TICK_MILLIS = 100;
+
+	private static final int WHEEL_BITS = 8;
+	private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	private static final int LEVELS = 4;
+
+	private static final byte RECORD_ADD = 1;
+	private static final byte RECORD_DONE = 2;
+
+	/**
+	 * A pending message, linked into a wheel slot.
+	 */
+	private static final class Timer {
+		final long id;
+		final long dueMillis;
+		final long dueTick;
+		final EmailMessage message;
+		Timer next;
+
+		Timer(long id, long dueMillis, long dueTick, EmailMessage message) {
+			this.id = id;
+			this.dueMillis = dueMillis;
+			this.dueTick = dueTick;
+			this.message = message;
+		}
+	}
+
+	private final SendScheduler scheduler;
+	private final CredentialPool credentialPool; // null unless the client spreads sends over several keys
+	private final File journalFile;
+	private final long tickMillis;
+	private final RateLimiter limiter;
+	private volatile SendScheduler.Priority priority = SendScheduler.Priority.BULK;
+	private volatile SendListener listener;
+
+	// the wheel, guarded by this
+	private final Timer[][] wheel = new Timer[LEVELS][WHEEL_SIZE];
+	private Timer overflow; // due beyond the top level's reach
+	private long currentTick;
+	private int pending;
+	private long nextId;
+
+	// released, waiting for the rate limiter; guarded by ready
+	private final ArrayDeque<Timer> ready = new ArrayDeque<Timer>();
+
+	// the journal, guarded by journalLock
+	private final Object journalLock = new Object();
+	private DataOutputStream journal;
+	private FileOutputStream journalOut;
+	private boolean journalDirty;
+
+	private final Thread ticker;
+	private final Thread releaser;
+	private volatile boolean closed;
+
+	/**
+	 * @param scheduler
+	 *        sends the messages as they come due
+	 * @param journalFile
+	 *        the outbox journal; created if it doesn't exist, replayed if it does
+	 * @param perSecond
+	 *        how fast due messages are handed to the scheduler
+	 * @param burst
+	 *        how many may be handed over at once
+	 * @throws IOException
+	 *         if the journal can't be read or written
+	 */
+	public ScheduledSender(SendScheduler scheduler, File journalFile, double perSecond, int burst) throws IOException {
+		this(scheduler, journalFile, perSecond, burst, DEFAULT_TICK_MILLIS);
+	}
+
+	/**
+	 * @param scheduler
+	 *        sends the messages as they come due
+	 * @param journalFile
+	 *        the outbox journal; created if it doesn't exist, replayed if it does
+	 * @param perSecond
+	 *        how fast due messages are handed to the scheduler
+	 * @param burst
+	 *        how many may be handed over at once
+	 * @param tickMillis
+	 *        the wheel's resolution; messages are released up to this late
+	 * @throws IOException
+	 *         if the journal can't be read or written
+	 */
+	public ScheduledSender(SendScheduler scheduler, File journalFile, double perSecond, int burst, long tickMillis) throws IOException {
+		if ( tickMillis < 1 ) {
+			throw new IllegalArgumentException("bad tick " + tickMillis);
+		}
+		this.scheduler = scheduler;
+		this.credentialPool = scheduler.getClient().getCredentialPool();
+		this.journalFile = journalFile;
+		this.tickMillis = tickMillis;
+		this.limiter = new RateLimiter(perSecond, burst);
+		this.currentTick = System.currentTimeMillis() / tickMillis;
+
+		Map<Long, Timer> live = replay();
+		compact(live);
+		synchronized ( this ) {
+			for ( Timer t : live.values() ) {
+				schedule(t);
+			}
+		}
+		logger.info("outbox {} opened with {} pending", journalFile, live.size());
+
+		ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				tick();
+			}
+		}, "ScheduledSender-tick");
+		releaser = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				release();
+			}
+		}, "ScheduledSender-release");
+		ticker.setDaemon(true);
+		releaser.setDaemon(true);
+		ticker.start();
+		releaser.start();
+	}
+
+	/**
+	 * @param priority
+	 *        the scheduler lane due messages are sent in. By default {@link SendScheduler.Priority#BULK}.
+	 * @return this sender
+	 */
+	public ScheduledSender setPriority(SendScheduler.Priority priority) {
+		this.priority = priority;
+		return this;
+	}
+
+	/**
+	 * @param listener
+	 *        told how each scheduled message's send turned out. By default failures are logged.
+	 * @return this sender
+	 */
+	public ScheduledSender setListener(SendListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * <p>
+	 * Send a message at a given time. The message is journaled before this returns.
+	 * </p>
+	 *
+	 * @param when
+	 *        when to send it; a time in the past sends it on the next tick
+	 * @param message
+	 *        the message, with a plain string body. It must not be changed afterwards.
+	 * @return an id for the scheduled message, unique within the journal
+	 * @throws IOException
+	 *         if the message can't be journaled
+	 */
+	public long sendAt(Date when, EmailMessage message) throws IOException {
+		if ( message.isTemplated() ) {
+			throw new IllegalArgumentException("templated messages can't be journaled; render the body first");
+		}
+		if ( message.getAttachmentIds() != null ) {
+			for ( AttachmentId a : message.getAttachmentIds() ) {
+				if ( a.getCredential() != null && (credentialPool == null || credentialPool.indexOf(a.getCredential()) < 0) ) {
+					throw new IllegalArgumentException("attachment " + a.getId() + " was uploaded with a key that isn't in this sender's pool");
+				}
+			}
+		}
+		if ( closed ) {
+			throw new RejectedExecutionException("scheduled sender is closed");
+		}
+		long dueMillis = when.getTime();
+		long id;
+		synchronized ( this ) {
+			id = nextId++;
+		}
+		Timer t = new Timer(id, dueMillis, dueTick(dueMillis), message);
+		appendAdd(t);
+		synchronized ( this ) {
+			schedule(t);
+		}
+		return id;
+	}
+
+	/**
+	 * @return how many messages are scheduled and not yet handed to the scheduler
+	 */
+	public int getPendingCount() {
+		int released;
+		synchronized ( ready ) {
+			released = ready.size();
+		}
+		synchronized ( this ) {
+			return pending + released;
+		}
+	}
+
+	/**
+	 * Stops releasing messages and closes the journal. Messages not yet sent stay in the journal for next time.
+	 */
+	@Override
+	public void close() throws IOException {
+		if ( closed ) {
+			return;
+		}
+		closed = true;
+		ticker.interrupt();
+		releaser.interrupt();
+		synchronized ( journalLock ) {
+			journal.flush();
+			journalOut.getChannel().force(false);
+			journal.close();
+		}
+	}
+
+	private long dueTick(long dueMillis) {
+		return (dueMillis + tickMillis - 1) / tickMillis;
+	}
+
+	/**
+	 * Puts a timer in the slot of the lowest level whose current turn includes its tick. Caller holds the lock.
+	 */
+	private void schedule(Timer t) {
+		pending++;
+		if ( t.dueTick <= currentTick ) {
+			due(t);
+			return;
+		}
+		for ( int level = 0; level < LEVELS; level++ ) {
+			int shift = WHEEL_BITS * (level + 1);
+			if ( (t.dueTick >>> shift) == (currentTick >>> shift) ) {
+				int slot = (int) (t.dueTick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+				t.next = wheel[level][slot];
+				wheel[level][slot] = t;
+				return;
+			}
+		}
+		t.next = overflow;
+		overflow = t;
+	}
+
+	/**
+	 * Moves the wheel on one tick: cascades the slots of the levels that have come round, then releases the tick's
+	 * slot. Caller holds the lock.
+	 */
+	private List<Timer> advance() {
+		currentTick++;
+		if ( (currentTick & ((1L << (WHEEL_BITS * LEVELS)) - 1)) == 0 ) {
+			Timer list = overflow;
+			overflow = null;
+			reschedule(list);
+		}
+		for ( int level = LEVELS - 1; level > 0; level-- ) {
+			if ( (currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0 ) {
+				int slot = (int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+				Timer list = wheel[level][slot];
+				wheel[level][slot] = null;
+				reschedule(list);
+			}
+		}
+		int slot = (int) currentTick & WHEEL_MASK;
+		Timer list = wheel[0][slot];
+		wheel[0][slot] = null;
+		List<Timer> batch = new ArrayList<Timer>();
+		while ( list != null ) {
+			Timer next = list.next;
+			list.next = null;
+			batch.add(list);
+			pending--;
+			list = next;
+		}
+		return batch;
+	}
+
+	private void reschedule(Timer list) {
+		while ( list != null ) {
+			Timer next = list.next;
+			pending--;
+			schedule(list);
+			list = next;
+		}
+	}
+
+	/**
+	 * Hands an overdue timer straight to the releaser. Caller holds the lock.
+	 */
+	private void due(Timer t) {
+		pending--;
+		synchronized ( ready ) {
+			ready.add(t);
+			ready.notifyAll();
+		}
+	}
+
+	private void tick() {
+		try {
+			while ( !closed ) {
+				long now = System.currentTimeMillis();
+				long nowTick = now / tickMillis;
+				List<Timer> batch = null;
+				synchronized ( this ) {
+					while ( currentTick < nowTick ) {
+						List<Timer> b = advance();
+						if ( batch == null ) {
+							batch = b;
+						}
+						else {
+							batch.addAll(b);
+						}
+					}
+				}
+				if ( batch != null && !batch.isEmpty() ) {
+					synchronized ( ready ) {
+						ready.addAll(batch); // the whole tick in one burst
+						ready.notifyAll();
+					}
+					logger.debug("released {} scheduled messages", batch.size());
+				}
+				syncJournal();
+				Thread.sleep(Math.max(1, (nowTick + 1) * tickMillis - System.currentTimeMillis()));
+			}
+		}
+		catch ( InterruptedException e ) {
+			/* closed */
+		}
+		catch ( IOException e ) {
+			logger.error("outbox journal can't be synced; scheduled sends stopped", e);
+		}
+	}
+
+	private void release() {
+		try {
+			while ( !closed ) {
+				Timer t;
+				synchronized ( ready ) {
+					while ( (t = ready.poll()) == null ) {
+						ready.wait();
+					}
+				}
+				limiter.acquire();
+				submit(t);
+			}
+		}
+		catch ( InterruptedException e ) {
+			/* closed */
+		}
+	}
+
+	private void submit(final Timer t) {
+		try {
+			scheduler.submit(t.message, priority, new SendListener() {
+				@Override
+				public void sent(EmailMessage message, TransactionId transactionId) {
+					done(t);
+					SendListener l = listener;
+					if ( l != null ) {
+						l.sent(message, transactionId);
+					}
+				}
+
+				@Override
+				public void failed(EmailMessage message, Exception cause) {
+					if ( cause instanceof CancellationException ) {
+						return; // the scheduler shut down; it stays in the journal
+					}
+					done(t);
+					SendListener l = listener;
+					if ( l != null ) {
+						l.failed(message, cause);
+					}
+					else {
+						logger.error("scheduled send to " + message.getToEmails() + " failed", cause);
+					}
+				}
+			});
+		}
+		catch ( RejectedExecutionException e ) {
+			logger.warn("scheduler is shut down; scheduled message {} stays in the outbox", t.id);
+		}
+	}
+
+	private void done(Timer t) {
+		try {
+			appendDone(t.id);
+		}
+		catch ( IOException e ) {
+			if ( closed ) {
+				logger.debug("outbox closed before scheduled message {} was marked done; it will be sent again", t.id);
+			}
+			else {
+				logger.error("can't mark scheduled message " + t.id + " done; it will be sent again after a restart", e);
+			}
+		}
+	}
+
+	/*
+	 * The journal is a sequence of records, each an int length, an int CRC32 of the payload, then the payload: a type
+	 * byte and the message id, followed for an ADD by the due time and the message. Each attachment id is followed by the
+	 * position in the pool of the key that uploaded it, or -1. A torn record at the end, from a
+	 * crash mid-write, fails its length or CRC and ends the replay.
+	 */
+
+	private void appendAdd(Timer t) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(RECORD_ADD);
+		out.writeLong(t.id);
+		out.writeLong(t.dueMillis);
+		EmailMessage m = t.message;
+		writeString(out, m.getChannel());
+		writeString(out, m.getFromEmail());
+		writeString(out, m.getFromName());
+		writeString(out, m.getToEmails());
+		writeString(out, m.getSubject());
+		writeString(out, m.getBodyText());
+		writeString(out, m.getBodyHtml());
+		List<AttachmentId> attachmentIds = m.getAttachmentIds();
+		out.writeInt(attachmentIds == null ? -1 : attachmentIds.size());
+		if ( attachmentIds != null ) {
+			for ( AttachmentId a : attachmentIds ) {
+				writeString(out, a.getId());
+				out.writeInt(a.getCredential() == null ? -1 : credentialPool.indexOf(a.getCredential()));
+			}
+		}
+		appendRecord(bytes.toByteArray());
+	}
+
+	private void appendDone(long id) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(RECORD_DONE);
+		out.writeLong(id);
+		appendRecord(bytes.toByteArray());
+	}
+
+	private void appendRecord(byte[] payload) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		synchronized ( journalLock ) {
+			if ( closed ) {
+				throw new IOException("outbox is closed");
+			}
+			journal.writeInt(payload.length);
+			journal.writeInt((int) crc.getValue());
+			journal.write(payload);
+			journal.flush();
+			journalDirty = true;
+		}
+	}
+
+	private void syncJournal() throws IOException {
+		synchronized ( journalLock ) {
+			if ( journalDirty && !closed ) {
+				journalOut.getChannel().force(false);
+				journalDirty = false;
+			}
+		}
+	}
+
+	private Map<Long, Timer> replay() throws IOException {
+		Map<Long, Timer> live = new LinkedHashMap<Long, Timer>();
+		if ( !journalFile.exists() ) {
+			return live;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 64 * 1024));
+		try {
+			CRC32 crc = new CRC32();
+			while ( true ) {
+				int length;
+				int expected;
+				byte[] payload;
+				try {
+					length = in.readInt();
+					expected = in.readInt();
+					if ( length < 9 || length > 64 * 1024 * 1024 ) {
+						logger.warn("outbox journal {} has a bad record; ignoring the rest", journalFile);
+						break;
+					}
+					payload = new byte[length];
+					in.readFully(payload);
+				}
+				catch ( EOFException e ) {
+					break;
+				}
+				crc.reset();
+				crc.update(payload);
+				if ( (int) crc.getValue() != expected ) {
+					logger.warn("outbox journal {} has a torn record; ignoring the rest", journalFile);
+					break;
+				}
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+				byte type = record.readByte();
+				long id = record.readLong();
+				nextId = Math.max(nextId, id + 1);
+				if ( type == RECORD_DONE ) {
+					live.remove(id);
+				}
+				else {
+					long dueMillis = record.readLong();
+					EmailMessage m = new EmailMessage(readString(record), readString(record), readString(record), readString(record), readString(record),
+							readString(record), readString(record), null);
+					int attachments = record.readInt();
+					if ( attachments >= 0 ) {
+						List<AttachmentId> attachmentIds = new ArrayList<AttachmentId>(attachments);
+						for ( int i = 0; i < attachments; i++ ) {
+							String attachmentId = readString(record);
+							int key = record.readInt();
+							if ( key < 0 ) {
+								attachmentIds.add(new AttachmentId(attachmentId));
+								continue;
+							}
+							CredentialPool.Credential credential = credentialPool == null ? null : credentialPool.get(key);
+							if ( credential == null ) {
+								throw new IOException("outbox journal " + journalFile + " has an attachment uploaded with pool key " + key
+										+ ", which the client doesn't have");
+							}
+							attachmentIds.add(new AttachmentId(attachmentId, credential));
+						}
+						m.setAttachmentIds(attachmentIds);
+					}
+					live.put(id, new Timer(id, dueMillis, dueTick(dueMillis), m));
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return live;
+	}
+
+	/**
+	 * Rewrites the journal with only the pending messages, then opens it for appending.
+	 */
+	private void compact(Map<Long, Timer> live) throws IOException {
+		File temp = new File(journalFile.getPath() + ".tmp");
+		journalOut = new FileOutputStream(temp);
+		journal = new DataOutputStream(new BufferedOutputStream(journalOut, 64 * 1024));
+		try {
+			for ( Timer t : live.values() ) {
+				appendAdd(t);
+			}
+			journal.flush();
+			journalOut.getChannel().force(false);
+		}
+		finally {
+			journal.close();
+		}
+		Files.move(temp.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		journalOut = new FileOutputStream(journalFile, true);
+		journal = new DataOutputStream(new BufferedOutputStream(journalOut, 64 * 1024));
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if ( s == null ) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] utf8 = s.getBytes("UTF-8");
+		out.writeInt(utf8.length);
+		out.write(utf8);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if ( length < 0 ) {
+			return null;
+		}
+		byte[] utf8 = new byte[length];
+		in.readFully(utf8);
+		return new String(utf8, "UTF-8");
+	}
+
+}
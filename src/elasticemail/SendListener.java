@@ -0,0 +1,31 @@
+package elasticemail;
+
+/**
+ * <p>
+ * Told how a message that was sent in the background turned out, such as recipients deferred by a
+ * {@link DomainThrottle}.
+ * </p>
+ *
+ * <p>
+ * Called on the thread that did the send, so implementations should be quick and must be thread safe.
+ * </p>
+ */
+public interface SendListener {
+
+	/**
+	 * @param message
+	 *        the message that was sent
+	 * @param transactionId
+	 *        for checking its status with {@link ElasticEmailClient#getStatus(TransactionId)}
+	 */
+	public void sent(EmailMessage message, TransactionId transactionId);
+
+	/**
+	 * @param message
+	 *        the message that couldn't be sent
+	 * @param cause
+	 *        why
+	 */
+	public void failed(EmailMessage message, Exception cause);
+
+}
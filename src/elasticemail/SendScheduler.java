@@ -0,0 +1,316 @@
+package elasticemail;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Sends messages through an {@link ElasticEmailClient} on a fixed set of threads, with a queue per {@link Priority},
+ * so a password reset doesn't sit behind the rest of a marketing blast.
+ * </p>
+ *
+ * <p>
+ * When more than one lane has messages waiting, the next message is picked by smooth weighted round robin: over any
+ * stretch of time each busy lane gets a share of the sends in proportion to its weight, interleaved rather than in
+ * runs, and a lane with nothing waiting gives its share to the others. On top of that, part of the concurrency is
+ * reserved for {@link Priority#TRANSACTIONAL}: bulk sends never hold more than <code>concurrency - reserved</code> of
+ * the threads, and with them the connections to Elastic Email, so there is always a thread free for a transactional
+ * message.
+ * </p>
+ *
+ * <p>
+ * Each lane's queue depth, sends in flight and time spent queued are reported, the last as a
+ * {@link LatencyHistogram}.
+ * </p>
+ */
+public class SendScheduler {
+
+	final static private Logger logger = LoggerFactory.getLogger(SendScheduler.class);
+
+	/**
+	 * The lanes, highest priority first.
+	 */
+	public enum Priority {
+		/** One-to-one mail somebody is waiting for: password resets, receipts. */
+		TRANSACTIONAL(8),
+		/** Campaigns and newsletters. */
+		BULK(1),
+		;
+
+		private final int defaultWeight;
+
+		private Priority(int defaultWeight) {
+			this.defaultWeight = defaultWeight;
+		}
+	}
+
+	private static final class Lane {
+		final Priority priority;
+		final ArrayDeque<Task> queue = new ArrayDeque<Task>();
+		final LatencyHistogram queueWait = new LatencyHistogram();
+		int weight;
+		int current; // smooth weighted round robin credit
+		int inFlight;
+
+		Lane(Priority priority) {
+			this.priority = priority;
+			this.weight = priority.defaultWeight;
+		}
+	}
+
+	private final class Task extends FutureTask<TransactionId> {
+		final Lane lane;
+		final EmailMessage message;
+		final SendListener listener;
+		final long enqueued = System.nanoTime();
+
+		Task(Lane lane, final EmailMessage message, SendListener listener) {
+			super(new Callable<TransactionId>() {
+				@Override
+				public TransactionId call() throws Exception {
+					return client.send(message);
+				}
+			});
+			this.lane = lane;
+			this.message = message;
+			this.listener = listener;
+		}
+
+		@Override
+		protected void done() {
+			if ( listener == null ) {
+				return;
+			}
+			try {
+				listener.sent(message, get());
+			}
+			catch ( ExecutionException e ) {
+				Throwable cause = e.getCause();
+				listener.failed(message, cause instanceof Exception ? (Exception) cause : e);
+			}
+			catch ( CancellationException e ) {
+				listener.failed(message, e);
+			}
+			catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt(); // can't happen, the task is done
+			}
+		}
+	}
+
+	private final ElasticEmailClient client;
+	private final int concurrency;
+	private final int reserved;
+	private final Lane[] lanes;
+	private final Thread[] workers;
+	private int nonReservedInFlight;
+	private boolean shutdown;
+
+	/**
+	 * @param client
+	 *        does the sending
+	 * @param concurrency
+	 *        how many sends may be in flight at once; one thread each
+	 * @param reserved
+	 *        how many of those only {@link Priority#TRANSACTIONAL} messages may use
+	 */
+	public SendScheduler(ElasticEmailClient client, int concurrency, int reserved) {
+		if ( concurrency < 1 || reserved < 0 || reserved >= concurrency ) {
+			throw new IllegalArgumentException("bad concurrency " + concurrency + ", reserved " + reserved);
+		}
+		this.client = client;
+		this.concurrency = concurrency;
+		this.reserved = reserved;
+		Priority[] priorities = Priority.values();
+		this.lanes = new Lane[priorities.length];
+		for ( int i = 0; i < priorities.length; i++ ) {
+			lanes[i] = new Lane(priorities[i]);
+		}
+		this.workers = new Thread[concurrency];
+		for ( int i = 0; i < concurrency; i++ ) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "SendScheduler-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * @param priority
+	 *        the lane
+	 * @param weight
+	 *        its share of sends when other lanes are busy too; at least 1. By default 8 for transactional and 1 for
+	 *        bulk.
+	 * @return this scheduler
+	 */
+	public synchronized SendScheduler setWeight(Priority priority, int weight) {
+		if ( weight < 1 ) {
+			throw new IllegalArgumentException("bad weight " + weight);
+		}
+		lanes[priority.ordinal()].weight = weight;
+		return this;
+	}
+
+	/**
+	 * <p>
+	 * Queue a message to be sent with {@link ElasticEmailClient#send(EmailMessage)}.
+	 * </p>
+	 *
+	 * @param message
+	 *        the message
+	 * @param priority
+	 *        its lane
+	 * @return the transaction id once sent; {@link Future#get()} throws the send's exception if it failed
+	 * @throws RejectedExecutionException
+	 *         if the scheduler has been shut down
+	 */
+	public Future<TransactionId> submit(EmailMessage message, Priority priority) {
+		return submit(message, priority, null);
+	}
+
+	/**
+	 * <p>
+	 * Queue a message to be sent with {@link ElasticEmailClient#send(EmailMessage)}, and be told how it turned out.
+	 * </p>
+	 *
+	 * @param message
+	 *        the message
+	 * @param priority
+	 *        its lane
+	 * @param listener
+	 *        told, on the sending thread, once the message is sent, has failed or was cancelled by
+	 *        {@link #shutdown()}. May be null.
+	 * @return the transaction id once sent; {@link Future#get()} throws the send's exception if it failed
+	 * @throws RejectedExecutionException
+	 *         if the scheduler has been shut down
+	 */
+	public Future<TransactionId> submit(EmailMessage message, Priority priority, SendListener listener) {
+		Lane lane = lanes[priority.ordinal()];
+		Task task = new Task(lane, message, listener);
+		synchronized ( this ) {
+			if ( shutdown ) {
+				throw new RejectedExecutionException("scheduler is shut down");
+			}
+			lane.queue.add(task);
+			notifyAll();
+		}
+		return task;
+	}
+
+	/**
+	 * @return how many messages in the lane are waiting for a thread
+	 */
+	public synchronized int getQueueDepth(Priority priority) {
+		return lanes[priority.ordinal()].queue.size();
+	}
+
+	/**
+	 * @return how many messages from the lane are being sent now
+	 */
+	public synchronized int getInFlight(Priority priority) {
+		return lanes[priority.ordinal()].inFlight;
+	}
+
+	/**
+	 * @return how long the lane's messages waited in the queue before a thread took them
+	 */
+	public LatencyHistogram getQueueWait(Priority priority) {
+		return lanes[priority.ordinal()].queueWait;
+	}
+
+	ElasticEmailClient getClient() {
+		return client;
+	}
+
+	/**
+	 * Stops taking messages. Sends in flight finish; messages still queued are cancelled.
+	 */
+	public void shutdown() {
+		synchronized ( this ) {
+			if ( shutdown ) {
+				return;
+			}
+			shutdown = true;
+			for ( Lane lane : lanes ) {
+				for ( Task task : lane.queue ) {
+					task.cancel(false);
+				}
+				lane.queue.clear();
+			}
+			notifyAll();
+		}
+		logger.info("send scheduler shut down");
+	}
+
+	private void work() {
+		while ( true ) {
+			Task task;
+			synchronized ( this ) {
+				while ( (task = next()) == null ) {
+					if ( shutdown ) {
+						return;
+					}
+					try {
+						wait();
+					}
+					catch ( InterruptedException e ) {
+						return;
+					}
+				}
+			}
+			task.lane.queueWait.record(System.nanoTime() - task.enqueued);
+			try {
+				task.run(); // FutureTask keeps any exception for the caller
+			}
+			finally {
+				synchronized ( this ) {
+					task.lane.inFlight--;
+					if ( task.lane.priority != Priority.TRANSACTIONAL ) {
+						nonReservedInFlight--;
+					}
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks the next task by smooth weighted round robin over the lanes that have work and may use a thread now.
+	 */
+	private Task next() {
+		Lane best = null;
+		int total = 0;
+		boolean nonReservedFull = nonReservedInFlight >= concurrency - reserved;
+		for ( Lane lane : lanes ) {
+			if ( lane.queue.isEmpty() || (nonReservedFull && lane.priority != Priority.TRANSACTIONAL) ) {
+				continue;
+			}
+			lane.current += lane.weight;
+			total += lane.weight;
+			if ( best == null || lane.current > best.current ) {
+				best = lane;
+			}
+		}
+		if ( best == null ) {
+			return null;
+		}
+		best.current -= total;
+		best.inFlight++;
+		if ( best.priority != Priority.TRANSACTIONAL ) {
+			nonReservedInFlight++;
+		}
+		return best.queue.poll();
+	}
+
+}
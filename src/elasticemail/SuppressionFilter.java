@@ -0,0 +1,28 @@
+package elasticemail;
+
+/**
+ * <p>
+ * Decides which recipients must never be sent to, such as addresses that bounced or unsubscribed. Suppressed
+ * recipients are removed from a message before its request is built. Set one with
+ * {@link ElasticEmailClient.Builder#suppressionFilter(SuppressionFilter)}.
+ * </p>
+ *
+ * <p>
+ * Called on the sending thread for every recipient, so it must be fast and thread safe. {@link SuppressionList} is an
+ * implementation that holds millions of addresses off the heap.
+ * </p>
+ */
+public interface SuppressionFilter {
+
+	/**
+	 * @param addresses
+	 *        holds the address to check
+	 * @param start
+	 *        index of the address's first char
+	 * @param end
+	 *        index after the address's last char. The address is trimmed and in lower case.
+	 * @return true if nothing may be sent to the address
+	 */
+	public boolean isSuppressed(CharSequence addresses, int start, int end);
+
+}
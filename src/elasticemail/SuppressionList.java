@@ -0,0 +1,296 @@
+package elasticemail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * <p>
+ * A set of suppressed email addresses that lives off the heap, for lists of millions of bounced and unsubscribed
+ * addresses.
+ * </p>
+ *
+ * <p>
+ * Each address is stored as a 64-bit fingerprint in an open-addressing hash table (linear probing) kept in a direct
+ * {@link ByteBuffer}, or in a memory-mapped file that persists between runs. Only one process may have the file open at
+ * a time: adds are serialized within a JVM, not across them, and growing the table replaces the file. The table costs
+ * 8 bytes per slot and the garbage collector never sees it. A lookup hashes the address and reads one or two cache
+ * lines. With 64-bit fingerprints, the chance that some unlisted address is mistaken for a listed one is
+ * about one in 10^13 per lookup at ten million entries.
+ * </p>
+ *
+ * <p>
+ * Addresses are matched ignoring case and surrounding whitespace. Lookups are lock free and may run concurrently with
+ * {@link #add(CharSequence)}; a lookup racing an add may not see the new address yet. Adds are serialized. The table
+ * doubles when it gets three quarters full. Addresses can't be removed.
+ * </p>
+ */
+public class SuppressionList implements SuppressionFilter {
+
+	private static final long MAGIC = 0x4545535550505231L; // "EESUPPR1"
+	private static final int HEADER = 64; // magic, capacity, size, then padding to a cache line
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int SIZE_OFFSET = 16;
+	private static final int MIN_CAPACITY = 1024;
+	private static final int MAX_CAPACITY = 1 << 27; // the largest table a single buffer can hold
+
+	private final File file; // null when the table is only in memory
+
+	/*
+	 * Replaced wholesale when the table grows, so a lookup always probes one complete table.
+	 */
+	private volatile Table table;
+
+	private static final class Table {
+		final ByteBuffer buf;
+		final int mask;
+
+		Table(ByteBuffer buf) {
+			this.buf = buf;
+			this.mask = (int) buf.getLong(CAPACITY_OFFSET) - 1;
+		}
+	}
+
+	private SuppressionList(File file, ByteBuffer buf) {
+		this.file = file;
+		this.table = new Table(buf);
+	}
+
+	/**
+	 * <p>
+	 * Create an empty list in direct memory.
+	 * </p>
+	 *
+	 * @param expectedSize
+	 *        how many addresses it will likely hold. It grows past this if it has to.
+	 * @return the new list
+	 */
+	public static SuppressionList allocate(int expectedSize) {
+		int capacity = capacityFor(expectedSize);
+		ByteBuffer buf = ByteBuffer.allocateDirect((int) (HEADER + 8L * capacity));
+		initHeader(buf, capacity);
+		return new SuppressionList(null, buf);
+	}
+
+	/**
+	 * <p>
+	 * Open a list kept in a memory-mapped file, creating the file if it doesn't exist. Additions are written to the file
+	 * as they are made; call {@link #flush()} to be sure they have reached the disk.
+	 * </p>
+	 *
+	 * @param file
+	 *        the file holding the table
+	 * @param expectedSize
+	 *        how many addresses it will likely hold, used when creating the file
+	 * @return the list
+	 * @throws IOException
+	 *         if the file can't be mapped, or isn't a suppression list
+	 */
+	public static SuppressionList open(File file, int expectedSize) throws IOException {
+		if ( !file.exists() || file.length() == 0 ) {
+			writeEmptyFile(file, capacityFor(expectedSize));
+		}
+		MappedByteBuffer buf = mapFile(file);
+		if ( buf.getLong(0) != MAGIC || buf.capacity() != HEADER + 8 * buf.getLong(CAPACITY_OFFSET) ) {
+			throw new IOException("not a suppression list: " + file);
+		}
+		return new SuppressionList(file, buf);
+	}
+
+	/**
+	 * @param address
+	 *        an email address
+	 * @return true if the address is in the list
+	 */
+	public boolean contains(CharSequence address) {
+		return isSuppressed(address, 0, address.length());
+	}
+
+	@Override
+	public boolean isSuppressed(CharSequence addresses, int start, int end) {
+		long fp = fingerprint(addresses, start, end);
+		Table t = table;
+		int slot = (int) mix(fp) & t.mask;
+		while ( true ) {
+			long stored = t.buf.getLong(HEADER + 8 * slot);
+			if ( stored == fp ) {
+				return true;
+			}
+			if ( stored == 0 ) {
+				return false;
+			}
+			slot = (slot + 1) & t.mask;
+		}
+	}
+
+	/**
+	 * @param address
+	 *        an email address to suppress
+	 * @return true if it was added, false if it was already in the list
+	 * @throws IOException
+	 *         if a file backed list has to grow and the file can't be rewritten
+	 */
+	public synchronized boolean add(CharSequence address) throws IOException {
+		return addFingerprint(fingerprint(address, 0, address.length()));
+	}
+
+	/**
+	 * @return how many addresses are in the list
+	 */
+	public long size() {
+		return table.buf.getLong(SIZE_OFFSET);
+	}
+
+	/**
+	 * Forces additions to a file backed list out to the disk. Does nothing for a list in memory.
+	 */
+	public void flush() {
+		ByteBuffer buf = table.buf;
+		if ( buf instanceof MappedByteBuffer ) {
+			((MappedByteBuffer) buf).force();
+		}
+	}
+
+	private boolean addFingerprint(long fp) throws IOException {
+		Table t = table;
+		long size = t.buf.getLong(SIZE_OFFSET);
+		if ( (size + 1) * 4 > (t.mask + 1L) * 3 ) {
+			grow();
+			t = table;
+		}
+		if ( !insert(t, fp) ) {
+			return false;
+		}
+		t.buf.putLong(SIZE_OFFSET, size + 1);
+		return true;
+	}
+
+	private static boolean insert(Table t, long fp) {
+		int slot = (int) mix(fp) & t.mask;
+		while ( true ) {
+			long stored = t.buf.getLong(HEADER + 8 * slot);
+			if ( stored == fp ) {
+				return false;
+			}
+			if ( stored == 0 ) {
+				t.buf.putLong(HEADER + 8 * slot, fp);
+				return true;
+			}
+			slot = (slot + 1) & t.mask;
+		}
+	}
+
+	/**
+	 * Rehashes into a table twice the size. A file backed table is rebuilt in a temp file that then replaces the file,
+	 * so the file is never seen half grown.
+	 */
+	private void grow() throws IOException {
+		Table old = table;
+		int capacity = (old.mask + 1) * 2;
+		if ( capacity <= 0 || capacity > MAX_CAPACITY ) {
+			throw new IllegalStateException("suppression list is full");
+		}
+		ByteBuffer buf;
+		File temp = null;
+		if ( file == null ) {
+			buf = ByteBuffer.allocateDirect((int) (HEADER + 8L * capacity));
+			initHeader(buf, capacity);
+		}
+		else {
+			temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+			writeEmptyFile(temp, capacity);
+			buf = mapFile(temp);
+		}
+		Table grown = new Table(buf);
+		for ( int slot = 0; slot <= old.mask; slot++ ) {
+			long fp = old.buf.getLong(HEADER + 8 * slot);
+			if ( fp != 0 ) {
+				insert(grown, fp);
+			}
+		}
+		buf.putLong(SIZE_OFFSET, old.buf.getLong(SIZE_OFFSET));
+		if ( temp != null ) {
+			((MappedByteBuffer) buf).force();
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		table = grown;
+	}
+
+	/**
+	 * 64-bit FNV-1a over the address, trimmed and lower cased on the fly, so callers don't have to normalize first. Zero
+	 * marks an empty slot, so it is never returned.
+	 */
+	static long fingerprint(CharSequence s, int start, int end) {
+		while ( start < end && Character.isWhitespace(s.charAt(start)) ) {
+			start++;
+		}
+		while ( end > start && Character.isWhitespace(s.charAt(end - 1)) ) {
+			end--;
+		}
+		long h = 0xcbf29ce484222325L;
+		for ( int i = start; i < end; i++ ) {
+			char c = s.charAt(i);
+			if ( c >= 'A' && c <= 'Z' ) {
+				c += 'a' - 'A';
+			}
+			h ^= c;
+			h *= 0x100000001b3L;
+		}
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * The murmur3 finalizer, to spread fingerprints over the slots.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while ( capacity < expectedSize * 2L && capacity < MAX_CAPACITY ) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static void initHeader(ByteBuffer buf, int capacity) {
+		buf.putLong(0, MAGIC);
+		buf.putLong(CAPACITY_OFFSET, capacity);
+		buf.putLong(SIZE_OFFSET, 0);
+	}
+
+	private static void writeEmptyFile(File file, int capacity) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(HEADER + 8L * capacity); // sparse, reads as zeros
+			raf.writeLong(MAGIC);
+			raf.writeLong(capacity);
+			raf.writeLong(0);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static MappedByteBuffer mapFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+}
@@ -0,0 +1,234 @@
+package elasticemail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Brings a {@link SuppressionList} up to date with the bounced and unsubscribed addresses Elastic Email has recorded
+ * for the account.
+ * </p>
+ *
+ * <p>
+ * Each export is streamed and parsed a buffer at a time, so memory use stays constant however many rows it has, and
+ * only addresses not already on the list are added. Progress is checkpointed to a small file every
+ * {@value #CHECKPOINT_ROWS} rows, after the list has been flushed. If a sync is interrupted, the next {@link #run()}
+ * resumes where the checkpoint left off, skipping exports that were finished and the rows of the current export that
+ * were already merged. The checkpoint file is removed once a sync completes.
+ * </p>
+ *
+ * <p>
+ * A sync can be stopped by interrupting its thread; it checkpoints and throws {@link InterruptedIOException}.
+ * </p>
+ */
+public class SuppressionSync {
+
+	final static private Logger logger = LoggerFactory.getLogger(SuppressionSync.class);
+
+	static final int CHECKPOINT_ROWS = 100000;
+
+	private static final int BUFSIZ = 64 * 1024;
+	private static final int MAX_FIELD = 1024; // longer than any address; the rest of a longer field is ignored
+
+	/**
+	 * The account exports that feed the suppression list.
+	 */
+	public enum Export {
+		BOUNCED("/mailer/list/bounced"),
+		UNSUBSCRIBED("/mailer/list/unsubscribed"),
+		;
+
+		private final String path;
+
+		private Export(String path) {
+			this.path = path;
+		}
+
+		public String getPath() {
+			return path;
+		}
+	}
+
+	private final ElasticEmailClient client;
+	private final SuppressionList list;
+	private final File checkpointFile;
+
+	private long rowsRead;
+	private long added;
+
+	/**
+	 * @param client
+	 *        used to fetch the exports with its credentials
+	 * @param list
+	 *        the list to add addresses to
+	 * @param checkpointFile
+	 *        where progress is kept while a sync runs
+	 */
+	public SuppressionSync(ElasticEmailClient client, SuppressionList list, File checkpointFile) {
+		this.client = client;
+		this.list = list;
+		this.checkpointFile = checkpointFile;
+	}
+
+	/**
+	 * <p>
+	 * Sync every {@link Export}, resuming an interrupted sync if there is a checkpoint.
+	 * </p>
+	 *
+	 * @return how many addresses were added to the list
+	 * @throws IOException
+	 *         if an export can't be fetched, or the list or checkpoint can't be written
+	 */
+	public long run() throws IOException {
+		rowsRead = 0;
+		added = 0;
+		Properties checkpoint = loadCheckpoint();
+		for ( Export export : Export.values() ) {
+			if ( Boolean.parseBoolean(checkpoint.getProperty(export.name() + ".done")) ) {
+				continue;
+			}
+			long skip = Long.parseLong(checkpoint.getProperty(export.name() + ".rows", "0"));
+			sync(export, skip, checkpoint);
+			checkpoint.setProperty(export.name() + ".done", "true");
+			saveCheckpoint(checkpoint);
+		}
+		list.flush();
+		Files.deleteIfExists(checkpointFile.toPath());
+		logger.info("suppression sync done. rows={}, added={}, size={}", rowsRead, added, list.size());
+		return added;
+	}
+
+	/**
+	 * @return the rows read by the last {@link #run()}, not counting rows skipped on resume
+	 */
+	public long getRowsRead() {
+		return rowsRead;
+	}
+
+	private void sync(Export export, long skip, Properties checkpoint) throws IOException {
+		logger.debug("syncing {} from row {}", export, skip);
+		InputStream in = client.openExport(export.getPath());
+		try {
+			byte[] buf = new byte[BUFSIZ];
+			StringBuilder field = new StringBuilder(64);
+			long row = 0;
+			int column = 0;
+			boolean quoted = false;
+			boolean quoteSeen = false; // a quote inside a quoted field: either escaped, or the end
+			int n;
+			while ( (n = in.read(buf)) > 0 ) {
+				for ( int i = 0; i < n; i++ ) {
+					char c = (char) (buf[i] & 0xff);
+					if ( quoted ) {
+						if ( quoteSeen ) {
+							quoteSeen = false;
+							if ( c == '"' ) {
+								append(field, column, c);
+								continue;
+							}
+							quoted = false; // fall through to handle c unquoted
+						}
+						else {
+							if ( c == '"' ) {
+								quoteSeen = true;
+							}
+							else {
+								append(field, column, c);
+							}
+							continue;
+						}
+					}
+					if ( c == '"' ) {
+						quoted = true;
+					}
+					else if ( c == ',' ) {
+						column++;
+					}
+					else if ( c == '\n' ) {
+						if ( row++ >= skip ) {
+							merge(field);
+						}
+						field.setLength(0);
+						column = 0;
+						if ( row % CHECKPOINT_ROWS == 0 && row > skip ) {
+							list.flush();
+							checkpoint.setProperty(export.name() + ".rows", Long.toString(row));
+							saveCheckpoint(checkpoint);
+						}
+					}
+					else if ( c != '\r' ) {
+						append(field, column, c);
+					}
+				}
+				if ( Thread.interrupted() ) {
+					list.flush();
+					checkpoint.setProperty(export.name() + ".rows", Long.toString(Math.max(row, skip)));
+					saveCheckpoint(checkpoint);
+					throw new InterruptedIOException("suppression sync interrupted at " + export + " row " + row);
+				}
+			}
+			if ( field.length() > 0 && row++ >= skip ) {
+				merge(field); // last row had no line break
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Only the first column, the address, is kept.
+	 */
+	private static void append(StringBuilder field, int column, char c) {
+		if ( column == 0 && field.length() < MAX_FIELD ) {
+			field.append(c);
+		}
+	}
+
+	private void merge(StringBuilder address) throws IOException {
+		rowsRead++;
+		// skips the header row, and anything else that isn't an address
+		if ( address.indexOf("@") > 0 && list.add(address) ) {
+			added++;
+		}
+	}
+
+	private Properties loadCheckpoint() throws IOException {
+		Properties checkpoint = new Properties();
+		if ( checkpointFile.exists() ) {
+			InputStream in = new FileInputStream(checkpointFile);
+			try {
+				checkpoint.load(in);
+			}
+			finally {
+				in.close();
+			}
+			logger.info("resuming suppression sync from checkpoint {}", checkpoint);
+		}
+		return checkpoint;
+	}
+
+	private void saveCheckpoint(Properties checkpoint) throws IOException {
+		File temp = new File(checkpointFile.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			checkpoint.store(out, "suppression sync progress");
+		}
+		finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), checkpointFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+}
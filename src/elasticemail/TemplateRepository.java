@@ -0,0 +1,321 @@
+package elasticemail;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A directory of {@link MailTemplate}s, kept off the heap and reloaded when the files change.
+ * </p>
+ *
+ * <p>
+ * Each file in the directory is a UTF-8 template, named by its file name. Files are mapped read-only and compiled
+ * straight from the mapped bytes. The compiled, url encoded image of each template is written once to a file in a
+ * cache directory and mapped from there, so the template bytes stay off the heap and every JVM on the host that loads
+ * the same template shares one copy of it through the page cache.
+ * </p>
+ *
+ * <p>
+ * After {@link #startWatching()}, a daemon thread watches the directory and swaps in a recompiled template whenever a
+ * file is created or modified. The swap is a single map update: renders already in flight finish with the template
+ * they started with, and nothing waits on a reload. To avoid compiling a half written file, update templates by writing
+ * them elsewhere and renaming them into the directory. Files whose names start with '.' are ignored.
+ * </p>
+ */
+public class TemplateRepository implements Closeable {
+
+	final static private Logger logger = LoggerFactory.getLogger(TemplateRepository.class);
+
+	final static private String CACHE_DIR = ".compiled";
+
+	private final Path directory;
+	private final Path cacheDirectory;
+	private final ConcurrentMap<String, MailTemplate> templates = new ConcurrentHashMap<String, MailTemplate>();
+
+	private WatchService watcher;
+
+	/**
+	 * <p>
+	 * Loads every template in the directory, caching compiled images in a <code>.compiled</code> subdirectory of it.
+	 * </p>
+	 *
+	 * @param directory
+	 *        the directory holding the template files
+	 * @throws IOException
+	 *         if the directory can't be read
+	 */
+	public TemplateRepository(File directory) throws IOException {
+		this(directory, new File(directory, CACHE_DIR));
+	}
+
+	/**
+	 * <p>
+	 * Loads every template in the directory.
+	 * </p>
+	 *
+	 * @param directory
+	 *        the directory holding the template files
+	 * @param cacheDirectory
+	 *        where compiled template images are kept. Point every JVM on a host at the same one to share them. It is
+	 *        created if needed.
+	 * @throws IOException
+	 *         if either directory can't be read
+	 */
+	public TemplateRepository(File directory, File cacheDirectory) throws IOException {
+		this.directory = directory.toPath();
+		this.cacheDirectory = cacheDirectory.toPath();
+		Files.createDirectories(this.cacheDirectory);
+		reloadAll();
+	}
+
+	/**
+	 * @param name
+	 *        the template's file name
+	 * @return the current version of the template, or null if there is no such template
+	 */
+	public MailTemplate get(String name) {
+		return templates.get(name);
+	}
+
+	/**
+	 * @return the names of the templates currently loaded
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(templates.keySet());
+	}
+
+	/**
+	 * <p>
+	 * Start reloading templates as their files change. Does nothing if already watching.
+	 * </p>
+	 *
+	 * @throws IOException
+	 *         if the directory can't be watched
+	 */
+	public synchronized void startWatching() throws IOException {
+		if ( watcher != null ) {
+			return;
+		}
+		final WatchService w = directory.getFileSystem().newWatchService();
+		directory.register(w, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		watcher = w;
+		Thread watchThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch(w);
+			}
+		}, "TemplateRepository-" + directory.getFileName());
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+
+	/**
+	 * Stops watching the directory. Templates already loaded stay usable.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if ( watcher != null ) {
+			watcher.close();
+			watcher = null;
+		}
+	}
+
+	private void watch(WatchService w) {
+		try {
+			while ( true ) {
+				WatchKey key = w.take();
+				for ( WatchEvent<?> event : key.pollEvents() ) {
+					if ( event.kind() == StandardWatchEventKinds.OVERFLOW ) {
+						reloadAll();
+						continue;
+					}
+					Path file = directory.resolve((Path) event.context());
+					if ( isIgnored(file) ) {
+						continue;
+					}
+					if ( event.kind() == StandardWatchEventKinds.ENTRY_DELETE ) {
+						templates.remove(file.getFileName().toString());
+						logger.debug("template removed: {}", file);
+					}
+					else {
+						reload(file);
+					}
+				}
+				if ( !key.reset() ) {
+					logger.warn("template directory is no longer accessible: {}", directory);
+					return;
+				}
+			}
+		}
+		catch ( ClosedWatchServiceException e ) {
+			/* closed */
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		catch ( IOException e ) {
+			logger.error("stopped watching template directory " + directory, e);
+		}
+	}
+
+	private void reloadAll() throws IOException {
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+		try {
+			for ( Path file : files ) {
+				if ( !isIgnored(file) && Files.isRegularFile(file) ) {
+					reload(file);
+				}
+			}
+		}
+		finally {
+			files.close();
+		}
+	}
+
+	private void reload(Path file) {
+		String name = file.getFileName().toString();
+		try {
+			if ( !Files.isRegularFile(file) ) {
+				return;
+			}
+			templates.put(name, compile(file));
+			logger.debug("template loaded: {}", file);
+		}
+		catch ( IOException e ) {
+			// keep serving the version we had
+			logger.error("could not load template " + file, e);
+		}
+	}
+
+	private MailTemplate compile(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if ( size > Integer.MAX_VALUE / 3 ) {
+				throw new IOException("template too large: " + file);
+			}
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer source = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			String name = file.getFileName().toString();
+			String key = name + "." + Long.toHexString(size) + "-" + Long.toHexString(fingerprint(source));
+			return MailTemplate.compile(source, new CachedImage(name, key));
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the template bytes, so an image is only reused for identical content.
+	 */
+	private static long fingerprint(ByteBuffer bytes) {
+		long h = 0xcbf29ce484222325L;
+		for ( int i = bytes.position(); i < bytes.limit(); i++ ) {
+			h ^= bytes.get(i) & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private static boolean isIgnored(Path file) {
+		return file.getFileName().toString().startsWith(".");
+	}
+
+	/**
+	 * Keeps the compiled image of one version of a template in the cache directory. A new image is written to a temp
+	 * file and renamed into place, so other JVMs never see a partial one.
+	 */
+	private class CachedImage implements MailTemplate.ImageStore {
+		private final String name;
+		private final Path target;
+		private Path temp;
+
+		CachedImage(String name, String key) {
+			this.name = name;
+			this.target = cacheDirectory.resolve(key);
+		}
+
+		@Override
+		public ByteBuffer find(int length) throws IOException {
+			if ( !Files.isRegularFile(target) || Files.size(target) != length ) {
+				return null;
+			}
+			return map(target, FileChannel.MapMode.READ_ONLY, length);
+		}
+
+		@Override
+		public ByteBuffer create(int length) throws IOException {
+			temp = Files.createTempFile(cacheDirectory, "." + name, ".tmp");
+			return map(temp, FileChannel.MapMode.READ_WRITE, length);
+		}
+
+		@Override
+		public ByteBuffer commit(ByteBuffer image) throws IOException {
+			((MappedByteBuffer) image).force();
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			removeStaleImages();
+			// still the same file, so the writable mapping shares its pages with everyone who maps the image later
+			return image.asReadOnlyBuffer();
+		}
+
+		private void removeStaleImages() {
+			try {
+				DirectoryStream<Path> files = Files.newDirectoryStream(cacheDirectory);
+				try {
+					for ( Path file : files ) {
+						String fileName = file.getFileName().toString();
+						// name.size-hash, and not the image of some other template named name.something
+						boolean isOurs = fileName.startsWith(name + ".") && fileName.indexOf('.', name.length() + 1) < 0;
+						if ( isOurs && !file.equals(target) ) {
+							Files.deleteIfExists(file);
+						}
+					}
+				}
+				finally {
+					files.close();
+				}
+			}
+			catch ( IOException e ) {
+				/* punt, maybe another JVM still has it open */
+			}
+		}
+	}
+
+	private static MappedByteBuffer map(Path file, FileChannel.MapMode mode, int length) throws IOException {
+		FileChannel channel;
+		if ( mode == FileChannel.MapMode.READ_ONLY ) {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+		}
+		else {
+			channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+		try {
+			return channel.map(mode, 0, length);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,229 @@
+package elasticemail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An {@link ApiInterceptor} that records the shape of the client's traffic to a file, so it can be replayed against a
+ * test server at the same mix and pace as production.
+ * </p>
+ *
+ * <p>
+ * Only sizes and timings are kept, never content: for each call its endpoint, when it started, how long it took, its
+ * request size and response status, and for a send the number of recipients, the encoded sizes of its subject and
+ * bodies, and the number of attachments. No address, subject, body, id or key is written.
+ * </p>
+ *
+ * <p>
+ * The file starts with the magic number <code>EEC1</code> and the capture's start time in epoch milliseconds, and
+ * holds one record per call, in the order calls finish:
+ * </p>
+ *
+ * <pre>
+ * byte    endpoint ordinal, with 0x80 set if the call failed
+ * varint  start, in microseconds after the capture started
+ * varint  latency, in microseconds
+ * varint  request bytes + 1
+ * varint  response code + 1
+ * for a send:
+ * varint  recipients, subject bytes, text body bytes, html body bytes, attachments
+ * byte    1 if a merge
+ * </pre>
+ *
+ * <p>
+ * A typical send takes a dozen bytes. Records are buffered and written under a lock; call {@link #close()} when done.
+ * If the file can't be written, capture stops with a warning and calls carry on.
+ * </p>
+ */
+public class TrafficCapture implements ApiInterceptor, Closeable {
+
+	final static private Logger logger = LoggerFactory.getLogger(TrafficCapture.class);
+
+	static final int MAGIC = ('E' << 24) | ('E' << 16) | ('C' << 8) | '1';
+
+	/**
+	 * One call read back from a capture.
+	 */
+	public static final class Record {
+		public ClientMetrics.Endpoint endpoint;
+		public boolean failed;
+		public long startMicros;
+		public long latencyMicros;
+		public long requestBytes;
+		public int responseCode;
+		public int recipients;
+		public int subjectBytes;
+		public int bodyTextBytes;
+		public int bodyHtmlBytes;
+		public int attachments;
+		public boolean merge;
+	}
+
+	private final DataOutputStream out;
+	private final long startNanos;
+	private boolean closed;
+
+	public TrafficCapture(File file) throws IOException {
+		this(new FileOutputStream(file));
+	}
+
+	public TrafficCapture(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+		this.startNanos = System.nanoTime();
+		this.out.writeInt(MAGIC);
+		this.out.writeLong(System.currentTimeMillis());
+	}
+
+	@Override
+	public void onRequest(ApiCall call) {
+		// everything is known once the call ends
+	}
+
+	@Override
+	public void onResponse(ApiCall call) {
+		write(call, false);
+	}
+
+	@Override
+	public void onError(ApiCall call, Exception e) {
+		write(call, true);
+	}
+
+	public synchronized void flush() throws IOException {
+		if ( !closed ) {
+			out.flush();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if ( !closed ) {
+			closed = true;
+			out.close();
+		}
+	}
+
+	private void write(ApiCall call, boolean failed) {
+		long now = System.nanoTime();
+		ClientMetrics.Endpoint endpoint = call.getEndpoint();
+		synchronized ( this ) {
+			if ( closed ) {
+				return;
+			}
+			try {
+				out.writeByte(endpoint.ordinal() | (failed ? 0x80 : 0));
+				writeVarint(out, Math.max(0, (call.getStartNanos() - startNanos) / 1000));
+				writeVarint(out, (now - call.getStartNanos()) / 1000);
+				writeVarint(out, call.getRequestBytes() + 1);
+				writeVarint(out, call.getResponseCode() + 1);
+				if ( endpoint == ClientMetrics.Endpoint.SEND ) {
+					writeVarint(out, Math.max(0, call.getRecipientCount()));
+					writeVarint(out, Math.max(0, call.getSubjectBytes()));
+					writeVarint(out, Math.max(0, call.getBodyTextBytes()));
+					writeVarint(out, Math.max(0, call.getBodyHtmlBytes()));
+					writeVarint(out, Math.max(0, call.getAttachmentCount()));
+					out.writeByte(call.isMerge() ? 1 : 0);
+				}
+			}
+			catch ( IOException e ) {
+				logger.warn("traffic capture stopped; can't write it", e);
+				closed = true;
+				try {
+					out.close();
+				}
+				catch ( IOException e2 ) { /* punt */}
+			}
+		}
+	}
+
+	/**
+	 * Reads a whole capture.
+	 *
+	 * @return its records, in the order they were written
+	 */
+	public static List<Record> read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in);
+		}
+		finally {
+			try {
+				in.close();
+			}
+			catch ( IOException e ) { /* punt */}
+		}
+	}
+
+	public static List<Record> read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+		if ( in.readInt() != MAGIC ) {
+			throw new IOException("not a traffic capture");
+		}
+		in.readLong(); // start time
+		ClientMetrics.Endpoint[] endpoints = ClientMetrics.Endpoint.values();
+		List<Record> records = new ArrayList<Record>();
+		int b;
+		while ( (b = in.read()) >= 0 ) {
+			Record r = new Record();
+			if ( (b & 0x7f) >= endpoints.length ) {
+				throw new IOException("bad endpoint " + (b & 0x7f) + " in record " + records.size());
+			}
+			r.endpoint = endpoints[b & 0x7f];
+			r.failed = (b & 0x80) != 0;
+			r.startMicros = readVarint(in);
+			r.latencyMicros = readVarint(in);
+			r.requestBytes = readVarint(in) - 1;
+			r.responseCode = (int) readVarint(in) - 1;
+			if ( r.endpoint == ClientMetrics.Endpoint.SEND ) {
+				r.recipients = (int) readVarint(in);
+				r.subjectBytes = (int) readVarint(in);
+				r.bodyTextBytes = (int) readVarint(in);
+				r.bodyHtmlBytes = (int) readVarint(in);
+				r.attachments = (int) readVarint(in);
+				r.merge = in.readByte() != 0;
+			}
+			records.add(r);
+		}
+		return records;
+	}
+
+	static void writeVarint(DataOutputStream out, long v) throws IOException {
+		while ( (v & ~0x7fL) != 0 ) {
+			out.writeByte((int) (v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	static long readVarint(DataInputStream in) throws IOException {
+		long v = 0;
+		for ( int shift = 0; shift < 64; shift += 7 ) {
+			int b = in.read();
+			if ( b < 0 ) {
+				throw new EOFException("capture ends mid record");
+			}
+			v |= (long) (b & 0x7f) << shift;
+			if ( (b & 0x80) == 0 ) {
+				return v;
+			}
+		}
+		throw new IOException("bad varint in capture");
+	}
+
+}
@@ -3,13 +3,26 @@ package elasticemail;
 public class TransactionId {
 	
 	private String id;
+	private CredentialPool.Credential credential;
 	
 	public TransactionId(String id) {
 		this.id = id;
 	}
+
+	TransactionId(String id, CredentialPool.Credential credential) {
+		this.id = id;
+		this.credential = credential;
+	}
 	
 	public String getId() {
 		return id;
 	}
 
+	/**
+	 * @return the pooled key that sent it, or null
+	 */
+	CredentialPool.Credential getCredential() {
+		return credential;
+	}
+
 }
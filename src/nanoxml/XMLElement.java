@@ -31,14 +31,17 @@ package nanoxml;
 
 
 import java.io.ByteArrayOutputStream;
-import java.io.CharArrayReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.NoSuchElementException;
 import java.util.Vector;
 
 
@@ -133,28 +136,41 @@ public class XMLElement
 
 
     /**
-     * The attributes given to the element.
+     * The names of the attributes given to the element, in the order they
+     * were given. Elements have few attributes, so they are looked up by
+     * scanning.
      *
      * <dl><dt><b>Invariants:</b></dt><dd>
-     * <ul><li>The field can be empty.
-     *     <li>The field is never <code>null</code>.
-     *     <li>The keys and the values are strings.
+     * <ul><li>The field is <code>null</code> until an attribute is set.
+     *     <li>The first <code>attributeCount</code> names are distinct and
+     *         not <code>null</code>.
      * </ul></dd></dl>
      */
-	private Hashtable attributes;
+    private String[] attributeNames;
+
+
+    /**
+     * The values of the attributes, at the same index as their names.
+     */
+    private String[] attributeValues;
+
+
+    /**
+     * The number of attributes given to the element.
+     */
+    private int attributeCount;
 
 
     /**
      * Child elements of the element.
      *
      * <dl><dt><b>Invariants:</b></dt><dd>
-     * <ul><li>The field can be empty.
-     *     <li>The field is never <code>null</code>.
+     * <ul><li>The field is <code>null</code> until a child is added.
      *     <li>The elements are instances of <code>XMLElement</code>
      *         or a subclass of <code>XMLElement</code>.
      * </ul></dd></dl>
      */
-    private Vector children;
+    private ArrayList<XMLElement> children;
 
 
     /**
@@ -184,20 +200,21 @@ public class XMLElement
 
 
     /**
-     * Conversion table for &amp;...; entities. The keys are the entity names
-     * without the &amp; and ; delimiters.
+     * Conversion table for &amp;...; entities, compiled when the element is
+     * constructed and shared with the child elements it creates.
      *
      * <dl><dt><b>Invariants:</b></dt><dd>
      * <ul><li>The field is never <code>null</code>.
-     *     <li>The field always contains the following associations:
-     *         "lt"&nbsp;=&gt;&nbsp;"&lt;", "gt"&nbsp;=&gt;&nbsp;"&gt;",
-     *         "quot"&nbsp;=&gt;&nbsp;"\"", "apos"&nbsp;=&gt;&nbsp;"'",
-     *         "amp"&nbsp;=&gt;&nbsp;"&amp;"
-     *     <li>The keys are strings
-     *     <li>The values are char arrays
      * </ul></dd></dl>
      */
-    private Hashtable entities;
+    private EntityTable entities;
+
+
+    /**
+     * The name of the entity being resolved, reused for every entity of a
+     * parse.
+     */
+    private StringBuilder entityKey;
 
 
     /**
@@ -244,6 +261,39 @@ public class XMLElement
     private Reader reader;
 
 
+    /**
+     * The characters being scanned: the whole input when parsing a string or
+     * a char array, or the characters read ahead from the reader.
+     *
+     * <dl><dt><b>Invariants:</b></dt><dd>
+     * <ul><li>The field is not <code>null</code> while the parse method
+     *         is running.
+     *     <li><code>inputPos &lt;= inputEnd &lt;= input.length</code>
+     * </ul></dd></dl>
+     */
+    private char[] input;
+
+
+    /**
+     * The index in <code>input</code> of the next character to scan.
+     */
+    private int inputPos;
+
+
+    /**
+     * The index in <code>input</code> after the last character to scan.
+     */
+    private int inputEnd;
+
+
+    /**
+     * <code>true</code> if the reader is read ahead into <code>input</code>.
+     * The reader is marked before each read, so the characters read too far
+     * can be given back when the parse ends.
+     */
+    private boolean readAhead;
+
+
     /**
      * The current line number in the source content.
      *
@@ -470,31 +520,27 @@ public class XMLElement
                          boolean   skipLeadingWhitespace,
                          boolean   fillBasicConversionTable,
                          boolean   ignoreCase)
+    {
+        this(EntityTable.compile(entities, fillBasicConversionTable),
+             skipLeadingWhitespace, ignoreCase);
+    }
+
+
+    /**
+     * Creates and initializes a new XML element sharing an entity table.
+     * This takes constant time, so creating child elements doesn't depend on
+     * the number of entities.
+     */
+    private XMLElement(EntityTable entities,
+                       boolean     skipLeadingWhitespace,
+                       boolean     ignoreCase)
     {
         this.ignoreWhitespace = skipLeadingWhitespace;
         this.ignoreCase = ignoreCase;
         this.name = null;
         this.contents = "";
-        this.attributes = new Hashtable();
-        this.children = new Vector();
         this.entities = entities;
         this.lineNr = 0;
-        Enumeration enumr = this.entities.keys();
-        while (enumr.hasMoreElements()) {
-            Object key = enumr.nextElement();
-            Object value = this.entities.get(key);
-            if (value instanceof String) {
-                value = ((String) value).toCharArray();
-                this.entities.put(key, value);
-            }
-        }
-        if (fillBasicConversionTable) {
-            this.entities.put("amp", new char[] { '&' });
-            this.entities.put("quot", new char[] { '"' });
-            this.entities.put("apos", new char[] { '\'' });
-            this.entities.put("lt", new char[] { '<' });
-            this.entities.put("gt", new char[] { '>' });
-        }
     }
 
 
@@ -524,7 +570,10 @@ public class XMLElement
      */
     public void addChild(XMLElement child)
     {
-        this.children.addElement(child);
+        if (this.children == null) {
+            this.children = new ArrayList<XMLElement>();
+        }
+        this.children.add(child);
     }
 
 
@@ -577,7 +626,7 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        this.attributes.put(name, value.toString());
+        this.putAttribute(name, value.toString());
     }
 
 
@@ -640,7 +689,7 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        this.attributes.put(name, Integer.toString(value));
+        this.putAttribute(name, Integer.toString(value));
     }
 
 
@@ -703,7 +752,7 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        this.attributes.put(name, Double.toString(value));
+        this.putAttribute(name, Double.toString(value));
     }
 
 
@@ -741,7 +790,7 @@ public class XMLElement
      */
     public int countChildren()
     {
-        return this.children.size();
+        return (this.children == null) ? 0 : this.children.size();
     }
 
 
@@ -800,7 +849,12 @@ public class XMLElement
      */
     public Enumeration enumerateAttributeNames()
     {
-        return this.attributes.keys();
+        String[] names = new String[this.attributeCount];
+        if (this.attributeCount > 0) {
+            System.arraycopy(this.attributeNames, 0, names, 0,
+                             this.attributeCount);
+        }
+        return Collections.enumeration(Arrays.asList(names));
     }
 
 
@@ -832,7 +886,23 @@ public class XMLElement
      */
     public Enumeration enumerateChildren()
     {
-        return this.children.elements();
+        // like Vector.elements(), reads the children as it goes
+        return new Enumeration() {
+            private int index;
+
+            public boolean hasMoreElements()
+            {
+                return this.index < XMLElement.this.countChildren();
+            }
+
+            public Object nextElement()
+            {
+                if (! this.hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                return XMLElement.this.children.get(this.index++);
+            }
+        };
     }
 
 
@@ -853,13 +923,8 @@ public class XMLElement
      */
     public Vector getChildren()
     {
-        try {
-            return (Vector) this.children.clone();
-        } catch (Exception e) {
-            // this never happens, however, some Java compilers are so
-            // braindead that they require this exception clause
-            return null;
-        }
+        return (this.children == null) ? new Vector()
+                                       : new Vector(this.children);
     }
 
 
@@ -961,7 +1026,7 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        Object value = this.attributes.get(name);
+        Object value = this.findAttribute(name);
         if (value == null) {
             value = defaultValue;
         }
@@ -1014,7 +1079,7 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        Object key = this.attributes.get(name);
+        Object key = this.findAttribute(name);
         Object result;
         if (key == null) {
             key = defaultKey;
@@ -1196,7 +1261,7 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        String value = (String) this.attributes.get(name);
+        String value = this.findAttribute(name);
         if (value == null) {
             return defaultValue;
         } else {
@@ -1254,7 +1319,7 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        Object key = this.attributes.get(name);
+        Object key = this.findAttribute(name);
         Integer result;
         if (key == null) {
             key = defaultKey;
@@ -1333,7 +1398,7 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        String value = (String) this.attributes.get(name);
+        String value = this.findAttribute(name);
         if (value == null) {
             return defaultValue;
         } else {
@@ -1392,7 +1457,7 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        Object key = this.attributes.get(name);
+        Object key = this.findAttribute(name);
         Double result;
         if (key == null) {
             key = defaultKey;
@@ -1452,7 +1517,7 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        Object value = this.attributes.get(name);
+        Object value = this.findAttribute(name);
         if (value == null) {
             return defaultValue;
         } else if (value.equals(trueValue)) {
@@ -1688,13 +1753,40 @@ public class XMLElement
     public void parseFromReader(Reader reader,
                                 int    startingLineNr)
         throws IOException, XMLParseException
+    {
+        // read ahead only if what isn't used can be given back
+        this.readAhead = reader.markSupported();
+        this.input = new char[this.readAhead ? 1024 : 1];
+        this.inputPos = 0;
+        this.inputEnd = 0;
+        this.reader = reader;
+        try {
+            this.parse(startingLineNr);
+            if (this.readAhead && (this.inputPos < this.inputEnd)) {
+                reader.reset();
+                reader.skip(this.inputPos);
+            }
+        } finally {
+            this.reader = null;
+            this.input = null;
+        }
+    }
+
+
+    /**
+     * Parses one XML element from <code>input</code>, reading more from the
+     * reader if there is one.
+     */
+    private void parse(int startingLineNr)
+        throws IOException, XMLParseException
     {
         this.name = null;
         this.contents = "";
-        this.attributes = new Hashtable();
-        this.children = new Vector();
+        this.attributeNames = null;
+        this.attributeValues = null;
+        this.attributeCount = 0;
+        this.children = null;
         this.charReadTooMuch = '\0';
-        this.reader = reader;
         this.parserLineNr = startingLineNr;
 
         for (;;) {
@@ -1739,12 +1831,8 @@ public class XMLElement
     public void parseString(String string)
         throws XMLParseException
     {
-        try {
-            this.parseFromReader(new StringReader(string),
-                                 /*startingLineNr*/ 1);
-        } catch (IOException e) {
-            // Java exception handling suxx
-        }
+        this.parseCharArray(string.toCharArray(), 0, string.length(),
+                            /*startingLineNr*/ 1);
     }
 
 
@@ -1847,12 +1935,9 @@ public class XMLElement
                             int    startingLineNr)
         throws XMLParseException
     {
-        string = string.substring(offset, end);
-        try {
-            this.parseFromReader(new StringReader(string), startingLineNr);
-        } catch (IOException e) {
-            // Java exception handling suxx
-        }
+        char[] input = new char[end - offset];
+        string.getChars(offset, end, input, 0);
+        this.parseCharArray(input, 0, input.length, startingLineNr);
     }
 
 
@@ -1925,11 +2010,16 @@ public class XMLElement
                                int    startingLineNr)
         throws XMLParseException
     {
+        this.input = input;
+        this.inputPos = offset;
+        this.inputEnd = end;
+        this.reader = null;
         try {
-            Reader reader = new CharArrayReader(input, offset, end);
-            this.parseFromReader(reader, startingLineNr);
+            this.parse(startingLineNr);
         } catch (IOException e) {
             // This exception will never happen.
+        } finally {
+            this.input = null;
         }
     }
 
@@ -1959,7 +2049,9 @@ public class XMLElement
      */
     public void removeChild(XMLElement child)
     {
-        this.children.removeElement(child);
+        if (this.children != null) {
+            this.children.remove(child);
+        }
     }
 
 
@@ -2030,7 +2122,65 @@ public class XMLElement
         if (this.ignoreCase) {
             name = name.toUpperCase();
         }
-        this.attributes.remove(name);
+        for (int i = 0; i < this.attributeCount; i += 1) {
+            if (this.attributeNames[i].equals(name)) {
+                this.attributeCount -= 1;
+                System.arraycopy(this.attributeNames, i + 1,
+                                 this.attributeNames, i,
+                                 this.attributeCount - i);
+                System.arraycopy(this.attributeValues, i + 1,
+                                 this.attributeValues, i,
+                                 this.attributeCount - i);
+                this.attributeNames[this.attributeCount] = null;
+                this.attributeValues[this.attributeCount] = null;
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the value of an attribute, or <code>null</code> if it isn't
+     * set.
+     */
+    private String findAttribute(String name)
+    {
+        for (int i = 0; i < this.attributeCount; i += 1) {
+            if (this.attributeNames[i].equals(name)) {
+                return this.attributeValues[i];
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Sets an attribute, replacing any value it had.
+     */
+    private void putAttribute(String name,
+                              String value)
+    {
+        if (name == null) {
+            throw new NullPointerException();
+        }
+        for (int i = 0; i < this.attributeCount; i += 1) {
+            if (this.attributeNames[i].equals(name)) {
+                this.attributeValues[i] = value;
+                return;
+            }
+        }
+        if (this.attributeNames == null) {
+            this.attributeNames = new String[4];
+            this.attributeValues = new String[4];
+        } else if (this.attributeCount == this.attributeNames.length) {
+            this.attributeNames = Arrays.copyOf(this.attributeNames,
+                                                this.attributeCount * 2);
+            this.attributeValues = Arrays.copyOf(this.attributeValues,
+                                                 this.attributeCount * 2);
+        }
+        this.attributeNames[this.attributeCount] = name;
+        this.attributeValues[this.attributeCount] = value;
+        this.attributeCount += 1;
     }
 
 
@@ -2073,7 +2223,6 @@ public class XMLElement
     {
         return new XMLElement(this.entities,
                               this.ignoreWhitespace,
-                              false,
                               this.ignoreCase);
     }
 
@@ -2168,17 +2317,12 @@ public class XMLElement
         }
         writer.write('<');
         writer.write(this.name);
-        if (! this.attributes.isEmpty()) {
-            Enumeration enumr = this.attributes.keys();
-            while (enumr.hasMoreElements()) {
-                writer.write(' ');
-                String key = (String) enumr.nextElement();
-                String value = (String) this.attributes.get(key);
-                writer.write(key);
-                writer.write('='); writer.write('"');
-                this.writeEncoded(writer, value);
-                writer.write('"');
-            }
+        for (int i = 0; i < this.attributeCount; i += 1) {
+            writer.write(' ');
+            writer.write(this.attributeNames[i]);
+            writer.write('='); writer.write('"');
+            this.writeEncoded(writer, this.attributeValues[i]);
+            writer.write('"');
         }
         if ((this.contents != null) && (this.contents.length() > 0)) {
             writer.write('>');
@@ -2186,14 +2330,12 @@ public class XMLElement
             writer.write('<'); writer.write('/');
             writer.write(this.name);
             writer.write('>');
-        } else if (this.children.isEmpty()) {
+        } else if (this.countChildren() == 0) {
             writer.write('/'); writer.write('>');
         } else {
             writer.write('>');
-            Enumeration enumr = this.enumerateChildren();
-            while (enumr.hasMoreElements()) {
-                XMLElement child = (XMLElement) enumr.nextElement();
-                child.write(writer);
+            for (int i = 0; i < this.children.size(); i += 1) {
+                this.children.get(i).write(writer);
             }
             writer.write('<'); writer.write('/');
             writer.write(this.name);
@@ -2276,14 +2418,27 @@ public class XMLElement
      *         character.
      * </ul></dd></dl><dl>
      */
-    protected void scanIdentifier(StringBuffer result)
+    protected void scanIdentifier(StringBuilder result)
         throws IOException
     {
         for (;;) {
+            if ((this.charReadTooMuch == '\0')
+                && (this.inputPos < this.inputEnd)) {
+                char[] in = this.input;
+                int start = this.inputPos;
+                int end = this.inputEnd;
+                int i = start;
+                while ((i < end) && isIdentifierChar(in[i])) {
+                    i += 1;
+                }
+                result.append(in, start, i - start);
+                this.inputPos = i;
+                if (i < end) {
+                    return;
+                }
+            }
             char ch = this.readChar();
-            if (((ch < 'A') || (ch > 'Z')) && ((ch < 'a') || (ch > 'z'))
-                && ((ch < '0') || (ch > '9')) && (ch != '_') && (ch != '.')
-                && (ch != ':') && (ch != '-') && (ch <= '\u007E')) {
+            if (! isIdentifierChar(ch)) {
                 this.unreadChar(ch);
                 return;
             }
@@ -2292,6 +2447,17 @@ public class XMLElement
     }
 
 
+    /**
+     * Returns <code>true</code> if a character can be part of an identifier.
+     */
+    private static boolean isIdentifierChar(char ch)
+    {
+        return ((ch >= 'A') && (ch <= 'Z')) || ((ch >= 'a') && (ch <= 'z'))
+            || ((ch >= '0') && (ch <= '9')) || (ch == '_') || (ch == '.')
+            || (ch == ':') || (ch == '-') || (ch > '\u007E');
+    }
+
+
     /**
      * This method scans an identifier from the current reader.
      *
@@ -2301,7 +2467,7 @@ public class XMLElement
         throws IOException
     {
         for (;;) {
-            char ch = this.readChar();
+            char ch = this.nextChar();
             switch (ch) {
                 case ' ':
                 case '\t':
@@ -2325,11 +2491,11 @@ public class XMLElement
      * <ul><li><code>result != null</code>
      * </ul></dd></dl>
      */
-    protected char scanWhitespace(StringBuffer result)
+    protected char scanWhitespace(StringBuilder result)
         throws IOException
     {
         for (;;) {
-            char ch = this.readChar();
+            char ch = this.nextChar();
             switch (ch) {
                 case ' ':
                 case '\t':
@@ -2354,7 +2520,7 @@ public class XMLElement
      *     <li>the next char read is the string delimiter
      * </ul></dd></dl>
      */
-    protected void scanString(StringBuffer string)
+    protected void scanString(StringBuilder string)
         throws IOException
     {
         char delimiter = this.readChar();
@@ -2383,10 +2549,26 @@ public class XMLElement
      * <ul><li><code>data != null</code>
      * </ul></dd></dl>
      */
-    protected void scanPCData(StringBuffer data)
+    protected void scanPCData(StringBuilder data)
         throws IOException
     {
         for (;;) {
+            if ((this.charReadTooMuch == '\0')
+                && (this.inputPos < this.inputEnd)) {
+                char[] in = this.input;
+                int start = this.inputPos;
+                int end = this.inputEnd;
+                int i = start;
+                char ch;
+                while ((i < end) && ((ch = in[i]) != '<') && (ch != '&')) {
+                    if (ch == '\n') {
+                        this.parserLineNr += 1;
+                    }
+                    i += 1;
+                }
+                data.append(in, start, i - start);
+                this.inputPos = i;
+            }
             char ch = this.readChar();
             if (ch == '<') {
                 ch = this.readChar();
@@ -2414,7 +2596,7 @@ public class XMLElement
      *     <li>The first &lt; has already been read.
      * </ul></dd></dl>
      */
-    protected boolean checkCDATA(StringBuffer buf)
+    protected boolean checkCDATA(StringBuilder buf)
         throws IOException
     {
         char ch = this.readChar();
@@ -2581,19 +2763,69 @@ public class XMLElement
             this.charReadTooMuch = '\0';
             return ch;
         } else {
-            int i = this.reader.read();
-            if (i < 0) {
+            if ((this.inputPos == this.inputEnd) && ! this.fillInput()) {
                 throw this.unexpectedEndOfData();
-            } else if (i == 10) {
+            }
+            char ch = this.input[this.inputPos++];
+            if (ch == '\n') {
                 this.parserLineNr += 1;
-                return '\n';
-            } else {
-                return (char) i;
             }
+            return ch;
         }
     }
 
 
+    /**
+     * Reads a character, straight from <code>input</code> if it can.
+     */
+    private char nextChar()
+        throws IOException
+    {
+        if ((this.charReadTooMuch == '\0')
+            && (this.inputPos < this.inputEnd)) {
+            char ch = this.input[this.inputPos++];
+            if (ch == '\n') {
+                this.parserLineNr += 1;
+            }
+            return ch;
+        }
+        return this.readChar();
+    }
+
+
+    /**
+     * Reads more of the reader into <code>input</code>.
+     *
+     * @return <code>false</code> if there is nothing more to read.
+     *
+     * </dl><dl><dt><b>Preconditions:</b></dt><dd>
+     * <ul><li><code>inputPos == inputEnd</code>
+     * </ul></dd></dl>
+     */
+    private boolean fillInput()
+        throws IOException
+    {
+        if (this.reader == null) {
+            return false;
+        }
+        int n;
+        if (this.readAhead) {
+            this.reader.mark(this.input.length);
+            n = this.reader.read(this.input, 0, this.input.length);
+        } else {
+            int i = this.reader.read();
+            this.input[0] = (char) i;
+            n = (i < 0) ? -1 : 1;
+        }
+        if (n <= 0) {
+            return false;
+        }
+        this.inputPos = 0;
+        this.inputEnd = n;
+        return true;
+    }
+
+
     /**
      * Scans an XML element.
      *
@@ -2607,7 +2839,7 @@ public class XMLElement
     protected void scanElement(XMLElement elt)
         throws IOException
     {
-        StringBuffer buf = new StringBuffer();
+        StringBuilder buf = new StringBuilder();
         this.scanIdentifier(buf);
         String name = buf.toString();
         elt.setName(name);
@@ -2722,37 +2954,186 @@ public class XMLElement
      *     <li><code>buf != null</code>
      * </ul></dd></dl>
      */
-    protected void resolveEntity(StringBuffer buf)
+    protected void resolveEntity(StringBuilder buf)
         throws IOException
     {
-        char ch = '\0';
-        StringBuffer keyBuf = new StringBuffer();
+        StringBuilder key = this.entityKey;
+        if (key == null) {
+            key = this.entityKey = new StringBuilder();
+        }
+        key.setLength(0);
         for (;;) {
-            ch = this.readChar();
+            char ch = this.nextChar();
             if (ch == ';') {
                 break;
             }
-            keyBuf.append(ch);
+            key.append(ch);
         }
-        String key = keyBuf.toString();
-        if (key.charAt(0) == '#') {
+        int length = key.length();
+        if ((length > 1) && (key.charAt(0) == '#')) {
+            // short character references are decoded in place; anything
+            // else goes through Integer.parseInt as it always has
+            int radix = 10;
+            int i = 1;
+            if (key.charAt(1) == 'x') {
+                radix = 16;
+                i = 2;
+            }
+            int value = 0;
+            boolean decoded = (i < length) && (length - i <= 6);
+            for (; decoded && (i < length); i += 1) {
+                int digit = Character.digit(key.charAt(i), radix);
+                decoded = digit >= 0;
+                value = (value * radix) + digit;
+            }
+            if (decoded) {
+                buf.append((char) value);
+                return;
+            }
+            String name = key.toString();
+            char ch;
             try {
-                if (key.charAt(1) == 'x') {
-                    ch = (char) Integer.parseInt(key.substring(2), 16);
+                if (name.charAt(1) == 'x') {
+                    ch = (char) Integer.parseInt(name.substring(2), 16);
                 } else {
-                    ch = (char) Integer.parseInt(key.substring(1), 10);
+                    ch = (char) Integer.parseInt(name.substring(1), 10);
                 }
             } catch (NumberFormatException e) {
-                throw this.unknownEntity(key);
+                throw this.unknownEntity(name);
             }
             buf.append(ch);
-        } else {
-            char[] value = (char[]) this.entities.get(key);
-            if (value == null) {
-                throw this.unknownEntity(key);
+        } else if (! this.entities.resolve(key, buf)) {
+            throw this.unknownEntity(key.toString());
+        }
+    }
+
+
+    /**
+     * An immutable entity conversion table. The basic entities are resolved
+     * by a switch on their name; any others given to the constructor are
+     * copied into a map when it is compiled.
+     */
+    private static final class EntityTable
+    {
+
+        /**
+         * The table of an element constructed without entities of its own,
+         * shared by all of them.
+         */
+        static final EntityTable BASIC = new EntityTable(true, null);
+
+
+        /**
+         * <code>true</code> if the basic entities are resolved before the
+         * others, as they replace any of the same name.
+         */
+        private final boolean basic;
+
+
+        /**
+         * The other entities, or <code>null</code> if there are none.
+         */
+        private final HashMap<String, char[]> others;
+
+
+        private EntityTable(boolean                 basic,
+                            HashMap<String, char[]> others)
+        {
+            this.basic = basic;
+            this.others = others;
+        }
+
+
+        /**
+         * Compiles a table given to a constructor. Its values are strings or
+         * char arrays; it isn't changed, and later changes to it are not seen.
+         */
+        static EntityTable compile(Hashtable entities,
+                                   boolean   fillBasicConversionTable)
+        {
+            if (entities.isEmpty() && fillBasicConversionTable) {
+                return BASIC;
             }
-            buf.append(value);
+            HashMap<String, char[]> others
+                = new HashMap<String, char[]>(entities.size() * 2);
+            Enumeration enumr = entities.keys();
+            while (enumr.hasMoreElements()) {
+                Object key = enumr.nextElement();
+                Object value = entities.get(key);
+                if (value instanceof String) {
+                    others.put((String) key, ((String) value).toCharArray());
+                } else {
+                    others.put((String) key, ((char[]) value).clone());
+                }
+            }
+            return new EntityTable(fillBasicConversionTable, others);
+        }
+
+
+        /**
+         * Appends the value of the entity named <code>key</code> to
+         * <code>buf</code>.
+         *
+         * @return <code>false</code> if there is no such entity.
+         */
+        boolean resolve(CharSequence  key,
+                        StringBuilder buf)
+        {
+            if (this.basic) {
+                char ch = basicEntity(key);
+                if (ch != '\0') {
+                    buf.append(ch);
+                    return true;
+                }
+            }
+            if (this.others != null) {
+                char[] value = this.others.get(key.toString());
+                if (value != null) {
+                    buf.append(value);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+
+        /**
+         * Returns the value of one of the basic entities, or '\0' if
+         * <code>key</code> isn't one.
+         */
+        private static char basicEntity(CharSequence key)
+        {
+            switch (key.length()) {
+                case 2:
+                    if (key.charAt(1) == 't') {
+                        if (key.charAt(0) == 'l') {
+                            return '<';
+                        } else if (key.charAt(0) == 'g') {
+                            return '>';
+                        }
+                    }
+                    break;
+                case 3:
+                    if ((key.charAt(0) == 'a') && (key.charAt(1) == 'm')
+                        && (key.charAt(2) == 'p')) {
+                        return '&';
+                    }
+                    break;
+                case 4:
+                    if ((key.charAt(0) == 'q') && (key.charAt(1) == 'u')
+                        && (key.charAt(2) == 'o') && (key.charAt(3) == 't')) {
+                        return '"';
+                    } else if ((key.charAt(0) == 'a') && (key.charAt(1) == 'p')
+                        && (key.charAt(2) == 'o') && (key.charAt(3) == 's')) {
+                        return '\'';
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return '\0';
         }
+
     }
 
 